@@ -2,16 +2,29 @@ package victory.engine;
 
 import java.awt.BorderLayout;
 import java.awt.KeyboardFocusManager;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.swing.*;
 
+import victory.engine.battle.BattleData;
+import victory.engine.battle.SearchPolicy;
 import victory.engine.graphics.Screen;
 import victory.engine.graphics.SpriteSheet;
 import victory.engine.gui.KeyStateManager;
 import victory.engine.gui.GUIEngine;
+import victory.engine.gui.Schedule;
+import victory.engine.script.ScriptLibrary;
+import victory.engine.world.EditJournal;
 import victory.engine.world.Map;
+import victory.engine.world.MapCache;
 import victory.engine.world.MapEngine;
+import victory.engine.world.NPCEntity;
 import victory.engine.world.Player;
+import victory.engine.world.Portals;
+import victory.engine.world.TriggerLayer;
+import victory.engine.world.WorldScripts;
 
 /**
     Core class that performs the main logic in a game. It handles timing for
@@ -23,18 +36,48 @@ public class Core extends JPanel {
 
     private Screen              screen;
 
-    // Changing this number will cause strange things to happen with timing.
-    private static final int    FRAMERATE   = 60;
+    /**
+     * Ticks per second when none is given. Everything that moves or counts
+     * down does so in seconds, so any rate works.
+     */
+    public static final int     DEFAULT_TICK_RATE   = 60;
+    /**
+     * Most ticks run in one frame to catch up after a stall.
+     */
+    private static final int    MAX_CATCH_UP    = 4;
 
+    private final int           tickRate;
     private boolean             running     = false;
     int                         width, height;
     protected static int        tickCount   = 0;
 
     private KeyStateManager     buttonManager;
+    /**
+     * Time from a key press to the frame that shows it.
+     */
+    private LatencyTracker      latency;
+
+    /**
+     * Log of the edits made to the world map.
+     */
+    private EditJournal         journal;
 
     public Core(int w, int h, int s){
+        this(w, h, s, DEFAULT_TICK_RATE);
+    }
+
+    /**
+        @param w screen width
+        @param h screen height
+        @param s screen scale
+        @param rate ticks per second
+     */
+    public Core(int w, int h, int s, int rate){
+        tickRate = Math.max(1, rate);
         setLayout(new BorderLayout());
         buttonManager = new KeyStateManager();
+        latency = new LatencyTracker();
+        buttonManager.setLatencyTracker(latency);
         KeyboardFocusManager.getCurrentKeyboardFocusManager().
             addKeyEventDispatcher(buttonManager);
         width = w;
@@ -44,11 +87,51 @@ public class Core extends JPanel {
 
         GUIEngine.init(w, h);
 
-        MapEngine world =
-            new MapEngine(w, h, new Map(32, 32, new SpriteSheet("world.png"), "map/csv/world.csv"));
+        Map worldMap = new Map(32, 32, new SpriteSheet("world.png"), "map/csv/world.csv");
+        try {
+            journal = new EditJournal(worldMap, new File("map/csv/world.csv.journal"));
+            journal.replay();
+        } catch(IOException e) {
+            // Edits just won't be kept.
+            e.printStackTrace();
+            journal = null;
+        }
+        worldMap.setTriggers(TriggerLayer.load(worldMap, "map/tmx/world.tmx"));
+        worldMap.loadLayers("map/tmx/world.tmx");
+        MapEngine world = new MapEngine(w, h, worldMap);
         world.addEntity(new Player(128, 128));
         world.attachInput(0);
-        GUIEngine.addGUI(world);
+        WorldScripts host = new WorldScripts(world);
+        try {
+            // The enemy thinks for most of the pause between its moves.
+            host.setBattles(BattleData.load(), new SearchPolicy(
+                    new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)),
+                    400000000L, 1 << 14), "Hero", "Mage");
+        } catch(IOException e) {
+            // Scripts just can't start battles.
+            e.printStackTrace();
+        }
+        ScriptLibrary scripts = new ScriptLibrary(host);
+        world.setScriptLibrary(scripts);
+        try {
+            scripts.loadAll("script");
+            NPCEntity villager = new NPCEntity(192, 128);
+            villager.setScript(scripts.start("villager", villager));
+            world.addEntity(villager);
+        } catch(IOException e) {
+            // No scripted characters, then.
+            e.printStackTrace();
+        }
+        // Keep the world and up to three maps reachable from where we are.
+        // The world is pinned, since its journal is bound to this Map.
+        MapCache maps = new MapCache(4);
+        maps.put("world", worldMap);
+        maps.pin("world");
+        maps.setCurrent("world");
+        world.setMapCache(maps);
+        world.addTriggerListener(new Portals(world, maps));
+        // The world stands still under menus, and gets a quarter of a frame.
+        GUIEngine.addGUI(world, Schedule.pauseWhenCovered(1000000000L / tickRate / 4));
 
         running = true;
     }
@@ -70,44 +153,52 @@ public class Core extends JPanel {
                 About half of the code in this method is his.)
      */
     public void update(){
-        long lastTime = System.nanoTime();
-        double nsPerTick = 1000000000D / FRAMERATE;
+        double delta = 1d / tickRate;
+        FramePacer pacer = new FramePacer(tickRate, MAX_CATCH_UP, FramePacer.Skip.DROP);
         int rendersThisSecond = 0;
         long tickTimer = System.currentTimeMillis();
-        double delta = 0;
         while(running){
-            long now = System.nanoTime();
-            delta = (now - lastTime) / nsPerTick;
-            lastTime = now;
+            int ticks = pacer.ticksDue();
+            for(int i = 0; i < ticks; ++i) {
+                tick(delta);
+            }
             rendersThisSecond++;
-            do {
-                tick((delta >= 1d) ? 1d : delta);
-                delta--;
-            } while(delta > 0);
 
             draw();
-
-            try {
-                Thread.sleep(2);
-            } catch(InterruptedException e) {
-                // Exit if we can't thread
-                e.printStackTrace();
-            }
-
             render();
 
+            pacer.waitForNextFrame();
+
             if(System.currentTimeMillis() - tickTimer > 1000) {
                 tickTimer += 1000;
-                System.err.println(rendersThisSecond + "fps");
+                System.err.println(rendersThisSecond + "fps, " + pacer + ", " + latency);
+                pacer.resetStats();
+                GUIEngine.reportOverruns();
+                syncJournal();
                 rendersThisSecond = 0;
             }
         }
     }
 
+    /**
+        Writes out the world's pending edits.
+    */
+    private void syncJournal() {
+        if(journal == null) return;
+        try {
+            journal.sync();
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
         Game logic method.
+
+        @param delta length of the tick, in seconds
     */
     protected void tick(double delta) {
+        latency.tick();
         GUIEngine.control(buttonManager);
         GUIEngine.update(delta);
         buttonManager.update();
@@ -125,6 +216,23 @@ public class Core extends JPanel {
     */
     private void render() {
         screen.render();
+        latency.presented();
+    }
+
+    /**
+        @return ticks per second
+     */
+    public int getTickRate() {
+        return tickRate;
+    }
+
+    /**
+        Get the input latency recorded so far, for benchmarks to read.
+
+        @return this Core's LatencyTracker
+     */
+    public LatencyTracker getLatencyTracker() {
+        return latency;
     }
 
     /**
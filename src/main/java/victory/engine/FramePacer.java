@@ -0,0 +1,172 @@
+package victory.engine;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces the game loop at a fixed tick rate.
+ *
+ * Between frames, the thread parks until shortly before the next tick is
+ * due and then yields in a loop the rest of the way, which wakes it on time
+ * without keeping a core busy, and leaves the core to the input and render
+ * threads on machines with only one. After a stall, at most a set number of ticks are run
+ * to catch up; the Skip policy says what happens to any time beyond that.
+ *
+ * It also keeps frame-time jitter: how far each frame's start was from one
+ * tick after the last one.
+ *
+ * @author Victoria Lacroix
+ */
+public class FramePacer {
+    /**
+     * What to do with time left over once the most catch-up ticks have run.
+     */
+    public static enum Skip {
+        /**
+         * Forget it. The game runs slow for a moment, but never rushes.
+         */
+        DROP,
+        /**
+         * Keep up to maxCatchUp more ticks of it for the next frames, and
+         * forget the rest.
+         */
+        CARRY;
+    }
+
+    private final long          nsPerTick;
+    private final int           maxCatchUp;
+    private final Skip          skip;
+    /**
+     * How long before a deadline to stop parking and start yielding.
+     */
+    private long                spinNanos   = 1000000;
+
+    /**
+     * When the next tick is due.
+     */
+    private long                next;
+    private long                lastFrame;
+
+    /**
+     * Statistics since the last reset.
+     */
+    private int                 frames;
+    private double              jitterSum, jitterSqSum;
+    private long                jitterMax;
+    private long                skipped;
+
+    /**
+     * @param tickRate ticks per second
+     * @param catchUp most ticks to run in one frame
+     * @param s what to do with time beyond that
+     */
+    public FramePacer(int tickRate, int catchUp, Skip s) {
+        nsPerTick = 1000000000L / tickRate;
+        maxCatchUp = Math.max(1, catchUp);
+        skip = s;
+        next = System.nanoTime();
+        lastFrame = next;
+    }
+
+    /**
+     * @param ns how long before a deadline to start yielding. Bigger values
+     *           are more accurate on systems with coarse timers, and use
+     *           more CPU.
+     */
+    public void setSpin(long ns) {
+        spinNanos = ns;
+    }
+
+    /**
+     * @return how many ticks to run before drawing this frame.
+     */
+    public int ticksDue() {
+        long now = System.nanoTime();
+        int n = 0;
+        while(now - next >= 0 && n < maxCatchUp) {
+            next += nsPerTick;
+            n++;
+        }
+        long behind = now - next;
+        if(behind >= 0) {
+            if(skip == Skip.DROP) {
+                skipped += behind / nsPerTick + 1;
+                next = now + nsPerTick;
+            } else if(behind >= maxCatchUp * nsPerTick) {
+                skipped += behind / nsPerTick + 1 - maxCatchUp;
+                next = now - (maxCatchUp - 1) * nsPerTick;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Waits until the next tick is due: parks for most of the wait, then
+     * yields until the deadline.
+     */
+    public void waitForNextFrame() {
+        long deadline = next;
+        while(true) {
+            long left = deadline - System.nanoTime();
+            if(left <= 0) break;
+            if(left > spinNanos) {
+                LockSupport.parkNanos(left - spinNanos);
+            } else {
+                Thread.yield();
+            }
+        }
+        long now = System.nanoTime();
+        long jitter = Math.abs((now - lastFrame) - nsPerTick);
+        lastFrame = now;
+        frames++;
+        jitterSum += jitter;
+        jitterSqSum += (double)jitter * jitter;
+        jitterMax = Math.max(jitterMax, jitter);
+    }
+
+    /**
+     * @return mean frame-time jitter since the last reset, in nanoseconds.
+     */
+    public double getJitterMean() {
+        return (frames == 0) ? 0 : jitterSum / frames;
+    }
+
+    /**
+     * @return standard deviation of the jitter, in nanoseconds.
+     */
+    public double getJitterDeviation() {
+        if(frames == 0) return 0;
+        double mean = jitterSum / frames;
+        return Math.sqrt(Math.max(0, jitterSqSum / frames - mean * mean));
+    }
+
+    /**
+     * @return worst jitter since the last reset, in nanoseconds.
+     */
+    public long getJitterMax() {
+        return jitterMax;
+    }
+
+    /**
+     * @return ticks dropped since the last reset.
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Starts the statistics over.
+     */
+    public void resetStats() {
+        frames = 0;
+        jitterSum = 0;
+        jitterSqSum = 0;
+        jitterMax = 0;
+        skipped = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("jitter %.0fus mean, %.0fus dev, %dus max, %d ticks skipped",
+                getJitterMean() / 1000, getJitterDeviation() / 1000, jitterMax / 1000, skipped);
+    }
+}
@@ -20,12 +20,23 @@ public class GameFrame extends JFrame implements Runnable {
     /**
      * Game logic.
      */
-    private Core                    game                = new Core(GAME_SCREEN_WIDTH, GAME_SCREEN_HEIGHT, SCALE);
+    private Core                    game;
 
     /**
      * Creates new Game object.
      */
     public GameFrame() {
+        this(Core.DEFAULT_TICK_RATE);
+    }
+
+    /**
+     * Creates new Game object.
+     * 
+     * @param tickRate
+     *            simulation ticks per second.
+     */
+    public GameFrame(int tickRate) {
+        game = new Core(GAME_SCREEN_WIDTH, GAME_SCREEN_HEIGHT, SCALE, tickRate);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLayout(new BorderLayout());
         setTitle(GAME_TITLE);
@@ -42,10 +53,10 @@ public class GameFrame extends JFrame implements Runnable {
      * Creates a new Game object and jumps straight to the game logic. Prevents anything from running as "static"
      * 
      * @param args
-     *            command-line arguments.
+     *            command-line arguments: optional ticks per second.
      */
     public static void main(String args[]) {
-        new GameFrame();
+        new GameFrame((args.length > 0) ? Integer.parseInt(args[0]) : Core.DEFAULT_TICK_RATE);
     }
 
     /**
@@ -0,0 +1,252 @@
+package victory.engine;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how long input takes to reach the screen. Each input event is
+ * stamped when it arrives, stamped again by the tick that reads it, and
+ * finished by the next present, which shows what that tick did. Three
+ * latencies are kept, each as a histogram:
+ *
+ * <pre>
+ * QUEUE    arrival to the start of the tick that reads it
+ * PROCESS  that tick's start to the present that shows it
+ * TOTAL    arrival to present
+ * </pre>
+ *
+ * Events arrive on the input thread and are handed to the game thread
+ * through a fixed ring, so neither side locks or allocates.
+ *
+ * @author Victoria Lacroix
+ */
+public class LatencyTracker {
+    public static enum Stage {
+        QUEUE, PROCESS, TOTAL;
+    }
+
+    /**
+     * Latencies in buckets that grow with the value: four per power of two
+     * microseconds, so each bucket is within 19% of the values in it.
+     */
+    public static class Histogram {
+        private static final int    SUB     = 4;
+        private static final int    BUCKETS = 32 * SUB;
+
+        private final long[]        counts  = new long[BUCKETS];
+        private long                total   = 0;
+        private long                max     = 0;
+        private double              sum     = 0;
+
+        private static int bucket(long micros) {
+            if(micros < SUB) return (int)Math.max(0, micros);
+            int log = 63 - Long.numberOfLeadingZeros(micros);
+            int sub = (int)(micros >>> (log - 2)) & (SUB - 1);
+            return Math.min(BUCKETS - 1, (log - 1) * SUB + sub);
+        }
+
+        /**
+         * @return the largest value, in microseconds, that falls in a bucket.
+         */
+        public static long upperBound(int b) {
+            if(b < SUB) return b;
+            int log = b / SUB + 1, sub = b % SUB;
+            return ((long)(SUB + sub + 1) << (log - 2)) - 1;
+        }
+
+        void record(long nanos) {
+            long micros = nanos / 1000;
+            counts[bucket(micros)]++;
+            total++;
+            sum += micros;
+            max = Math.max(max, micros);
+        }
+
+        void copyFrom(Histogram h) {
+            System.arraycopy(h.counts, 0, counts, 0, BUCKETS);
+            total = h.total;
+            max = h.max;
+            sum = h.sum;
+        }
+
+        /**
+         * @return how many latencies were recorded.
+         */
+        public long getCount() {
+            return total;
+        }
+
+        /**
+         * @return how many latencies fell in a bucket.
+         */
+        public long getCount(int b) {
+            return counts[b];
+        }
+
+        public int getBuckets() {
+            return BUCKETS;
+        }
+
+        /**
+         * @param p 0 to 100
+         * @return the latency, in microseconds, that p percent of the
+         *         recorded ones are at or under, to within a bucket.
+         */
+        public long percentile(double p) {
+            if(total == 0) return 0;
+            long rank = (long)Math.ceil(total * p / 100);
+            long seen = 0;
+            for(int b = 0; b < BUCKETS; ++b) {
+                seen += counts[b];
+                if(seen >= Math.max(1, rank)) return Math.min(max, upperBound(b));
+            }
+            return max;
+        }
+
+        /**
+         * @return the mean latency, in microseconds.
+         */
+        public double mean() {
+            return (total == 0) ? 0 : sum / total;
+        }
+
+        /**
+         * @return the largest latency, in microseconds.
+         */
+        public long getMax() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("p50 %.2fms, p99 %.2fms, max %.2fms",
+                    percentile(50) / 1000.0, percentile(99) / 1000.0, max / 1000.0);
+        }
+    }
+
+    private static final int    RING        = 256;
+
+    /**
+     * Arrival times, written by the input thread and read by the game
+     * thread. written counts every arrival ever stamped.
+     */
+    private final long[]        arrivals    = new long[RING];
+    private final AtomicLong    written     = new AtomicLong();
+    private long                read        = 0;
+
+    /**
+     * Events read by a tick that have not been presented yet.
+     */
+    private final long[]        waitArrival = new long[RING];
+    private final long[]        waitTick    = new long[RING];
+    private int                 waiting     = 0;
+
+    private final Histogram[]   histograms  = new Histogram[Stage.values().length];
+    private long                dropped     = 0;
+
+    public LatencyTracker() {
+        for(int i = 0; i < histograms.length; ++i) {
+            histograms[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Stamps an input event. Call from the thread events arrive on.
+     */
+    public void arrived() {
+        long w = written.get();
+        arrivals[(int)(w & (RING - 1))] = System.nanoTime();
+        written.lazySet(w + 1);
+    }
+
+    /**
+     * Takes every event that has arrived as read by the tick starting now.
+     * Call from the game thread before the tick reads input.
+     */
+    public synchronized void tick() {
+        long w = written.get();
+        if(w - read > RING) {
+            // The input thread lapped us; the oldest stamps are gone.
+            dropped += w - read - RING;
+            read = w - RING;
+        }
+        if(read == w) return;
+        long now = System.nanoTime();
+        for(; read < w; ++read) {
+            if(waiting == RING) {
+                dropped++;
+                continue;
+            }
+            waitArrival[waiting] = arrivals[(int)(read & (RING - 1))];
+            waitTick[waiting] = now;
+            waiting++;
+        }
+    }
+
+    /**
+     * Finishes every event read so far. Call from the game thread right
+     * after the frame is shown.
+     */
+    public synchronized void presented() {
+        if(waiting == 0) return;
+        long now = System.nanoTime();
+        for(int i = 0; i < waiting; ++i) {
+            histograms[Stage.QUEUE.ordinal()].record(waitTick[i] - waitArrival[i]);
+            histograms[Stage.PROCESS.ordinal()].record(now - waitTick[i]);
+            histograms[Stage.TOTAL.ordinal()].record(now - waitArrival[i]);
+        }
+        waiting = 0;
+    }
+
+    /**
+     * @return a copy of a stage's histogram, safe to read on any thread.
+     */
+    public synchronized Histogram getHistogram(Stage s) {
+        Histogram h = new Histogram();
+        h.copyFrom(histograms[s.ordinal()]);
+        return h;
+    }
+
+    /**
+     * @return how many events were lost because too many arrived between
+     *         ticks or presents.
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Forgets every recorded latency.
+     */
+    public synchronized void reset() {
+        for(int i = 0; i < histograms.length; ++i) {
+            histograms[i] = new Histogram();
+        }
+        dropped = 0;
+    }
+
+    /**
+     * Writes every histogram as CSV: stage, bucket upper bound in
+     * microseconds, count. Empty buckets are left out.
+     * @param w
+     * @throws IOException
+     */
+    public void writeCsv(Writer w) throws IOException {
+        w.write("stage,upper_us,count\n");
+        for(Stage s : Stage.values()) {
+            Histogram h = getHistogram(s);
+            for(int b = 0; b < h.getBuckets(); ++b) {
+                if(h.getCount(b) > 0) {
+                    w.write(s + "," + Histogram.upperBound(b) + "," + h.getCount(b) + "\n");
+                }
+            }
+        }
+        w.flush();
+    }
+
+    @Override
+    public String toString() {
+        return "input latency " + getHistogram(Stage.TOTAL);
+    }
+}
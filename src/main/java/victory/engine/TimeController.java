@@ -3,7 +3,7 @@ package victory.engine;
 public interface TimeController {
     /**
      * Updates the this object in relation to time.
-     * @param delta relative length of the tick made, for animations and stuff.
+     * @param delta length of the tick made, in seconds.
      */
     public void update(double delta);
 }
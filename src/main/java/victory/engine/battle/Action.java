@@ -0,0 +1,38 @@
+package victory.engine.battle;
+
+/**
+ * Something a combatant can do on its turn, as read from the actions file.
+ * @author Victoria Lacroix
+ */
+public class Action {
+    /**
+     * Kinds of action.
+     */
+    public static final int ATTACK  = 0;
+    public static final int HEAL    = 1;
+    public static final int GUARD   = 2;
+
+    /**
+     * Who an action can be used on.
+     */
+    public static final int ENEMY   = 0;
+    public static final int ALLY    = 1;
+    public static final int SELF    = 2;
+
+    public final String     name;
+    public final int        kind;
+    public final int        power;
+    /**
+     * Chance to hit, in percent.
+     */
+    public final int        accuracy;
+    public final int        target;
+
+    public Action(String n, int k, int p, int a, int t) {
+        name = n;
+        kind = k;
+        power = p;
+        accuracy = a;
+        target = t;
+    }
+}
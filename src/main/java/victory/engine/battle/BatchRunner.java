@@ -0,0 +1,128 @@
+package victory.engine.battle;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Plays many seeded battles across every core and adds up how they went,
+ * for balancing encounters. The same seed always gives the same results,
+ * however many threads run them.
+ *
+ *      BatchRunner battles seed Hero,Mage Slime,Slime,Wolf
+ *
+ * @author Victoria Lacroix
+ */
+public class BatchRunner {
+    /**
+     * How a batch went.
+     */
+    public static class Result {
+        public final int    battles;
+        /**
+         * Wins of team 0 and team 1, and draws.
+         */
+        public final int    wins0, wins1, draws;
+        /**
+         * Averages over every battle: actions taken, and the health each
+         * team had left as a fraction of its full health.
+         */
+        public final double meanActions, meanHealth0, meanHealth1;
+
+        Result(int b, int w0, int w1, int d, double a, double h0, double h1) {
+            battles = b;
+            wins0 = w0;
+            wins1 = w1;
+            draws = d;
+            meanActions = a;
+            meanHealth0 = h0;
+            meanHealth1 = h1;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d battles: team 0 won %.1f%%, team 1 won %.1f%%, %.1f%% draws; "
+                    + "%.1f actions, health left %.1f%% / %.1f%%", battles,
+                    100.0 * wins0 / battles, 100.0 * wins1 / battles, 100.0 * draws / battles,
+                    meanActions, 100 * meanHealth0, 100 * meanHealth1);
+        }
+    }
+
+    /**
+     * Battles run by one task, one after another with one state.
+     */
+    private static final int    CHUNK   = 256;
+
+    /**
+     * Plays battles from one starting state.
+     * @param start state every battle starts from; not changed
+     * @param teams policy of each team, shared by every thread
+     * @param battles how many to play
+     * @param seed battle i uses a generator seeded from seed and i
+     */
+    public static Result run(final BattleState start, final Policy[] teams, final int battles, final long seed) {
+        final int chunks = (battles + CHUNK - 1) / CHUNK;
+        final long[][] totals = new long[chunks][];
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            BattleState s = start.copy();
+            long w0 = 0, w1 = 0, d = 0, actions = 0, h0 = 0, h1 = 0;
+            int end = Math.min(battles, (c + 1) * CHUNK);
+            for(int i = c * CHUNK; i < end; ++i) {
+                s.copyFrom(start);
+                int w = BattleSim.play(s, teams, new SplittableRandom(seed ^ (i * 0x9E3779B97F4A7C15L)));
+                if(w == 0) w0++;
+                else if(w == 1) w1++;
+                else d++;
+                actions += s.getActions();
+                // Health in millionths, so it adds up exactly in a long.
+                h0 += (long)(s.getHealth(0) * 1000000);
+                h1 += (long)(s.getHealth(1) * 1000000);
+            }
+            totals[c] = new long[] { w0, w1, d, actions, h0, h1 };
+        });
+        long[] sum = new long[6];
+        for(long[] t : totals) {
+            for(int i = 0; i < sum.length; ++i) {
+                sum[i] += t[i];
+            }
+        }
+        double n = Math.max(1, battles);
+        return new Result(battles, (int)sum[0], (int)sum[1], (int)sum[2],
+                sum[3] / n, sum[4] / n / 1000000, sum[5] / n / 1000000);
+    }
+
+    /**
+     * Builds a battle from combatant names.
+     * @param d
+     * @param team0 names of team 0, separated by commas
+     * @param team1 names of team 1
+     * @throws IOException if a name is unknown.
+     */
+    public static BattleState battle(BattleData d, String team0, String team1) throws IOException {
+        String[] a = team0.split(","), b = team1.split(",");
+        int[] kinds = new int[a.length + b.length];
+        int[] teams = new int[kinds.length];
+        for(int i = 0; i < kinds.length; ++i) {
+            String name = (i < a.length) ? a[i].trim() : b[i - a.length].trim();
+            kinds[i] = d.find(name);
+            teams[i] = (i < a.length) ? 0 : 1;
+            if(kinds[i] < 0) {
+                throw new IOException("Unknown combatant " + name);
+            }
+        }
+        return new BattleState(d, kinds, teams);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 4) {
+            System.err.println("Usage: BatchRunner <battles> <seed> <team 0> <team 1>");
+            System.exit(1);
+        }
+        BattleState start = battle(BattleData.load(), args[2], args[3]);
+        long t = System.nanoTime();
+        Result r = run(start, new Policy[] { BattleSim.RANDOM, BattleSim.RANDOM },
+                Integer.parseInt(args[0]), Long.parseLong(args[1]));
+        System.out.println(r);
+        System.err.println("in " + (System.nanoTime() - t) / 1000000 + "ms");
+    }
+}
@@ -0,0 +1,118 @@
+package victory.engine.battle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Every action and combatant a battle can use. Read once from two CSV files
+ * and never changed, so any number of battles can share it across threads.
+ *
+ * Lines starting with # are comments.
+ *      actions:    name,kind,power,accuracy,target
+ *      combatants: name,hp,attack,defense,speed,action;action;...
+ *
+ * @author Victoria Lacroix
+ */
+public class BattleData {
+    public static final String  ACTIONS     = "battle/actions.csv";
+    public static final String  COMBATANTS  = "battle/combatants.csv";
+
+    private final Action[]      actions;
+    private final Combatant[]   combatants;
+    private final HashMap<String, Integer> byName = new HashMap<String, Integer>();
+
+    public BattleData(Action[] a, Combatant[] c) {
+        actions = a;
+        combatants = c;
+        for(int i = 0; i < c.length; ++i) {
+            byName.put(c[i].name, i);
+        }
+    }
+
+    /**
+     * Reads the default data files.
+     */
+    public static BattleData load() throws IOException {
+        return load(ACTIONS, COMBATANTS);
+    }
+
+    /**
+     * @param actionsUrl
+     * @param combatantsUrl
+     * @throws IOException if a file cannot be read or has a bad line.
+     */
+    public static BattleData load(String actionsUrl, String combatantsUrl) throws IOException {
+        ArrayList<Action> actions = new ArrayList<Action>();
+        HashMap<String, Integer> actionIndex = new HashMap<String, Integer>();
+        for(String[] f : rows(actionsUrl, 5)) {
+            actionIndex.put(f[0], actions.size());
+            actions.add(new Action(f[0], keyword(f[1], "attack", "heal", "guard"), Integer.parseInt(f[2]),
+                    Integer.parseInt(f[3]), keyword(f[4], "enemy", "ally", "self")));
+        }
+        ArrayList<Combatant> combatants = new ArrayList<Combatant>();
+        for(String[] f : rows(combatantsUrl, 6)) {
+            String[] names = f[5].split(";");
+            int[] acts = new int[names.length];
+            for(int i = 0; i < names.length; ++i) {
+                Integer a = actionIndex.get(names[i].trim());
+                if(a == null) {
+                    throw new IOException(f[0] + " uses unknown action " + names[i]);
+                }
+                acts[i] = a;
+            }
+            combatants.add(new Combatant(f[0], Integer.parseInt(f[1]), Integer.parseInt(f[2]),
+                    Integer.parseInt(f[3]), Integer.parseInt(f[4]), acts));
+        }
+        return new BattleData(actions.toArray(new Action[actions.size()]),
+                combatants.toArray(new Combatant[combatants.size()]));
+    }
+
+    private static List<String[]> rows(String url, int fields) throws IOException {
+        ArrayList<String[]> rows = new ArrayList<String[]>();
+        for(String line : Files.readAllLines(new File(url).toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if(line.isEmpty() || line.startsWith("#")) continue;
+            String[] f = line.split(",");
+            if(f.length < fields) {
+                throw new IOException("Expected " + fields + " fields in " + url + ": " + line);
+            }
+            for(int i = 0; i < f.length; ++i) {
+                f[i] = f[i].trim();
+            }
+            rows.add(f);
+        }
+        return rows;
+    }
+
+    private static int keyword(String s, String... words) throws IOException {
+        for(int i = 0; i < words.length; ++i) {
+            if(words[i].equalsIgnoreCase(s)) return i;
+        }
+        throw new IOException("Unknown keyword " + s);
+    }
+
+    public Action getAction(int i) {
+        return actions[i];
+    }
+
+    public int getActionCount() {
+        return actions.length;
+    }
+
+    public Combatant getCombatant(int i) {
+        return combatants[i];
+    }
+
+    /**
+     * @return the index of a combatant by name, or -1.
+     */
+    public int find(String name) {
+        Integer i = byName.get(name);
+        return (i == null) ? -1 : i;
+    }
+}
@@ -1,22 +1,181 @@
 package victory.engine.battle;
 
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+
 import victory.engine.gui.*;
+import victory.engine.gui.KeyStateManager.Button;
 import victory.engine.graphics.*;
 
+/**
+ * Front end of a battle. Shows the combatants and the last thing that
+ * happened, lets the player pick moves for team 0, and asks a Policy for the
+ * moves of team 1. The rules themselves are in BattleSim.
+ * @author Victoria Lacroix
+ */
 public class BattleScene implements GUI {
+    /**
+     * Least seconds between enemy moves, so the player can follow them.
+     */
+    private static final double ENEMY_DELAY = 0.5;
+
+    private final BattleState   state;
+    private final Policy        enemy;
+    private final SplittableRandom rng;
+
+    /**
+     * Copy of the battle the enemy thinks about off the game thread, and the
+     * move it comes up with.
+     */
+    private final BattleState   thinking;
+    private CompletableFuture<Integer> decision;
+
+    private final int[]         moves;
+    private int                 moveCount   = 0;
+    private int                 current     = 0;
+    private double              wait        = 0;
+    private String              message     = "";
+
+    private final Panel         status;
+    private final Panel         menu;
+
+    /**
+     * A window that only shows what it is given.
+     */
+    private static class Panel extends Window {
+        Panel(int x, int y, int w, int h) {
+            super(x, y, w, h);
+        }
+
+        void clear() {
+            setupBorders();
+        }
+
+        @Override
+        public void update(double delta) {}
+
+        @Override
+        public int control(KeyStateManager k) {
+            return 0;
+        }
+    }
+
+    /**
+     * @param s battle to show, played in place
+     * @param e policy of team 1
+     * @param seed
+     */
+    public BattleScene(BattleState s, Policy e, long seed) {
+        state = s;
+        enemy = e;
+        rng = new SplittableRandom(seed);
+        thinking = s.copy();
+        moves = new int[s.data.getActionCount() * s.size];
+        status = new Panel(0, 0, GUIEngine.screenWidth / 8, s.size + 4);
+        menu = new Panel(0, s.size + 4, GUIEngine.screenWidth / 8, 8);
+        refresh();
+    }
 
     @Override
     public void update(double delta) {
-
+        if(state.winner() != BattleState.ONGOING) return;
+        if(state.getTeam(state.actor()) == 0 && moveCount == 0) {
+            act(BattleSim.PASS);
+        } else if(state.getTeam(state.actor()) == 1) {
+            if(decision == null) {
+                thinking.copyFrom(state);
+                final SplittableRandom r = rng.split();
+                decision = CompletableFuture.supplyAsync(() -> enemy.choose(thinking, r));
+            }
+            wait += delta;
+            if(wait >= ENEMY_DELAY && decision.isDone()) {
+                int move = decision.join();
+                wait = 0;
+                decision = null;
+                act(move);
+            }
+        }
     }
 
     @Override
     public int control(KeyStateManager k) {
-        return -1;
+        if(state.winner() != BattleState.ONGOING) {
+            return k.wasButtonPressed(Button.ACCEPT) ? 1 : 0;
+        }
+        if(state.getTeam(state.actor()) != 0 || moveCount == 0) return 0;
+        if(k.wasButtonPressed(Button.UP)) {
+            current = (current + moveCount - 1) % moveCount;
+            refresh();
+        } else if(k.wasButtonPressed(Button.DOWN)) {
+            current = (current + 1) % moveCount;
+            refresh();
+        } else if(k.wasButtonPressed(Button.ACCEPT)) {
+            act(moves[current]);
+        }
+        return 0;
+    }
+
+    private void act(int move) {
+        String who = state.getCombatant(state.actor()).name;
+        if(move == BattleSim.PASS) {
+            BattleSim.apply(state, move, rng);
+            message = who + " can do nothing.";
+            current = 0;
+            refresh();
+            return;
+        }
+        Action a = state.data.getAction(BattleSim.action(move));
+        String target = state.getCombatant(BattleSim.target(move)).name;
+        int result = BattleSim.apply(state, move, rng);
+        if(result < 0) {
+            message = who + " used " + a.name + ", and missed.";
+        } else if(a.kind == Action.ATTACK) {
+            message = who + " hit " + target + " with " + a.name + " for " + result + ".";
+        } else if(a.kind == Action.HEAL) {
+            message = who + " healed " + target + " by " + result + ".";
+        } else {
+            message = who + " is guarding.";
+        }
+        current = 0;
+        refresh();
+    }
+
+    /**
+     * Rewrites both windows from the state.
+     */
+    private void refresh() {
+        status.clear();
+        for(int i = 0; i < state.size; ++i) {
+            Combatant c = state.getCombatant(i);
+            status.write(2, i + 1, (state.getTeam(i) == 0 ? "" : "  ") + c.name + " " + state.getHp(i) + "/" + c.hp
+                    + (state.isGuarding(i) ? " G" : ""));
+        }
+        status.write(1, state.size + 2, message);
+
+        menu.clear();
+        int w = state.winner();
+        if(w != BattleState.ONGOING) {
+            moveCount = 0;
+            menu.write(w == 0 ? "Victory!" : w == 1 ? "Defeat..." : "Nobody is left standing.");
+            return;
+        }
+        moveCount = BattleSim.legalMoves(state, moves);
+        if(state.getTeam(state.actor()) != 0) {
+            menu.write(state.getCombatant(state.actor()).name + " is thinking...");
+            return;
+        }
+        // Show a page of moves around the cursor.
+        int first = Math.max(0, current - 5);
+        for(int i = first; i < Math.min(moveCount, first + 6); ++i) {
+            menu.write(2, i - first + 1, state.data.getAction(BattleSim.action(moves[i])).name + " > "
+                    + state.getCombatant(BattleSim.target(moves[i])).name);
+        }
+        menu.put(1, current - first + 1, (char)0x01);
     }
 
     @Override
     public void draw(int x, int y, Screen s) {
-
+        status.draw(x, y, s);
+        menu.draw(x, y, s);
     }
 }
@@ -0,0 +1,174 @@
+package victory.engine.battle;
+
+import java.util.SplittableRandom;
+
+/**
+ * Battle rules. Everything here works on a BattleState and a random number
+ * generator only, so battles can be run without a screen, many at once.
+ *
+ * A move is an action and a target packed into one int: see move(). A
+ * combatant with no legal move passes instead.
+ *
+ * @author Victoria Lacroix
+ */
+public final class BattleSim {
+    /**
+     * Battles that take longer than this many actions are draws.
+     */
+    public static final int     MAX_ACTIONS     = 500;
+    /**
+     * The move of a combatant that has nothing it can do. It only ends the
+     * turn.
+     */
+    public static final int     PASS            = -1;
+
+    /**
+     * Picks a random legal move.
+     */
+    public static final Policy  RANDOM          = new Policy() {
+        @Override
+        public int choose(BattleState s, SplittableRandom rng) {
+            return randomMove(s, rng);
+        }
+    };
+
+    private BattleSim() {}
+
+    /**
+     * @param action index into BattleData
+     * @param target slot
+     * @return the move
+     */
+    public static int move(int action, int target) {
+        return (action << 8) | target;
+    }
+
+    public static int action(int move) {
+        return move >>> 8;
+    }
+
+    public static int target(int move) {
+        return move & 0xFF;
+    }
+
+    /**
+     * @return whether the actor may use an action on a slot.
+     */
+    public static boolean canTarget(BattleState s, Action a, int slot) {
+        int actor = s.actor();
+        if(!s.isAlive(slot)) return false;
+        switch(a.target) {
+        case Action.ENEMY:
+            return s.team[slot] != s.team[actor];
+        case Action.ALLY:
+            return s.team[slot] == s.team[actor];
+        default:
+            return slot == actor;
+        }
+    }
+
+    /**
+     * Writes every legal move of the actor.
+     * @param out room for at least actions * size moves
+     * @return how many moves were written
+     */
+    public static int legalMoves(BattleState s, int[] out) {
+        Combatant c = s.getCombatant(s.actor());
+        int n = 0;
+        for(int i = 0; i < c.getActionCount(); ++i) {
+            Action a = s.data.getAction(c.getAction(i));
+            for(int slot = 0; slot < s.size; ++slot) {
+                if(canTarget(s, a, slot)) {
+                    out[n++] = move(c.getAction(i), slot);
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Picks a legal move uniformly, without building the list of moves.
+     * @return the move, or PASS if the actor has none.
+     */
+    public static int randomMove(BattleState s, SplittableRandom rng) {
+        Combatant c = s.getCombatant(s.actor());
+        int count = 0;
+        for(int i = 0; i < c.getActionCount(); ++i) {
+            Action a = s.data.getAction(c.getAction(i));
+            for(int slot = 0; slot < s.size; ++slot) {
+                if(canTarget(s, a, slot)) count++;
+            }
+        }
+        if(count == 0) return PASS;
+        int pick = rng.nextInt(count);
+        for(int i = 0; i < c.getActionCount(); ++i) {
+            Action a = s.data.getAction(c.getAction(i));
+            for(int slot = 0; slot < s.size; ++slot) {
+                if(canTarget(s, a, slot) && pick-- == 0) {
+                    return move(c.getAction(i), slot);
+                }
+            }
+        }
+        return PASS;
+    }
+
+    /**
+     * Carries out the actor's move, then passes the turn on to the next
+     * combatant still standing.
+     * @return how many hit points the move took or gave, or -1 if it missed.
+     */
+    public static int apply(BattleState s, int move, SplittableRandom rng) {
+        int actor = s.actor();
+        if(move == PASS) {
+            s.guarding[actor] = false;
+            s.actions++;
+            nextTurn(s);
+            return 0;
+        }
+        int slot = target(move);
+        Action a = s.data.getAction(action(move));
+        Combatant user = s.getCombatant(actor);
+        s.guarding[actor] = false;
+        int result = 0;
+        if(rng.nextInt(100) >= a.accuracy) {
+            result = -1;
+        } else if(a.kind == Action.ATTACK) {
+            int damage = a.power + user.attack - s.getCombatant(slot).defense;
+            damage += rng.nextInt(a.power / 4 + 1);
+            if(s.guarding[slot]) damage /= 2;
+            result = Math.min(s.hp[slot], Math.max(1, damage));
+            s.hp[slot] -= result;
+        } else if(a.kind == Action.HEAL) {
+            result = Math.min(a.power, s.getCombatant(slot).hp - s.hp[slot]);
+            s.hp[slot] += result;
+        } else {
+            s.guarding[actor] = true;
+        }
+        s.actions++;
+        nextTurn(s);
+        return result;
+    }
+
+    private static void nextTurn(BattleState s) {
+        for(int i = 0; i < s.size; ++i) {
+            s.turn = (s.turn + 1) % s.size;
+            if(s.isAlive(s.order[s.turn])) return;
+        }
+    }
+
+    /**
+     * Plays a battle out.
+     * @param s battle, which is played in place
+     * @param teams policy of each team
+     * @return the winning team, or BattleState.DRAW
+     */
+    public static int play(BattleState s, Policy[] teams, SplittableRandom rng) {
+        if(!s.isAlive(s.actor())) nextTurn(s);
+        int w;
+        while((w = s.winner()) == BattleState.ONGOING) {
+            if(s.actions >= MAX_ACTIONS) return BattleState.DRAW;
+            apply(s, teams[s.team[s.actor()]].choose(s, rng), rng);
+        }
+        return w;
+    }
+}
@@ -0,0 +1,157 @@
+package victory.engine.battle;
+
+/**
+ * Everything that changes during a battle, in flat arrays indexed by
+ * combatant slot. Copying one state over another is a few array copies and
+ * allocates nothing, so simulations and searches can reuse states freely.
+ *
+ * @author Victoria Lacroix
+ */
+public class BattleState {
+    /**
+     * winner() while the battle is still going.
+     */
+    public static final int     ONGOING     = -1;
+    /**
+     * winner() when nobody is left standing.
+     */
+    public static final int     DRAW        = -2;
+
+    public final BattleData     data;
+    public final int            size;
+
+    /**
+     * Per slot: which combatant it is, its team, and its hit points.
+     */
+    final int[]                 kind, team, hp;
+    final boolean[]             guarding;
+    /**
+     * Slots in turn order, fastest first.
+     */
+    final int[]                 order;
+    /**
+     * Place in order of whoever acts next, and how many actions have been
+     * taken so far.
+     */
+    int                         turn;
+    int                         actions;
+
+    /**
+     * Starts a battle.
+     * @param d data the combatants come from
+     * @param combatants combatant index of each slot
+     * @param teams team of each slot, 0 or 1
+     */
+    public BattleState(BattleData d, int[] combatants, int[] teams) {
+        data = d;
+        size = combatants.length;
+        kind = combatants.clone();
+        team = teams.clone();
+        hp = new int[size];
+        guarding = new boolean[size];
+        order = new int[size];
+        for(int i = 0; i < size; ++i) {
+            hp[i] = d.getCombatant(kind[i]).hp;
+            order[i] = i;
+        }
+        // Insertion sort by speed; ties go to the earlier slot.
+        for(int i = 1; i < size; ++i) {
+            int s = order[i];
+            int j = i - 1;
+            while(j >= 0 && speed(order[j]) < speed(s)) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = s;
+        }
+    }
+
+    /**
+     * Makes this state a copy of another state of the same battle.
+     */
+    public void copyFrom(BattleState o) {
+        System.arraycopy(o.hp, 0, hp, 0, size);
+        System.arraycopy(o.guarding, 0, guarding, 0, size);
+        turn = o.turn;
+        actions = o.actions;
+    }
+
+    /**
+     * @return a new state that is a copy of this one.
+     */
+    public BattleState copy() {
+        BattleState s = new BattleState(data, kind, team);
+        s.copyFrom(this);
+        return s;
+    }
+
+    private int speed(int slot) {
+        return data.getCombatant(kind[slot]).speed;
+    }
+
+    /**
+     * @return the slot whose turn it is.
+     */
+    public int actor() {
+        return order[turn];
+    }
+
+    public Combatant getCombatant(int slot) {
+        return data.getCombatant(kind[slot]);
+    }
+
+    public int getTeam(int slot) {
+        return team[slot];
+    }
+
+    public int getHp(int slot) {
+        return hp[slot];
+    }
+
+    public boolean isAlive(int slot) {
+        return hp[slot] > 0;
+    }
+
+    public boolean isGuarding(int slot) {
+        return guarding[slot];
+    }
+
+    /**
+     * @return how many actions have been taken.
+     */
+    public int getActions() {
+        return actions;
+    }
+
+    /**
+     * @return hit points left on a team, as a fraction of what it started
+     *         with.
+     */
+    public double getHealth(int t) {
+        int left = 0, full = 0;
+        for(int i = 0; i < size; ++i) {
+            if(team[i] == t) {
+                left += hp[i];
+                full += getCombatant(i).hp;
+            }
+        }
+        return (full == 0) ? 0 : (double)left / full;
+    }
+
+    /**
+     * @return the team that won, ONGOING, or DRAW.
+     */
+    public int winner() {
+        boolean zero = false, one = false;
+        for(int i = 0; i < size; ++i) {
+            if(hp[i] > 0) {
+                if(team[i] == 0) zero = true;
+                else one = true;
+            }
+        }
+        if(zero && one) return ONGOING;
+        if(zero) return 0;
+        if(one) return 1;
+        return DRAW;
+    }
+}
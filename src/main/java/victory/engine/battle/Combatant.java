@@ -0,0 +1,32 @@
+package victory.engine.battle;
+
+/**
+ * Stats and actions of one kind of combatant, as read from the combatants
+ * file.
+ * @author Victoria Lacroix
+ */
+public class Combatant {
+    public final String     name;
+    public final int        hp, attack, defense, speed;
+    /**
+     * Indices of the actions it can use, in BattleData.
+     */
+    private final int[]     actions;
+
+    public Combatant(String n, int h, int a, int d, int s, int[] acts) {
+        name = n;
+        hp = h;
+        attack = a;
+        defense = d;
+        speed = s;
+        actions = acts;
+    }
+
+    public int getActionCount() {
+        return actions.length;
+    }
+
+    public int getAction(int i) {
+        return actions[i];
+    }
+}
@@ -0,0 +1,18 @@
+package victory.engine.battle;
+
+import java.util.SplittableRandom;
+
+/**
+ * Picks the move of whoever's turn it is. Batch runs share one policy
+ * between threads, so a policy must not keep state of its own between
+ * calls, or must keep it per thread.
+ * @author Victoria Lacroix
+ */
+public interface Policy {
+    /**
+     * @param s battle, which must not be changed
+     * @param rng random numbers for this battle
+     * @return a move, as made by BattleSim.move()
+     */
+    public int choose(BattleState s, SplittableRandom rng);
+}
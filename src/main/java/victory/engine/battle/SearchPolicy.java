@@ -0,0 +1,251 @@
+package victory.engine.battle;
+
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Picks moves by Monte Carlo tree search (UCT) under a time budget.
+ *
+ * One tree is grown per worker from the same root, each with its own random
+ * numbers; when the budget runs out, their root visit counts are added up
+ * and the most visited move wins. More cores give more trees, and more time
+ * gives bigger ones; the answer is always ready at the deadline.
+ *
+ * Moves can miss or roll damage, so a node is reached by its move, not by
+ * an exact state: every pass replays the moves from the root with fresh
+ * random numbers, and skips children whose move is no longer legal. Since a
+ * kill can change whose turn comes next, a pass that reaches a node with a
+ * different combatant to act than the node was grown for stops there and
+ * plays out.
+ *
+ * Trees and their states are allocated once and reused every turn. A
+ * SearchPolicy must only choose one move at a time, so batch runs need one
+ * per thread.
+ *
+ * @author Victoria Lacroix
+ */
+public class SearchPolicy implements Policy {
+    /**
+     * UCT exploration constant.
+     */
+    private static final double EXPLORE     = 1.4;
+
+    private final ForkJoinPool  pool;
+    private final long          budget;
+    private final Tree[]        trees;
+    private final ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+
+    /**
+     * @param p pool to search on
+     * @param nanos time each move may take
+     * @param nodes nodes per tree; the tree stops growing once full
+     */
+    public SearchPolicy(ForkJoinPool p, long nanos, int nodes) {
+        pool = p;
+        budget = nanos;
+        trees = new Tree[p.getParallelism()];
+        for(int i = 0; i < trees.length; ++i) {
+            trees[i] = new Tree(nodes);
+            final Tree t = trees[i];
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    t.search();
+                    return null;
+                }
+            });
+        }
+    }
+
+    /**
+     * Searches on every tree until the budget runs out.
+     */
+    @Override
+    public synchronized int choose(BattleState s, SplittableRandom rng) {
+        long deadline = System.nanoTime() + budget;
+        for(Tree t : trees) {
+            t.reset(s, rng.split(), deadline);
+        }
+        pool.invokeAll(tasks);
+
+        // Add up the root children of every tree by move.
+        Tree first = trees[0];
+        int best = -1;
+        long bestVisits = -1;
+        for(int c = first.firstChild[0]; c < first.firstChild[0] + first.childCount[0]; ++c) {
+            long visits = 0;
+            for(Tree t : trees) {
+                visits += t.visitsOf(first.move[c]);
+            }
+            if(visits > bestVisits) {
+                bestVisits = visits;
+                best = first.move[c];
+            }
+        }
+        return (best < 0) ? BattleSim.randomMove(s, rng) : best;
+    }
+
+    /**
+     * @return how many passes the last choose() made, over every tree.
+     */
+    public long getLastIterations() {
+        long n = 0;
+        for(Tree t : trees) {
+            n += t.iterations;
+        }
+        return n;
+    }
+
+    /**
+     * One search tree, in flat arrays. Node 0 is the root, and a node's
+     * children sit next to each other from firstChild.
+     */
+    private static class Tree {
+        final int[]         move, firstChild, childCount;
+        /**
+         * Team that made the move into a node, visits, and its wins for
+         * that team (draws count as half).
+         */
+        final int[]         team;
+        /**
+         * Slot of the combatant whose moves a node's children are.
+         */
+        final int[]         actor;
+        final int[]         visits;
+        final double[]      wins;
+        int                 used;
+
+        BattleState         root, state;
+        SplittableRandom    rng;
+        long                deadline;
+        long                iterations;
+        final int[]         path;
+        int[]               moves;
+
+        Tree(int nodes) {
+            move = new int[nodes];
+            firstChild = new int[nodes];
+            childCount = new int[nodes];
+            team = new int[nodes];
+            actor = new int[nodes];
+            visits = new int[nodes];
+            wins = new double[nodes];
+            path = new int[BattleSim.MAX_ACTIONS + 1];
+        }
+
+        void reset(BattleState s, SplittableRandom r, long d) {
+            if(root == null || root.data != s.data || root.size != s.size) {
+                root = s.copy();
+                state = s.copy();
+                moves = new int[s.data.getActionCount() * s.size];
+            }
+            root.copyFrom(s);
+            rng = r;
+            deadline = d;
+            iterations = 0;
+            used = 1;
+            childCount[0] = 0;
+            firstChild[0] = 0;
+            visits[0] = 0;
+            wins[0] = 0;
+        }
+
+        void search() {
+            do {
+                iterate();
+                iterations++;
+            } while(System.nanoTime() < deadline);
+        }
+
+        /**
+         * One pass: walk down by UCT, grow one node, play the rest out at
+         * random, and count the result on the way back up.
+         */
+        private void iterate() {
+            state.copyFrom(root);
+            int node = 0, depth = 0;
+            path[depth++] = 0;
+            while(state.winner() == BattleState.ONGOING && state.actions < BattleSim.MAX_ACTIONS) {
+                if(childCount[node] == 0) {
+                    if(!expand(node)) break;
+                }
+                int next = select(node);
+                if(next < 0) break;
+                BattleSim.apply(state, move[next], rng);
+                node = next;
+                path[depth++] = node;
+                if(visits[node] == 0) break;
+            }
+            int w = BattleSim.play(state, RANDOM_BOTH, rng);
+            for(int i = 0; i < depth; ++i) {
+                int n = path[i];
+                visits[n]++;
+                if(w == BattleState.DRAW) {
+                    wins[n] += 0.5;
+                } else if(w == team[n]) {
+                    wins[n] += 1;
+                }
+            }
+        }
+
+        /**
+         * Adds a child for every legal move in the current state.
+         * @return false if the tree is full.
+         */
+        private boolean expand(int node) {
+            int n = BattleSim.legalMoves(state, moves);
+            if(used + n > move.length) return false;
+            int t = state.team[state.actor()];
+            actor[node] = state.actor();
+            firstChild[node] = used;
+            childCount[node] = n;
+            for(int i = 0; i < n; ++i) {
+                int c = used++;
+                move[c] = moves[i];
+                team[c] = t;
+                firstChild[c] = 0;
+                childCount[c] = 0;
+                visits[c] = 0;
+                wins[c] = 0;
+            }
+            return true;
+        }
+
+        /**
+         * @return the child with the best UCT score whose move is legal
+         *         now, unvisited ones first, or -1 if there is none or the
+         *         children are moves of someone other than whose turn it is.
+         */
+        private int select(int node) {
+            if(actor[node] != state.actor()) return -1;
+            double logN = Math.log(Math.max(1, visits[node]));
+            int best = -1;
+            double bestScore = -1;
+            for(int c = firstChild[node]; c < firstChild[node] + childCount[node]; ++c) {
+                Action a = state.data.getAction(BattleSim.action(move[c]));
+                if(!BattleSim.canTarget(state, a, BattleSim.target(move[c]))) continue;
+                if(visits[c] == 0) return c;
+                double score = wins[c] / visits[c] + EXPLORE * Math.sqrt(logN / visits[c]);
+                if(score > bestScore) {
+                    bestScore = score;
+                    best = c;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * @return visits of the root child with this move.
+         */
+        int visitsOf(int m) {
+            for(int c = firstChild[0]; c < firstChild[0] + childCount[0]; ++c) {
+                if(move[c] == m) return visits[c];
+            }
+            return 0;
+        }
+    }
+
+    private static final Policy[] RANDOM_BOTH = { BattleSim.RANDOM, BattleSim.RANDOM };
+}
@@ -0,0 +1,27 @@
+package victory.engine.graphics;
+
+/**
+ * How drawn pixels are combined with the pixels already on the screen.
+ * @author Victoria Lacroix
+ */
+public enum Blend {
+    /**
+     * Pixels replace the screen, except those equal to the mask color.
+     */
+    MASK,
+    /**
+     * Pixels are mixed with the screen by their own alpha, times the alpha
+     * they are drawn with.
+     */
+    ALPHA,
+    /**
+     * Pixels, scaled by the alpha they are drawn with, are added to the
+     * screen. Each channel stops at 255.
+     */
+    ADD,
+    /**
+     * Pixels replace the screen like MASK, darkened by the alpha they are
+     * drawn with: 255 draws them as they are, 0 draws them black.
+     */
+    SHADE;
+}
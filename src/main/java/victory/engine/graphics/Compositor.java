@@ -0,0 +1,149 @@
+package victory.engine.graphics;
+
+/**
+ * Blends rows of pixels into the screen.
+ *
+ * The red and blue channels of a pixel are 16 bits apart, so they are mixed
+ * together in one multiply (0x00RR00BB * a), with green done in a second.
+ * That keeps blending to two multiplies and no divides per pixel.
+ *
+ * Alpha here runs from 0 to 256, so that multiplying and shifting by 8 is
+ * exact at both ends.
+ *
+ * @author Victoria Lacroix
+ */
+final class Compositor {
+    private static final int    RB      = 0x00FF00FF;
+    private static final int    G       = 0x0000FF00;
+    private static final int    OPAQUE  = 0xFF000000;
+
+    private Compositor() {}
+
+    /**
+     * @param alpha 0 to 255
+     * @return alpha from 0 to 256
+     */
+    static int widen(int alpha) {
+        return alpha + (alpha >>> 7);
+    }
+
+    /**
+     * @return p with each color channel multiplied by a / 256.
+     */
+    static int scale(int p, int a) {
+        return ((((p & RB) * a) >>> 8) & RB) | ((((p & G) * a) >>> 8) & G);
+    }
+
+    /**
+     * @return s over d, with s covering a / 256 of it.
+     */
+    static int mix(int s, int d, int a) {
+        int na = 256 - a;
+        int rb = (((s & RB) * a + (d & RB) * na) >>> 8) & RB;
+        int g = (((s & G) * a + (d & G) * na) >>> 8) & G;
+        return OPAQUE | rb | g;
+    }
+
+    /**
+     * @return s plus d, each channel stopping at 255.
+     */
+    static int add(int s, int d) {
+        int rb = (s & RB) + (d & RB);
+        int g = (s & G) + (d & G);
+        // A channel that went over leaves a carry bit just above it. Turn
+        // each carry into a full channel of ones.
+        int c = rb & 0x01000100;
+        rb = (rb | (c - (c >>> 8))) & RB;
+        c = g & 0x00010000;
+        g = (g | (c - (c >>> 8))) & G;
+        return OPAQUE | rb | g;
+    }
+
+    /**
+     * Blends n pixels of a sheet row into a screen row. Pixels equal to the
+     * mask are skipped in every mode.
+     * @param src sheet pixels
+     * @param s first sheet pixel
+     * @param dst screen pixels
+     * @param d first screen pixel
+     * @param n how many pixels
+     * @param mask color to skip
+     * @param mode how to blend
+     * @param alpha 0 to 255, applied on top of each pixel's own alpha
+     */
+    static void blitRow(int[] src, int s, int[] dst, int d, int n, int mask, Blend mode, int alpha) {
+        int a = widen(alpha);
+        switch(mode) {
+        case MASK:
+            for(int i = 0; i < n; ++i) {
+                int p = src[s + i];
+                if(p != mask) {
+                    dst[d + i] = p;
+                }
+            }
+            break;
+        case ALPHA:
+            for(int i = 0; i < n; ++i) {
+                int p = src[s + i];
+                if(p != mask) {
+                    int pa = ((p >>> 24) * a) >>> 8;
+                    dst[d + i] = mix(p, dst[d + i], widen(pa));
+                }
+            }
+            break;
+        case ADD:
+            for(int i = 0; i < n; ++i) {
+                int p = src[s + i];
+                if(p != mask) {
+                    dst[d + i] = add(scale(p, a), dst[d + i]);
+                }
+            }
+            break;
+        case SHADE:
+            for(int i = 0; i < n; ++i) {
+                int p = src[s + i];
+                if(p != mask) {
+                    dst[d + i] = OPAQUE | scale(p, a);
+                }
+            }
+            break;
+        }
+    }
+
+    /**
+     * Blends one color into n pixels of a screen row.
+     * @param dst screen pixels
+     * @param d first screen pixel
+     * @param n how many pixels
+     * @param c color, with its own alpha for ALPHA
+     * @param mode how to blend
+     * @param alpha 0 to 255, applied on top of the color's alpha
+     */
+    static void fillRow(int[] dst, int d, int n, int c, Blend mode, int alpha) {
+        switch(mode) {
+        case MASK:
+            java.util.Arrays.fill(dst, d, d + n, c);
+            break;
+        case ALPHA:
+            int a = widen((((c >>> 24) * widen(alpha)) >>> 8));
+            // Mix c into each pixel as c * a + p * (256 - a), with c * a
+            // done once for the whole row.
+            int na = 256 - a;
+            int crb = (c & RB) * a, cg = (c & G) * a;
+            for(int i = d; i < d + n; ++i) {
+                int p = dst[i];
+                dst[i] = OPAQUE | (((crb + (p & RB) * na) >>> 8) & RB) | (((cg + (p & G) * na) >>> 8) & G);
+            }
+            break;
+        case ADD:
+            int sc = scale(c, widen(alpha));
+            for(int i = d; i < d + n; ++i) {
+                dst[i] = add(sc, dst[i]);
+            }
+            break;
+        case SHADE:
+            java.util.Arrays.fill(dst, d, d + n, OPAQUE | scale(c, widen(alpha)));
+            break;
+        }
+    }
+}
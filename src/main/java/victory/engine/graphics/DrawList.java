@@ -0,0 +1,228 @@
+package victory.engine.graphics;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * A list of draw commands recorded during a frame and run all at once.
+ *
+ * Every command has a layer and a depth. Commands are run in order of layer,
+ * then depth, then the sheet they read from, then the order they were
+ * recorded in. Commands that share a layer and depth must not care about
+ * the order they are drawn in (tiles of a map, glyphs of a window), so they
+ * are grouped by sheet to read one sheet at a time.
+ *
+ * Big lists are run in horizontal bands of the screen, one band per thread.
+ * Every band runs the whole list, clipped to its own rows.
+ *
+ * @author Victoria Lacroix
+ */
+public class DrawList {
+    /**
+     * Something that draws straight into the pixels, for effects that are
+     * not sheet blits or fills. It must only touch rows y0 to y1 - 1, since
+     * other bands may be running at the same time.
+     */
+    public interface Rasterizer {
+        public void rasterize(int[] pixels, int width, int height, int y0, int y1);
+    }
+
+    private static final int    BLIT        = 0;
+    private static final int    FILL        = 1;
+    private static final int    RASTER      = 2;
+
+    /**
+     * Below this many commands, the list is run on the calling thread.
+     */
+    private static final int    PARALLEL_AFTER  = 512;
+    private static final int    MAX_DEPTH       = 0xFFFF;
+    private static final int    MAX_COMMANDS    = 1 << 24;
+    private static final Blend[] BLENDS         = Blend.values();
+
+    /**
+     * Commands, one entry per array each.
+     */
+    private int[]       op      = new int[256];
+    private int[]       dx      = new int[256], dy      = new int[256];
+    private int[]       w       = new int[256], h       = new int[256];
+    private int[]       sx      = new int[256], sy      = new int[256];
+    private int[]       color   = new int[256];
+    /**
+     * Blend mode ordinal in the high bits, alpha in the low 8.
+     */
+    private int[]       blend   = new int[256];
+    private Object[]    source  = new Object[256];
+    private long[]      keys    = new long[256];
+    private int         count   = 0;
+
+    private int         layer   = 0;
+    private int         depth   = 0;
+
+    /**
+     * Sets the layer later commands go on. Layers are drawn bottom first.
+     * @param l 0 to 127
+     */
+    public void setLayer(int l) {
+        layer = l & 0x7F;
+    }
+
+    /**
+     * Sets the depth later commands go on, within their layer. Deeper
+     * commands are drawn over shallower ones.
+     * @param d 0 to 65535
+     */
+    public void setDepth(int d) {
+        depth = (d < 0) ? 0 : (d > MAX_DEPTH) ? MAX_DEPTH : d;
+    }
+
+    /**
+     * @return how many commands are recorded.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Forgets every recorded command, and goes back to layer and depth 0.
+     */
+    public void clear() {
+        for(int i = 0; i < count; ++i) {
+            source[i] = null;
+        }
+        count = 0;
+        layer = 0;
+        depth = 0;
+    }
+
+    /**
+     * Records a copy of part of a sheet, skipping pixels equal to the mask.
+     */
+    public void blit(SpriteSheet sheet, int x, int y, int ix, int iy, int iw, int ih, int mask,
+            Blend mode, int alpha) {
+        int i = add(BLIT, x, y, iw, ih, sheet.id);
+        sx[i] = ix;
+        sy[i] = iy;
+        color[i] = mask;
+        blend[i] = (mode.ordinal() << 8) | (alpha & 0xFF);
+        source[i] = sheet;
+    }
+
+    /**
+     * Records a rectangle of one color.
+     */
+    public void fill(int x, int y, int fw, int fh, int c, Blend mode, int alpha) {
+        int i = add(FILL, x, y, fw, fh, 0);
+        color[i] = c;
+        blend[i] = (mode.ordinal() << 8) | (alpha & 0xFF);
+    }
+
+    /**
+     * Records a rasterizer, run over the whole screen.
+     */
+    public void raster(Rasterizer r) {
+        int i = add(RASTER, 0, 0, 0, 0, 0);
+        source[i] = r;
+    }
+
+    private int add(int o, int x, int y, int cw, int ch, int sheet) {
+        if(count == op.length) {
+            grow();
+        }
+        int i = count++;
+        op[i] = o;
+        dx[i] = x;
+        dy[i] = y;
+        w[i] = cw;
+        h[i] = ch;
+        keys[i] = ((long)layer << 56) | ((long)depth << 40) | ((long)(sheet & 0xFFFF) << 24) | i;
+        return i;
+    }
+
+    private void grow() {
+        if(count >= MAX_COMMANDS) {
+            throw new IllegalStateException("Too many draw commands in one frame.");
+        }
+        int n = count * 2;
+        op = Arrays.copyOf(op, n);
+        dx = Arrays.copyOf(dx, n);
+        dy = Arrays.copyOf(dy, n);
+        w = Arrays.copyOf(w, n);
+        h = Arrays.copyOf(h, n);
+        sx = Arrays.copyOf(sx, n);
+        sy = Arrays.copyOf(sy, n);
+        color = Arrays.copyOf(color, n);
+        blend = Arrays.copyOf(blend, n);
+        source = Arrays.copyOf(source, n);
+        keys = Arrays.copyOf(keys, n);
+    }
+
+    /**
+     * Sorts the commands and draws them into pixels, then clears the list.
+     * @param pixels screen pixels
+     * @param width screen width
+     * @param height screen height
+     */
+    public void run(final int[] pixels, final int width, final int height) {
+        Arrays.sort(keys, 0, count);
+        int bands = (count < PARALLEL_AFTER) ? 1 : Math.min(Runtime.getRuntime().availableProcessors(), height / 8);
+        if(bands <= 1) {
+            runBand(pixels, width, height, 0, height);
+        } else {
+            final int rows = (height + bands - 1) / bands;
+            IntStream.range(0, bands).parallel().forEach(b ->
+                    runBand(pixels, width, height, b * rows, Math.min(height, (b + 1) * rows)));
+        }
+        clear();
+    }
+
+    private void runBand(int[] pixels, int width, int height, int y0, int y1) {
+        for(int k = 0; k < count; ++k) {
+            int i = (int)(keys[k] & (MAX_COMMANDS - 1));
+            switch(op[i]) {
+            case BLIT:
+                SpriteSheet sheet = (SpriteSheet)source[i];
+                blit(pixels, width, y0, y1, sheet.pixels(), sheet.getWidth(), sheet.getHeight(),
+                        dx[i], dy[i], sx[i], sy[i], w[i], h[i], color[i], BLENDS[blend[i] >>> 8], blend[i] & 0xFF);
+                break;
+            case FILL:
+                fill(pixels, width, y0, y1, dx[i], dy[i], w[i], h[i], color[i], BLENDS[blend[i] >>> 8], blend[i] & 0xFF);
+                break;
+            case RASTER:
+                ((Rasterizer)source[i]).rasterize(pixels, width, height, y0, y1);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Blends part of a sheet into rows y0 to y1 - 1 of the pixels, skipping
+     * pixels equal to the mask.
+     */
+    static void blit(int[] pixels, int width, int y0, int y1, int[] src, int srcWidth, int srcHeight,
+            int x, int y, int ix, int iy, int iw, int ih, int mask, Blend mode, int alpha) {
+        if(src == null || ix < 0 || iy < 0) return;
+        // Clip to the sheet, then to the screen band.
+        iw = Math.min(iw, srcWidth - ix);
+        ih = Math.min(ih, srcHeight - iy);
+        int left = Math.max(0, -x), top = Math.max(0, y0 - y);
+        int right = Math.min(iw, width - x), bottom = Math.min(ih, y1 - y);
+        if(left >= right) return;
+        for(int row = top; row < bottom; ++row) {
+            Compositor.blitRow(src, (iy + row) * srcWidth + ix + left, pixels, (y + row) * width + x + left,
+                    right - left, mask, mode, alpha);
+        }
+    }
+
+    /**
+     * Blends a rectangle of one color into rows y0 to y1 - 1 of the pixels.
+     */
+    static void fill(int[] pixels, int width, int y0, int y1, int x, int y, int fw, int fh, int c,
+            Blend mode, int alpha) {
+        int left = Math.max(0, x), right = Math.min(width, x + fw);
+        int top = Math.max(y0, y), bottom = Math.min(y1, y + fh);
+        if(left >= right) return;
+        for(int row = top; row < bottom; ++row) {
+            Compositor.fillRow(pixels, row * width + left, right - left, c, mode, alpha);
+        }
+    }
+}
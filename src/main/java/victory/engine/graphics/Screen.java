@@ -16,6 +16,12 @@ public class Screen extends Canvas {
     private int             scaleSize;
     private BufferedImage   bufImage;
     private int[]           pixels;
+
+    /**
+     * Draw commands recorded since begin(), if recording.
+     */
+    private final DrawList  list            = new DrawList();
+    private boolean         recording       = false;
     
     // public SpriteSheet sheet;
     /**
@@ -94,6 +100,134 @@ public class Screen extends Canvas {
         }
     }
 
+    /**
+     * Starts recording blits, fills and rasterizers instead of drawing them
+     * straight away. writePixel(), clear() and the pixel copies still happen
+     * at once.
+     */
+    public void begin() {
+        list.clear();
+        recording = true;
+    }
+
+    /**
+     * Draws everything recorded since begin(), in layer and depth order, and
+     * stops recording.
+     */
+    public void flush() {
+        recording = false;
+        list.run(pixels, SCREEN_WIDTH, SCREEN_HEIGHT);
+    }
+
+    /**
+     * Sets the layer that recorded commands go on.
+     * 
+     * @param l
+     *            0 to 127, drawn bottom first
+     */
+    public void setLayer(int l) {
+        list.setLayer(l);
+    }
+
+    /**
+     * Sets the depth that recorded commands go on within their layer.
+     * Commands at the same layer and depth may be drawn in any order.
+     * 
+     * @param d
+     *            0 to 65535, drawn shallowest first
+     */
+    public void setDepth(int d) {
+        list.setDepth(d);
+    }
+
+    /**
+     * Copies part of a sheet to the screen, skipping pixels equal to the
+     * mask.
+     */
+    public void blit(SpriteSheet sheet, int x, int y, int ix, int iy, int iw, int ih, int mask) {
+        blit(sheet, x, y, ix, iy, iw, ih, mask, Blend.MASK, 0xFF);
+    }
+
+    /**
+     * Blends part of a sheet onto the screen, skipping pixels equal to the
+     * mask.
+     * 
+     * @param mode
+     *            how to blend
+     * @param alpha
+     *            0 to 255, on top of each pixel's own alpha
+     */
+    public void blit(SpriteSheet sheet, int x, int y, int ix, int iy, int iw, int ih, int mask,
+            Blend mode, int alpha) {
+        if(x >= SCREEN_WIDTH || y >= SCREEN_HEIGHT || x + iw <= 0 || y + ih <= 0
+                || ((mode == Blend.ALPHA || mode == Blend.ADD) && alpha == 0)) {
+            return;
+        }
+        if(recording) {
+            list.blit(sheet, x, y, ix, iy, iw, ih, mask, mode, alpha);
+        } else {
+            DrawList.blit(pixels, SCREEN_WIDTH, 0, SCREEN_HEIGHT, sheet.pixels(), sheet.getWidth(),
+                    sheet.getHeight(), x, y, ix, iy, iw, ih, mask, mode, alpha);
+        }
+    }
+
+    /**
+     * Fills a rectangle of the screen with a color.
+     */
+    public void fill(int x, int y, int w, int h, int c) {
+        fill(x, y, w, h, c, Blend.MASK, 0xFF);
+    }
+
+    /**
+     * Blends a rectangle of one color onto the screen.
+     * 
+     * @param mode
+     *            how to blend
+     * @param alpha
+     *            0 to 255, on top of the color's own alpha
+     */
+    public void fill(int x, int y, int w, int h, int c, Blend mode, int alpha) {
+        if((mode == Blend.ALPHA || mode == Blend.ADD) && alpha == 0) {
+            return;
+        }
+        if(recording) {
+            list.fill(x, y, w, h, c, mode, alpha);
+        } else {
+            DrawList.fill(pixels, SCREEN_WIDTH, 0, SCREEN_HEIGHT, x, y, w, h, c, mode, alpha);
+        }
+    }
+
+    /**
+     * Runs a rasterizer over the screen.
+     */
+    public void raster(DrawList.Rasterizer r) {
+        if(recording) {
+            list.raster(r);
+        } else {
+            r.rasterize(pixels, SCREEN_WIDTH, SCREEN_HEIGHT, 0, SCREEN_HEIGHT);
+        }
+    }
+
+    /**
+     * Copies every pixel on the screen into an array.
+     * 
+     * @param dst
+     *            array of at least width * height pixels.
+     */
+    public void copyPixels(int[] dst) {
+        System.arraycopy(pixels, 0, dst, 0, pixels.length);
+    }
+
+    /**
+     * Overwrites every pixel on the screen from an array.
+     * 
+     * @param src
+     *            array of at least width * height pixels.
+     */
+    public void loadPixels(int[] src) {
+        System.arraycopy(src, 0, pixels, 0, pixels.length);
+    }
+
     /**
      * Creates a "scatter" effect to test if the screen is working. Formula is
      * (pixel index * offset)
@@ -13,6 +13,8 @@ public class Sprite implements ScreenController {
     private final int tileX, tileY; // how many tiles horizontally, vertically.
     private final int width, height; // width of the image in question.
     private int mask = 0xFFFF00FF;
+    private Blend blend = Blend.MASK;
+    private int alpha = 0xFF;
 
     public Sprite(int w, int h, SpriteSheet spritesheet) {
         sheet = spritesheet;
@@ -53,8 +55,47 @@ public class Sprite implements ScreenController {
         return indY;
     }
 
+    /**
+     * Sets how this sprite is blended onto the screen.
+     * @param b blend mode
+     * @param a alpha, 0 to 255
+     */
+    public void setBlend(Blend b, int a) {
+        blend = b;
+        alpha = a & 0xFF;
+    }
+
+    public Blend getBlend() {
+        return blend;
+    }
+
+    public int getAlpha() {
+        return alpha;
+    }
+
+    /**
+     * @return the spritesheet this sprite is cut from
+     */
+    public SpriteSheet getSheet() {
+        return sheet;
+    }
+
+    /**
+     * @return width of a frame, in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return height of a frame, in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
     @Override
     public void draw(int sx, int sy, Screen s){
-        sheet.draw(sx, sy, indX*width, indY*height, width, height, mask, s);
+        sheet.draw(sx, sy, indX*width, indY*height, width, height, mask, blend, alpha, s);
     }
 }
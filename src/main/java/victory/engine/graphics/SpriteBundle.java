@@ -0,0 +1,118 @@
+package victory.engine.graphics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * Every sprite sheet of the game in one file, written by SpritePacker. The
+ * file is memory-mapped, and only its index is read when it is opened; a
+ * sheet's pixels are copied out the first time they are drawn.
+ *
+ * @author Victoria Lacroix
+ */
+public class SpriteBundle {
+    static final int            MAGIC       = 0x56535052; // "VSPR"
+    static final int            VERSION     = 1;
+    static final int            HEADER_SIZE = 12;
+
+    /**
+     * Bundle that SpriteSheets look in before reading a PNG.
+     */
+    public static final String  DEFAULT     = "sprites.bundle";
+
+    private static SpriteBundle defaultBundle;
+    private static boolean      defaultOpened   = false;
+
+    private final MappedByteBuffer  data;
+    private final HashMap<String, Integer> entries = new HashMap<String, Integer>();
+    private final int[]         widths, heights;
+    private final long[]        offsets;
+
+    /**
+     * Maps a bundle and reads its index.
+     * @param f
+     * @throws IOException if f is not a bundle.
+     */
+    public SpriteBundle(File f) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            data = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close(); // the mapping stays valid
+        }
+        ByteBuffer b = data.duplicate();
+        if(b.remaining() < HEADER_SIZE || b.getInt() != MAGIC) {
+            throw new IOException(f + " is not a sprite bundle.");
+        }
+        if(b.getInt() != VERSION) {
+            throw new IOException(f + " is from another version of the packer.");
+        }
+        int n = b.getInt();
+        widths = new int[n];
+        heights = new int[n];
+        offsets = new long[n];
+        for(int i = 0; i < n; ++i) {
+            byte[] name = new byte[b.getShort()];
+            b.get(name);
+            widths[i] = b.getInt();
+            heights[i] = b.getInt();
+            offsets[i] = b.getLong();
+            entries.put(new String(name, StandardCharsets.UTF_8), i);
+        }
+    }
+
+    /**
+     * @return the bundle next to the game's resources, or null if there is
+     *         none.
+     */
+    public static synchronized SpriteBundle getDefault() {
+        if(!defaultOpened) {
+            defaultOpened = true;
+            File f = new File(DEFAULT);
+            if(f.exists()) {
+                try {
+                    defaultBundle = new SpriteBundle(f);
+                } catch(IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return defaultBundle;
+    }
+
+    /**
+     * @param path sheet path, as given to SpriteSheet
+     * @return the sheet's entry, or -1 if it is not in the bundle.
+     */
+    public int find(String path) {
+        Integer i = entries.get(path.replace('\\', '/'));
+        return (i == null) ? -1 : i;
+    }
+
+    public int getWidth(int entry) {
+        return widths[entry];
+    }
+
+    public int getHeight(int entry) {
+        return heights[entry];
+    }
+
+    /**
+     * Copies a sheet's pixels out of the bundle.
+     * @param entry from find()
+     * @return ARGB pixels, row by row
+     */
+    public int[] read(int entry) {
+        int[] pixels = new int[widths[entry] * heights[entry]];
+        ByteBuffer b = data.duplicate();
+        b.position((int)offsets[entry]);
+        b.asIntBuffer().get(pixels);
+        return pixels;
+    }
+}
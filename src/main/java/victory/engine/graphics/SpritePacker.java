@@ -0,0 +1,103 @@
+package victory.engine.graphics;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Build step that packs every PNG under a directory into one SpriteBundle
+ * file, so the game never decodes a PNG at startup. Run by Maven after the
+ * resources are copied:
+ *
+ *      SpritePacker [resource dir] [bundle file]
+ *
+ * @author Victoria Lacroix
+ */
+public class SpritePacker {
+    public static void main(String[] args) throws IOException {
+        if(args.length < 2) {
+            System.err.println("Usage: SpritePacker <resource dir> <bundle file>");
+            System.exit(1);
+        }
+        File root = new File(args[0]);
+        ArrayList<String> names = new ArrayList<String>();
+        find(root, "", names);
+        Collections.sort(names);
+        pack(root, names, new File(args[1]));
+        System.err.println("Packed " + names.size() + " sprite sheets into " + args[1]);
+    }
+
+    private static void find(File dir, String prefix, ArrayList<String> names) {
+        File[] files = dir.listFiles();
+        if(files == null) return;
+        for(File f : files) {
+            if(f.isDirectory()) {
+                find(f, prefix + f.getName() + "/", names);
+            } else if(f.getName().toLowerCase().endsWith(".png")) {
+                names.add(prefix + f.getName());
+            }
+        }
+    }
+
+    /**
+     * Writes the bundle: a header, an index of every sheet (name, size, and
+     * where its pixels start), then each sheet's pixels as raw ARGB ints.
+     */
+    static void pack(File root, ArrayList<String> names, File out) throws IOException {
+        BufferedImage[] images = new BufferedImage[names.size()];
+        byte[][] keys = new byte[names.size()][];
+        int indexSize = 0;
+        for(int i = 0; i < images.length; ++i) {
+            images[i] = ImageIO.read(new File(root, names.get(i)));
+            if(images[i] == null) {
+                throw new IOException("Not an image: " + names.get(i));
+            }
+            keys[i] = names.get(i).getBytes(StandardCharsets.UTF_8);
+            indexSize += 2 + keys[i].length + 4 + 4 + 8;
+        }
+
+        long offset = SpriteBundle.HEADER_SIZE + indexSize;
+        ByteBuffer index = ByteBuffer.allocate(SpriteBundle.HEADER_SIZE + indexSize);
+        index.putInt(SpriteBundle.MAGIC).putInt(SpriteBundle.VERSION).putInt(images.length);
+        for(int i = 0; i < images.length; ++i) {
+            index.putShort((short)keys[i].length).put(keys[i]);
+            index.putInt(images[i].getWidth()).putInt(images[i].getHeight()).putLong(offset);
+            offset += 4L * images[i].getWidth() * images[i].getHeight();
+        }
+        index.flip();
+
+        File temp = new File(out.getPath() + ".tmp");
+        RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+        try {
+            raf.setLength(0);
+            FileChannel ch = raf.getChannel();
+            while(index.hasRemaining()) {
+                ch.write(index);
+            }
+            for(int i = 0; i < images.length; ++i) {
+                int w = images[i].getWidth(), h = images[i].getHeight();
+                int[] pixels = images[i].getRGB(0, 0, w, h, null, 0, w);
+                ByteBuffer b = ByteBuffer.allocate(pixels.length * 4);
+                b.asIntBuffer().put(pixels);
+                while(b.hasRemaining()) {
+                    ch.write(b);
+                }
+            }
+            ch.force(false);
+        } finally {
+            raf.close();
+        }
+        Files.move(temp.toPath(), out.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -3,6 +3,7 @@ package victory.engine.graphics;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.imageio.ImageIO;
 
 /**
@@ -12,18 +13,43 @@ import javax.imageio.ImageIO;
  * @author Victoria Lacroix
  */
 public class SpriteSheet {
+    private static final AtomicInteger sheets = new AtomicInteger();
+
+    /**
+     * Number of this sheet, in the order sheets were loaded. Draw commands
+     * are grouped by it.
+     */
+    final int id = sheets.incrementAndGet();
     private String path;
     private final int SHEET_WIDTH;
     private final int SHEET_HEIGHT;
-    private int pixels[];
+    private volatile int pixels[];
+
+    /**
+     * Bundle the pixels are still waiting in, until they are first needed.
+     */
+    private SpriteBundle bundle;
+    private int entry = -1;
 
     /**
-     * Creates SpriteSheet using the specified path.
+     * Creates SpriteSheet using the specified path. If the default
+     * SpriteBundle has the sheet, only its size is read now, and its pixels
+     * are copied out of the bundle when it is first drawn.
      * 
      * @param path
      *            path where spritesheet can be found. ("res/file.png")
      */
     public SpriteSheet(String URL) {
+        SpriteBundle b = SpriteBundle.getDefault();
+        int found = (b == null) ? -1 : b.find(URL);
+        if(found >= 0) {
+            bundle = b;
+            entry = found;
+            SHEET_WIDTH = b.getWidth(found);
+            SHEET_HEIGHT = b.getHeight(found);
+            path = URL;
+            return;
+        }
         BufferedImage image = null;
         try {
             image = ImageIO.read(new File(URL));
@@ -79,7 +105,26 @@ public class SpriteSheet {
      *         replaced.
      */
     public int getPixel(int x, int y) {
-        return pixels[x + (y * SHEET_WIDTH)];
+        return pixels()[x + (y * SHEET_WIDTH)];
+    }
+
+    /**
+     * @return every pixel of the sheet, row by row. Null if it failed to load.
+     */
+    int[] pixels() {
+        int[] p = pixels;
+        if(p == null && bundle != null) {
+            p = unbundle();
+        }
+        return p;
+    }
+
+    private synchronized int[] unbundle() {
+        if(pixels == null) {
+            pixels = bundle.read(entry);
+            bundle = null;
+        }
+        return pixels;
     }
 
     /**
@@ -97,14 +142,17 @@ public class SpriteSheet {
      */
     public void draw(int x, int y, int ix, int iy, int iw, int ih, int m, Screen s){
         if(ix < 0 || iy < 0) { return; }
-        for(int dy = 0; (int)Math.abs(dy) < (int)Math.abs(ih); ++dy) {
-            for(int dx = 0; (int)Math.abs(dx) < (int)Math.abs(iw); ++dx) {
-                if(ix + dx < 0 || iy + dy < 0) { break; }
-                if(ix + dx >= SHEET_WIDTH || iy + dy >= SHEET_HEIGHT) { break; }
-                if(pixels[(ix+dx) + ((iy + dy)*SHEET_WIDTH)] != m) {
-                    s.writePixel(x + dx, y + dy, pixels[(ix+dx) + ((iy + dy)*SHEET_WIDTH)]);
-                }
-            }
-        }
+        s.blit(this, x, y, ix, iy, Math.abs(iw), Math.abs(ih), m);
+    }
+
+    /**
+     * Draws a section of the SpriteSheet on the Screen, blended.
+     * @param b how to blend
+     * @param a alpha, 0 to 255
+     * @see #draw(int, int, int, int, int, int, int, Screen)
+     */
+    public void draw(int x, int y, int ix, int iy, int iw, int ih, int m, Blend b, int a, Screen s){
+        if(ix < 0 || iy < 0) { return; }
+        s.blit(this, x, y, ix, iy, Math.abs(iw), Math.abs(ih), m, b, a);
     }
 }
@@ -0,0 +1,15 @@
+package victory.engine.gui;
+
+/**
+ * A GUI that can tell whether its picture has changed. When every layer under
+ * the top of the GUIEngine stack is Cacheable and unchanged, GUIEngine reuses
+ * a cached picture of them instead of drawing them again.
+ * @author Victoria Lacroix
+ */
+public interface Cacheable {
+    /**
+     * @return true if drawing this now would give a different picture than
+     *         the last time it was drawn.
+     */
+    public boolean hasChanged();
+}
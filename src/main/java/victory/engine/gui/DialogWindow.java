@@ -18,17 +18,17 @@ public class DialogWindow extends Window {
     private String  textQueue   = "";
 
     /**
-     * How many ticks have happened since the last write.
+     * How many seconds have passed since the last write.
      */
     private double  tickCount   = 0;
 
     /**
-     * How long to wait before typing the next char
+     * How long to wait before typing the next char, in seconds
      */
-    private double  tickLength  = 6.0;
+    private double  tickLength  = 0.1;
 
     /**
-     * Time multiplier for ticks-per-character when printing from queue. Smaller numbers are faster.
+     * Time multiplier for seconds-per-character when printing from queue. Smaller numbers are faster.
      */
     private static final double QUEUE_FACTOR = 0.3;
 
@@ -25,39 +25,155 @@ public class GUIEngine {
      */
     private static Stack<GUI> Interfaces;
 
+    /**
+     * Update schedule of each layer in Interfaces.
+     */
+    private static Stack<Schedule> Schedules;
+
+    /**
+     * Cached picture of the layers under the top one, and how many layers and
+     * which offset it was taken with. A depth of -1 means there is no cache.
+     */
+    private static int[] composite;
+    private static int compositeDepth = -1;
+    private static int compositeX, compositeY;
+
     public static void init(int w, int h) {
         screenWidth = w;
         screenHeight = h;
 
         Interfaces = new Stack<GUI>();
+        Schedules = new Stack<Schedule>();
     }
 
+    /**
+     * Adds a layer that is updated every tick.
+     */
     public static void addGUI(GUI g) {
+        addGUI(g, Schedule.always());
+    }
+
+    public static void addGUI(GUI g, Schedule s) {
         Interfaces.push(g);
+        Schedules.push(s);
+        compositeDepth = -1;
     }
 
     public static int size() {
         return Interfaces.size();
     }
 
+    /**
+     * @param i layer, 0 being the bottom
+     * @return the layer at i
+     */
+    public static GUI get(int i) {
+        return Interfaces.get(i);
+    }
+
+    /**
+     * Removes every layer above g. Does nothing if g is not on the stack.
+     */
+    public static void popTo(GUI g) {
+        if(!Interfaces.contains(g)) return;
+        while(Interfaces.peek() != g) {
+            Interfaces.pop();
+            Schedules.pop();
+        }
+        compositeDepth = -1;
+    }
+
     public static void control(KeyStateManager k) {
         if(Interfaces.size() > 0) {
             int res = Interfaces.peek().control(k);
             if(res != 0) {
                 Interfaces.pop();
+                Schedules.pop();
+                compositeDepth = -1;
             }
         }
     }
 
+    /**
+     * Draws every layer, bottom to top. If the layers under the top one have
+     * not changed since the last frame, their cached picture is copied in
+     * instead and only the top layer is drawn. Layers record their drawing
+     * into the screen's draw list, which is run once they have all drawn.
+     */
     public static void draw(int sx, int sy, Screen s) {
-        for(int i = 0; i < size(); ++i) {
-            Interfaces.get(i).draw(sx, sy, s);
+        int top = size() - 1;
+        if(top < 0) return;
+        if(top > 0 && compositeValid(top, sx, sy, s)) {
+            s.loadPixels(composite);
+        } else {
+            s.begin();
+            for(int i = 0; i < top; ++i) {
+                s.setLayer(i);
+                s.setDepth(0);
+                Interfaces.get(i).draw(sx, sy, s);
+            }
+            s.flush();
+            if(top > 0) {
+                int n = s.getScreenWidth() * s.getScreenHeight();
+                if(composite == null || composite.length != n) {
+                    composite = new int[n];
+                }
+                s.copyPixels(composite);
+                compositeDepth = top;
+                compositeX = sx;
+                compositeY = sy;
+            }
+        }
+        s.begin();
+        s.setLayer(top);
+        Interfaces.get(top).draw(sx, sy, s);
+        s.flush();
+    }
+
+    /**
+     * @return whether the cached picture still shows the bottom 'depth' layers.
+     */
+    private static boolean compositeValid(int depth, int sx, int sy, Screen s) {
+        if(compositeDepth != depth || compositeX != sx || compositeY != sy
+                || composite.length != s.getScreenWidth() * s.getScreenHeight()) {
+            return false;
+        }
+        for(int i = 0; i < depth; ++i) {
+            GUI g = Interfaces.get(i);
+            if(!(g instanceof Cacheable) || ((Cacheable)g).hasChanged()) {
+                return false;
+            }
         }
+        return true;
     }
 
+    /**
+     * Updates every layer that its Schedule says is due, timing each update
+     * against the layer's budget.
+     */
     public static void update(double delta) {
-        for(int i = 0; i < Interfaces.size(); ++i) {
-            Interfaces.get(i).update(delta);
+        int top = Interfaces.size() - 1;
+        for(int i = 0; i <= top; ++i) {
+            Schedule s = Schedules.get(i);
+            if(s.due(delta, i < top)) {
+                long start = System.nanoTime();
+                Interfaces.get(i).update(s.take());
+                s.record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Prints the layers that went over their budget since the last report.
+     */
+    public static void reportOverruns() {
+        for(int i = 0; i < Schedules.size(); ++i) {
+            Schedule s = Schedules.get(i);
+            if(s.getOverruns() > 0) {
+                System.err.println(Interfaces.get(i).getClass().getSimpleName() + " went over budget "
+                        + s.getOverruns() + " times (worst " + (s.getWorst() / 1000) + "us)");
+                s.resetOverruns();
+            }
         }
     }
 }
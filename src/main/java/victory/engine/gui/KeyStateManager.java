@@ -3,6 +3,8 @@ package victory.engine.gui;
 import java.awt.KeyEventDispatcher;
 import java.awt.event.KeyEvent;
 
+import victory.engine.LatencyTracker;
+
 // USAGE:
 // KeyboardFocusManager = KeyboardFocusManager.getCurrentKeyboardFocusManager();
 // KeyStateManager = new KeyStateManager();
@@ -22,6 +24,10 @@ public class KeyStateManager implements KeyEventDispatcher {
      * Array of keys representing the state of keys as they were in the last frame.
      */
     private boolean keysLast[];
+    /**
+     * Stamped with every press and release, if set.
+     */
+    private LatencyTracker latency;
 
     public KeyStateManager() {
         keys = new boolean[KeyEvent.KEY_LAST + 1];
@@ -80,6 +86,48 @@ public class KeyStateManager implements KeyEventDispatcher {
         return isPressed(b.index);
     }
 
+    /**
+     * Packs which buttons are down into a bitmask, one bit per Button ordinal.
+     *
+     * @return the bitmask
+     */
+    public int getButtons() {
+        int mask = 0;
+        for(Button b : Button.values()) {
+            if(keys[b.index]) {
+                mask |= 1 << b.ordinal();
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Sets which buttons are down from a bitmask made by getButtons(), such as one
+     * sent over the network.
+     *
+     * @param mask
+     *            the bitmask
+     */
+    public void setButtons(int mask) {
+        for(Button b : Button.values()) {
+            keys[b.index] = (mask & (1 << b.ordinal())) != 0;
+        }
+    }
+
+    /**
+     * Sets the tracker stamped with the arrival of every press and release.
+     *
+     * @param l
+     *            the tracker, or null to stop tracking
+     */
+    public void setLatencyTracker(LatencyTracker l) {
+        latency = l;
+    }
+
+    public LatencyTracker getLatencyTracker() {
+        return latency;
+    }
+
     /**
      * Button enumerated type. It contains 6 buttons.
      *
@@ -111,11 +159,16 @@ public class KeyStateManager implements KeyEventDispatcher {
     @Override
     public boolean dispatchKeyEvent(KeyEvent key) {
         if(key.getKeyCode() < keys.length) {
+            boolean was = keys[key.getKeyCode()];
             if(key.getID() == KeyEvent.KEY_PRESSED) {
                 keys[key.getKeyCode()] = true;
             } else if(key.getID() == KeyEvent.KEY_RELEASED) {
                 keys[key.getKeyCode()] = false;
             }
+            // Key repeat sends presses for a key already down; only changes count.
+            if(latency != null && was != keys[key.getKeyCode()]) {
+                latency.arrived();
+            }
             return true; //the original method demands a boolean return so we'll just return true.
         } else {
             return false;
@@ -53,7 +53,9 @@ public class Menu extends Window {
         if(!valid) {
             return 0;
         } else {
-            //fire(current);
+            if(k.wasButtonPressed(Button.ACCEPT)) {
+                fire(current);
+            }
             return current+1;
         }
     }
@@ -79,9 +81,10 @@ public class Menu extends Window {
     }
 
     /**
-     * Called when the menu resolves. By default, does nothing but can be overridden in anonymous or sub-classes.
+     * Called when a choice is accepted. By default, does nothing but can be overridden in anonymous or sub-classes.
+     * @param choice index of the accepted choice
      */
-    private void fire(int choice) {
+    protected void fire(int choice) {
         return;
     }
 }
@@ -0,0 +1,133 @@
+package victory.engine.gui;
+
+/**
+ * How often GUIEngine updates a layer, and how long an update may take.
+ * Each layer on the GUIEngine stack has its own Schedule.
+ * @author Victoria Lacroix
+ */
+public class Schedule {
+
+    /**
+     * When a layer is updated.
+     */
+    public static enum Policy {
+        /**
+         * Every tick.
+         */
+        ALWAYS,
+        /**
+         * Every tick, except while another layer is on top of it. Time spent
+         * covered is not made up afterwards.
+         */
+        PAUSE_WHEN_COVERED,
+        /**
+         * Once the interval has passed, with the time of the skipped ticks
+         * added together.
+         */
+        FIXED_RATE;
+    }
+
+    public final Policy policy;
+    /**
+     * Seconds between updates, for FIXED_RATE.
+     */
+    public final double interval;
+    /**
+     * Time an update may take, in nanoseconds. 0 means no limit.
+     */
+    public final long   budget;
+
+    private double      pending     = 0;
+
+    /**
+     * Budget overruns since the last report.
+     */
+    private int         overruns    = 0;
+    private long        worst       = 0;
+
+    /**
+     * @param p when the layer is updated
+     * @param i seconds between updates, for FIXED_RATE
+     * @param b time an update may take, in nanoseconds, or 0 for no limit
+     */
+    public Schedule(Policy p, double i, long b) {
+        policy = p;
+        interval = (i > 0) ? i : 0;
+        budget = b;
+    }
+
+    public static Schedule always() {
+        return new Schedule(Policy.ALWAYS, 0, 0);
+    }
+
+    public static Schedule pauseWhenCovered(long b) {
+        return new Schedule(Policy.PAUSE_WHEN_COVERED, 0, b);
+    }
+
+    public static Schedule every(double seconds, long b) {
+        return new Schedule(Policy.FIXED_RATE, seconds, b);
+    }
+
+    /**
+     * Called once per engine tick.
+     * @param delta length of this tick, in seconds
+     * @param covered whether another layer is on top
+     * @return whether the layer should be updated this tick
+     */
+    boolean due(double delta, boolean covered) {
+        switch(policy) {
+        case PAUSE_WHEN_COVERED:
+            if(covered) return false;
+            pending += delta;
+            return true;
+        case FIXED_RATE:
+            pending += delta;
+            // Leeway for the rounding in adding up short ticks.
+            return pending >= interval - 1e-9;
+        default:
+            pending += delta;
+            return true;
+        }
+    }
+
+    /**
+     * @return the time that passed since the last update, which is what the
+     *         layer should be updated with.
+     */
+    double take() {
+        double d = pending;
+        pending = 0;
+        return d;
+    }
+
+    /**
+     * Records how long an update took.
+     * @param nanos
+     */
+    void record(long nanos) {
+        if(budget > 0 && nanos > budget) {
+            ++overruns;
+            worst = (nanos > worst) ? nanos : worst;
+        }
+    }
+
+    /**
+     * @return budget overruns since the last report.
+     */
+    public int getOverruns() {
+        return overruns;
+    }
+
+    /**
+     * @return the longest overrunning update since the last report, in
+     *         nanoseconds.
+     */
+    public long getWorst() {
+        return worst;
+    }
+
+    void resetOverruns() {
+        overruns = 0;
+        worst = 0;
+    }
+}
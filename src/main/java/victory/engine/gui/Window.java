@@ -6,7 +6,7 @@ import victory.engine.graphics.SpriteSheet;
 import victory.engine.gui.KeyStateManager;
 import victory.engine.gui.KeyStateManager.Button;
 
-public abstract class Window implements GUI {
+public abstract class Window implements GUI, Cacheable {
     private int x, y;
     private int width, height;
     /**
@@ -22,6 +22,10 @@ public abstract class Window implements GUI {
      * 0x21+ = ASCII text
      */
     private char[] win;
+    /**
+     * Whether the contents changed since the last draw.
+     */
+    private boolean changed = true;
     static SpriteSheet gfx = new SpriteSheet("text.png");
 
     public Window(int sx, int sy, int w, int h) {
@@ -59,6 +63,7 @@ public abstract class Window implements GUI {
      * Set up a blank, bordered window.
      */
     protected void setupBorders() {
+        changed = true;
         for(int i = 0; i < width*height; ++i) {
             if(i < width) {
                 if(i == 0) {
@@ -104,6 +109,7 @@ public abstract class Window implements GUI {
      * @param s string to write.
      */
     public void write(int x, int y, String s) {
+        changed = true;
         char str[] = s.toCharArray();
         for(int i = 0; i < str.length; ++i) {
             if(str[i] == '\n' || x >= width - 1) {
@@ -124,13 +130,20 @@ public abstract class Window implements GUI {
      * @param c char to write.
      */
     public void put(int cx, int cy, char c) {
-        if(cx >= 0 && cy >= 0 && cx < width && cy < height) {
+        if(cx >= 0 && cy >= 0 && cx < width && cy < height && win[cx+(cy*width)] != c) {
             win[cx+(cy*width)] = c;
+            changed = true;
         }
     }
 
+    @Override
+    public boolean hasChanged() {
+        return changed;
+    }
+
     @Override
     public void draw(int sx, int sy, Screen s) {
+        changed = false;
         Sprite brush = new Sprite(8, 8, gfx);
         for(int dy = 0; dy < height; dy++) {
             for(int dx = 0; dx < width; dx++) {
@@ -0,0 +1,241 @@
+package victory.engine.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+
+import victory.engine.graphics.Screen;
+import victory.engine.graphics.SpriteSheet;
+import victory.engine.gui.GUI;
+import victory.engine.gui.KeyStateManager;
+import victory.engine.world.Entity;
+import victory.engine.world.Map;
+import victory.engine.world.MapEngine;
+
+/**
+ * Client side of a GameServer, as a GUI layer. It sends the local buttons to
+ * the server every tick and shows the snapshots the server sends back in a
+ * MapEngine that it never simulates.
+ * @author Victoria Lacroix
+ */
+public class GameClient implements GUI {
+    private final MapEngine         view;
+    private final SocketChannel     channel;
+    private final ByteBuffer        in      = ByteBuffer.allocate(1 << 18);
+    private final ByteBuffer        out     = ByteBuffer.allocate(1 << 12);
+
+    /**
+     * Snapshots received, by tick, to apply later snapshots to.
+     */
+    private final WorldState[]      received = new WorldState[Protocol.HISTORY];
+    private final WorldState        scratch  = new WorldState();
+    private int                     latest  = -1;
+    private int                     me      = 0;
+
+    private final HashMap<Integer, RemoteEntity>    known   = new HashMap<Integer, RemoteEntity>();
+    private final HashMap<String, SpriteSheet>      sheets  = new HashMap<String, SpriteSheet>();
+
+    /**
+     * Connects to a server.
+     * @param v engine to show the server's map in. It should hold the same
+     *          map as the server and no entities.
+     * @param address server address
+     * @throws IOException if the server cannot be reached.
+     */
+    public GameClient(MapEngine v, InetSocketAddress address) throws IOException {
+        view = v;
+        for(int i = 0; i < received.length; ++i) {
+            received[i] = new WorldState();
+        }
+        channel = SocketChannel.open(address);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.configureBlocking(false);
+    }
+
+    /**
+     * @return the id of the entity this client controls, or 0 before the
+     *         server has said.
+     */
+    public int getId() {
+        return me;
+    }
+
+    /**
+     * @return the newest server tick shown.
+     */
+    public int getTick() {
+        return latest;
+    }
+
+    /**
+     * Sends the buttons that are down, and which snapshot we have.
+     */
+    @Override
+    public int control(KeyStateManager k) {
+        int at = Protocol.begin(out, Protocol.INPUT);
+        out.putInt(latest).putInt(k.getButtons());
+        Protocol.end(out, at);
+        out.flip();
+        try {
+            channel.write(out);
+        } catch(IOException e) {
+            e.printStackTrace();
+            out.clear();
+            return 1;
+        }
+        out.compact();
+        return 0;
+    }
+
+    /**
+     * Applies whatever the server sent since the last tick.
+     */
+    @Override
+    public void update(double delta) {
+        try {
+            if(channel.read(in) < 0) {
+                return;
+            }
+        } catch(IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        in.flip();
+        while(Protocol.hasMessage(in)) {
+            int length = in.getInt();
+            int end = in.position() + length;
+            byte type = in.get();
+            if(type == Protocol.HELLO) {
+                me = in.getInt();
+            } else if(type == Protocol.SNAPSHOT) {
+                applySnapshot();
+            } else if(type == Protocol.EDITS) {
+                applyEdits();
+            }
+            in.position(end);
+        }
+        in.compact();
+        view.follow();
+    }
+
+    private void applySnapshot() {
+        int tick = in.getInt();
+        int baseTick = in.getInt();
+        WorldState next = scratch;
+        if(baseTick < 0) {
+            next.clear(tick);
+        } else {
+            WorldState base = received[baseTick % received.length];
+            if(base.tick != baseTick) {
+                // We no longer have what this was compressed against; ask
+                // for a full snapshot.
+                latest = -1;
+                return;
+            }
+            next.copyFrom(base);
+            next.tick = tick;
+        }
+
+        int changed = in.getShort();
+        for(int n = 0; n < changed; ++n) {
+            int id = in.getInt();
+            int flags = in.get();
+            int i = next.indexOf(id);
+            if(i < 0) {
+                next.add(id, 0, 0, 0, 0);
+                i = next.count - 1;
+            }
+            if((flags & Protocol.POSITION) != 0) {
+                next.x[i] = in.getFloat();
+                next.y[i] = in.getFloat();
+            }
+            if((flags & Protocol.FRAME) != 0) {
+                next.frameX[i] = in.get();
+                next.frameY[i] = in.get();
+            }
+            if((flags & Protocol.SPAWN) != 0) {
+                int w = in.getShort(), h = in.getShort();
+                String path = Protocol.getString(in);
+                if(!known.containsKey(id)) {
+                    known.put(id, new RemoteEntity(id, w, h, sheet(path)));
+                }
+            }
+        }
+        int removed = in.getShort();
+        for(int n = 0; n < removed; ++n) {
+            int i = next.indexOf(in.getInt());
+            if(i >= 0) next.remove(i);
+        }
+
+        applyEdits();
+
+        received[tick % received.length].copyFrom(next);
+        if(tick > latest) {
+            latest = tick;
+            show(next);
+        }
+    }
+
+    /**
+     * Applies a count of tile edits and the edits.
+     */
+    private void applyEdits() {
+        Map map = view.getMap();
+        int edits = in.getInt();
+        for(int n = 0; n < edits; ++n) {
+            int index = in.getInt();
+            short tile = in.getShort();
+            boolean perm = in.get() != 0;
+            map.setTile(index % map.getWidth(), index / map.getWidth(), tile, perm);
+        }
+    }
+
+    /**
+     * Makes the view's entities match a state.
+     */
+    private void show(WorldState s) {
+        for(int i = view.getEntityCount() - 1; i >= 0; --i) {
+            Entity e = view.getEntity(i);
+            if(s.indexOf(e.getId()) < 0) {
+                view.removeEntity(i);
+                known.remove(e.getId());
+            }
+        }
+        for(int i = 0; i < s.count; ++i) {
+            RemoteEntity e = known.get(s.ids[i]);
+            if(e == null) continue;
+            if(view.getEntityById(s.ids[i]) == null) {
+                view.addEntity(e);
+                if(s.ids[i] == me) {
+                    view.attachCamera(view.indexOf(e));
+                }
+            }
+            e.setPosition(s.x[i], s.y[i]);
+            e.setFrame(s.frameX[i], s.frameY[i]);
+        }
+    }
+
+    private SpriteSheet sheet(String path) {
+        SpriteSheet s = sheets.get(path);
+        if(s == null) {
+            s = new SpriteSheet(path);
+            sheets.put(path, s);
+        }
+        return s;
+    }
+
+    @Override
+    public void draw(int sx, int sy, Screen s) {
+        view.draw(sx, sy, s);
+    }
+
+    /**
+     * Disconnects from the server.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+}
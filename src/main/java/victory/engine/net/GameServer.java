@@ -0,0 +1,464 @@
+package victory.engine.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import victory.engine.graphics.Sprite;
+import victory.engine.gui.KeyStateManager;
+import victory.engine.gui.KeyStateManager.Button;
+import victory.engine.world.Entity;
+import victory.engine.world.Map;
+import victory.engine.world.MapEngine;
+import victory.engine.world.MapListener;
+import victory.engine.world.Player;
+
+/**
+ * Headless, authoritative host for a MapEngine. Each connected client gets a
+ * Player that it steers by sending its buttons; the server simulates the
+ * whole map and sends every client a snapshot each tick.
+ *
+ * Snapshots are compressed against the newest tick the client said it has:
+ * only entities that moved, changed frame, appeared or disappeared since
+ * then are sent, along with tiles edited since then. A client that has
+ * nothing (or fell too far behind) gets a full snapshot.
+ *
+ * @author Victoria Lacroix
+ */
+public class GameServer implements MapListener {
+    /**
+     * Ticks per second when none is given.
+     */
+    public static final int             TICK_RATE   = 60;
+    public static final int             PORT        = 7777;
+
+    private final MapEngine             engine;
+    private final ServerSocketChannel   server;
+    private final Selector              selector;
+    private final ArrayList<Connection> clients     = new ArrayList<Connection>();
+    private final double                spawnX, spawnY;
+
+    private final WorldState[]          history     = new WorldState[Protocol.HISTORY];
+    private int                         tick        = 0;
+    private int                         tickRate    = TICK_RATE;
+    private volatile boolean            running     = false;
+
+    /**
+     * Tiles edited on the tick they were edited, for as long as some
+     * client's baseline is older than them.
+     */
+    private int[]                       editTick    = new int[64];
+    private int[]                       editIndex   = new int[64];
+    private short[]                     editTile    = new short[64];
+    private boolean[]                   editPerm    = new boolean[64];
+    private int                         editCount   = 0;
+
+    private final ByteBuffer            scratch     = ByteBuffer.allocate(1 << 16);
+
+    /**
+     * Starts listening for clients.
+     * @param e engine to host
+     * @param address address to listen on
+     * @param sx where new players appear, in pixels
+     * @param sy where new players appear, in pixels
+     * @throws IOException
+     */
+    public GameServer(MapEngine e, InetSocketAddress address, double sx, double sy) throws IOException {
+        engine = e;
+        spawnX = sx;
+        spawnY = sy;
+        for(int i = 0; i < history.length; ++i) {
+            history[i] = new WorldState();
+        }
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.configureBlocking(false);
+        server.bind(address);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        e.getMap().addListener(this);
+    }
+
+    /**
+     * @return the address clients should connect to.
+     */
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress)server.getLocalAddress();
+    }
+
+    /**
+     * @param rate ticks per second run() goes at. Lower rates suit weak
+     *             machines; the simulation behaves the same at any rate.
+     */
+    public void setTickRate(int rate) {
+        tickRate = Math.max(1, rate);
+    }
+
+    public int getTickRate() {
+        return tickRate;
+    }
+
+    /**
+     * Runs ticks at the tick rate until stop() is called.
+     */
+    public void run() throws IOException {
+        running = true;
+        long nsPerTick = 1000000000L / tickRate;
+        double delta = 1d / tickRate;
+        long next = System.nanoTime();
+        while(running) {
+            tick(delta);
+            next += nsPerTick;
+            long wait = next - System.nanoTime();
+            if(wait > 0) {
+                try {
+                    Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+                } catch(InterruptedException e) {
+                    running = false;
+                }
+            } else {
+                next = System.nanoTime(); // too far behind to catch up
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Runs one server tick: takes in connections and input, simulates, and
+     * sends snapshots.
+     * @param delta length of the tick, in seconds
+     */
+    public void tick(double delta) throws IOException {
+        selector.selectNow();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while(keys.hasNext()) {
+            SelectionKey k = keys.next();
+            keys.remove();
+            if(!k.isValid()) continue;
+            if(k.isAcceptable()) {
+                accept();
+            } else if(k.isReadable()) {
+                read((Connection)k.attachment());
+            }
+        }
+
+        for(int i = 0; i < clients.size(); ++i) {
+            Connection c = clients.get(i);
+            c.keys.setButtons(c.buttons);
+            c.entity.control(c.keys);
+            c.keys.update();
+        }
+        engine.update(delta);
+        ++tick;
+        record(history[tick % history.length]);
+
+        // Clients without a baseline, or with one too old to use, get full
+        // snapshots, so only usable baselines keep edits around.
+        int oldest = tick;
+        for(int i = clients.size() - 1; i >= 0; --i) {
+            Connection c = clients.get(i);
+            send(c);
+            if(c.ack >= 0) {
+                oldest = Math.min(oldest, Math.max(c.ack, tick - history.length));
+            }
+        }
+        trimEdits(oldest);
+    }
+
+    private void accept() throws IOException {
+        SocketChannel ch = server.accept();
+        if(ch == null) return;
+        if(engine.getEntityCount() >= engine.getEntityCapacity()) {
+            // No room for another player; turn the client away.
+            System.err.println("Server full, refusing " + ch.getRemoteAddress());
+            ch.close();
+            return;
+        }
+        ch.configureBlocking(false);
+        ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Connection c = new Connection(ch);
+        c.entity = new Player(spawnX, spawnY);
+        engine.addEntity(c.entity);
+        ch.register(selector, SelectionKey.OP_READ, c);
+        clients.add(c);
+
+        int at = Protocol.begin(c.out, Protocol.HELLO);
+        c.out.putInt(c.entity.getId());
+        Protocol.end(c.out, at);
+        flush(c);
+    }
+
+    private void read(Connection c) {
+        int n;
+        try {
+            n = c.channel.read(c.in);
+        } catch(IOException e) {
+            n = -1;
+        }
+        if(n < 0) {
+            drop(c);
+            return;
+        }
+        c.in.flip();
+        while(c.in.remaining() >= 4) {
+            int length = c.in.getInt(c.in.position());
+            if(length < 1 || length > Protocol.MAX_INPUT - 4) {
+                // A bad frame only costs the client that sent it.
+                drop(c);
+                return;
+            }
+            if(!Protocol.hasMessage(c.in)) break;
+            c.in.getInt();
+            int end = c.in.position() + length;
+            byte type = c.in.get();
+            if(type == Protocol.INPUT && length >= Protocol.INPUT_SIZE) {
+                int ack = c.in.getInt();
+                // Menus belong to the client, so the server never opens them.
+                c.buttons = c.in.getInt() & ~(1 << Button.CANCEL.ordinal());
+                if(ack > c.ack && ack <= tick) c.ack = ack;
+                if(ack < 0) c.ack = -1;
+            }
+            c.in.position(end);
+        }
+        c.in.compact();
+    }
+
+    private void drop(Connection c) {
+        clients.remove(c);
+        engine.removeEntity(c.entity);
+        try {
+            c.channel.close();
+        } catch(IOException e) {
+            // already gone
+        }
+    }
+
+    /**
+     * Copies what every entity looks like now.
+     */
+    private void record(WorldState s) {
+        s.clear(tick);
+        for(int i = 0; i < engine.getEntityCount(); ++i) {
+            Entity e = engine.getEntity(i);
+            Sprite sp = e.getSprite();
+            s.add(e.getId(), (float)e.getX(), (float)e.getY(), sp.getIndexX(), sp.getIndexY());
+        }
+    }
+
+    /**
+     * Writes a snapshot for a client, compressed against its baseline.
+     */
+    private void send(Connection c) {
+        WorldState now = history[tick % history.length];
+        WorldState base = null;
+        if(c.ack >= 0 && tick - c.ack < history.length && history[c.ack % history.length].tick == c.ack) {
+            base = history[c.ack % history.length];
+        }
+
+        ByteBuffer b = scratch;
+        b.clear();
+        int at = Protocol.begin(b, Protocol.SNAPSHOT);
+        b.putInt(tick).putInt((base == null) ? -1 : base.tick);
+
+        int countAt = b.position();
+        b.putShort((short)0);
+        int changed = 0;
+        for(int i = 0; i < now.count; ++i) {
+            int j = (base == null) ? -1 : base.indexOf(now.ids[i]);
+            int flags = 0;
+            if(j < 0) {
+                flags = Protocol.SPAWN | Protocol.POSITION | Protocol.FRAME;
+            } else {
+                if(now.x[i] != base.x[j] || now.y[i] != base.y[j]) flags |= Protocol.POSITION;
+                if(now.frameX[i] != base.frameX[j] || now.frameY[i] != base.frameY[j]) flags |= Protocol.FRAME;
+            }
+            if(flags == 0) continue;
+            b.putInt(now.ids[i]).put((byte)flags);
+            if((flags & Protocol.POSITION) != 0) b.putFloat(now.x[i]).putFloat(now.y[i]);
+            if((flags & Protocol.FRAME) != 0) b.put(now.frameX[i]).put(now.frameY[i]);
+            if((flags & Protocol.SPAWN) != 0) {
+                Sprite sp = engine.getEntityById(now.ids[i]).getSprite();
+                b.putShort((short)sp.getWidth()).putShort((short)sp.getHeight());
+                Protocol.putString(b, String.valueOf(sp.getSheet().getPath()));
+            }
+            ++changed;
+        }
+        b.putShort(countAt, (short)changed);
+
+        countAt = b.position();
+        b.putShort((short)0);
+        int removed = 0;
+        for(int j = 0; base != null && j < base.count; ++j) {
+            if(now.indexOf(base.ids[j]) < 0) {
+                b.putInt(base.ids[j]);
+                ++removed;
+            }
+        }
+        b.putShort(countAt, (short)removed);
+
+        int[] index;
+        short[] tile;
+        boolean[] perm;
+        int first = 0, last;
+        if(base == null) {
+            Map map = engine.getMap();
+            last = map.getEditCount();
+            index = new int[last];
+            tile = new short[last];
+            perm = new boolean[last];
+            map.copyEdits(index, tile, perm, new short[last], new boolean[last]);
+        } else {
+            while(first < editCount && editTick[first] <= base.tick) ++first;
+            index = editIndex;
+            tile = editTile;
+            perm = editPerm;
+            last = editCount;
+        }
+        // The newest edits ride in the snapshot. Any that do not fit go just
+        // ahead of it in EDITS messages, so a tile edited twice still ends
+        // up with its newer tile.
+        int inline = Math.min(last - first, (b.remaining() - 4) / Protocol.EDIT_SIZE);
+        int split = last - inline;
+        b.putInt(inline);
+        putEdits(b, index, tile, perm, split, last);
+        Protocol.end(b, at);
+        b.flip();
+
+        int ahead = split - first;
+        int messages = (ahead + Protocol.MAX_EDITS - 1) / Protocol.MAX_EDITS;
+        int needed = b.remaining() + ahead * Protocol.EDIT_SIZE + messages * 9;
+        if(needed > c.out.capacity()) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(c.out.capacity() * 2, needed + c.out.position()));
+            c.out.flip();
+            bigger.put(c.out);
+            c.out = bigger;
+        }
+        if(c.out.remaining() >= needed) {
+            for(int i = first; i < split; i += Protocol.MAX_EDITS) {
+                int end = Math.min(split, i + Protocol.MAX_EDITS);
+                int m = Protocol.begin(c.out, Protocol.EDITS);
+                c.out.putInt(end - i);
+                putEdits(c.out, index, tile, perm, i, end);
+                Protocol.end(c.out, m);
+            }
+            c.out.put(b);
+        }
+        // Otherwise the client is not keeping up. It gets a bigger delta
+        // once it does, since its baseline has not moved.
+        flush(c);
+    }
+
+    private static void putEdits(ByteBuffer b, int[] index, short[] tile, boolean[] perm, int from, int to) {
+        for(int i = from; i < to; ++i) {
+            b.putInt(index[i]).putShort(tile[i]).put((byte)(perm[i] ? 1 : 0));
+        }
+    }
+
+    private void flush(Connection c) {
+        c.out.flip();
+        try {
+            c.channel.write(c.out);
+        } catch(IOException e) {
+            c.out.clear();
+            drop(c);
+            return;
+        }
+        c.out.compact();
+    }
+
+    @Override
+    public void tileChanged(int x, int y) {
+        if(editCount == editTick.length) {
+            int n = editCount * 2;
+            int[] t = new int[n], i = new int[n];
+            short[] s = new short[n];
+            boolean[] p = new boolean[n];
+            System.arraycopy(editTick, 0, t, 0, editCount);
+            System.arraycopy(editIndex, 0, i, 0, editCount);
+            System.arraycopy(editTile, 0, s, 0, editCount);
+            System.arraycopy(editPerm, 0, p, 0, editCount);
+            editTick = t;
+            editIndex = i;
+            editTile = s;
+            editPerm = p;
+        }
+        Map map = engine.getMap();
+        // Edits made during a tick show up in that tick's snapshot.
+        editTick[editCount] = tick + 1;
+        editIndex[editCount] = x + (y * map.getWidth());
+        editTile[editCount] = map.getTile(x, y);
+        editPerm[editCount] = map.cmap.getAt(x, y);
+        ++editCount;
+    }
+
+    @Override
+    public void regionChanged(int x, int y, int w, int h) {
+        // Generated terrain comes out the same on every client.
+    }
+
+    /**
+     * Forgets edits that every client's baseline already has.
+     */
+    private void trimEdits(int oldest) {
+        int first = 0;
+        while(first < editCount && editTick[first] <= oldest) ++first;
+        if(first == 0) return;
+        editCount -= first;
+        System.arraycopy(editTick, first, editTick, 0, editCount);
+        System.arraycopy(editIndex, first, editIndex, 0, editCount);
+        System.arraycopy(editTile, first, editTile, 0, editCount);
+        System.arraycopy(editPerm, first, editPerm, 0, editCount);
+    }
+
+    /**
+     * Disconnects every client and stops listening.
+     */
+    public void close() throws IOException {
+        for(Connection c : new ArrayList<Connection>(clients)) {
+            drop(c);
+        }
+        server.close();
+        selector.close();
+    }
+
+    /**
+     * A connected client.
+     */
+    private static class Connection {
+        final SocketChannel     channel;
+        final ByteBuffer        in      = ByteBuffer.allocate(1 << 12);
+        ByteBuffer              out     = ByteBuffer.allocate(1 << 18);
+        final KeyStateManager   keys    = new KeyStateManager();
+        Entity                  entity;
+        int                     buttons = 0;
+        int                     ack     = -1;
+
+        Connection(SocketChannel ch) {
+            channel = ch;
+        }
+    }
+
+    /**
+     * Runs a headless server on the world map.
+     * @param args optional port, then optional ticks per second
+     */
+    public static void main(String[] args) throws IOException {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : PORT;
+        int rate = (args.length > 1) ? Integer.parseInt(args[1]) : TICK_RATE;
+        Map map = new Map(32, 32, null, "map/csv/world.csv");
+        MapEngine engine = new MapEngine(320, 240, map);
+        GameServer s = new GameServer(engine, new InetSocketAddress(port), 128, 128);
+        s.setTickRate(rate);
+        System.err.println("Serving on " + s.getAddress());
+        s.run();
+    }
+}
@@ -0,0 +1,95 @@
+package victory.engine.net;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Message layout shared by GameServer and GameClient.
+ *
+ * Every message is an int length, then a type byte, then the body. Lengths
+ * count the type byte and the body.
+ *
+ * HELLO (server to client): int id of the client's entity.
+ *
+ * INPUT (client to server): int newest snapshot tick the client has applied
+ * (or -1 for none), int button bitmask from KeyStateManager.getButtons().
+ *
+ * SNAPSHOT (server to client): int tick, int baseline tick it is compressed
+ * against (or -1 for a full snapshot), short count of changed entities, each
+ * as int id, byte flags, then by flag: float x, float y (POSITION); byte
+ * frame x, byte frame y (FRAME); short width, short height, string sheet
+ * (SPAWN). Then short count of removed entity ids, each an int. Then int
+ * count of tile edits, each as int tile index, short tile, byte permission.
+ *
+ * EDITS (server to client): int count of tile edits, as in SNAPSHOT. Edits
+ * that do not fit in a snapshot are sent just before it in EDITS messages
+ * of at most MAX_EDITS each, oldest first, so no message outgrows a buffer.
+ *
+ * @author Victoria Lacroix
+ */
+final class Protocol {
+    static final byte   HELLO       = 1;
+    static final byte   INPUT       = 2;
+    static final byte   SNAPSHOT    = 3;
+    static final byte   EDITS       = 4;
+
+    static final int    POSITION    = 1;
+    static final int    FRAME       = 2;
+    static final int    SPAWN       = 4;
+
+    /**
+     * Longest message a client may send, length included. Anything longer,
+     * or with a length under one byte, is a broken or hostile client.
+     */
+    static final int    MAX_INPUT   = 64;
+    /**
+     * Length of an INPUT message, type byte included.
+     */
+    static final int    INPUT_SIZE  = 9;
+
+    /**
+     * Bytes per tile edit, and most edits in one EDITS message.
+     */
+    static final int    EDIT_SIZE   = 7;
+    static final int    MAX_EDITS   = 4096;
+
+    /**
+     * How many past ticks are kept to compress against.
+     */
+    static final int    HISTORY     = 64;
+
+    private Protocol() {}
+
+    /**
+     * Starts a message. Call end() with the returned position once the body
+     * is written.
+     * @return position of the message's length
+     */
+    static int begin(ByteBuffer b, byte type) {
+        int at = b.position();
+        b.putInt(0).put(type);
+        return at;
+    }
+
+    static void end(ByteBuffer b, int at) {
+        b.putInt(at, b.position() - at - 4);
+    }
+
+    /**
+     * @return whether a whole message is waiting in b, which is in read mode.
+     */
+    static boolean hasMessage(ByteBuffer b) {
+        return b.remaining() >= 4 && b.remaining() >= 4 + b.getInt(b.position());
+    }
+
+    static void putString(ByteBuffer b, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        b.putShort((short)bytes.length).put(bytes);
+    }
+
+    static String getString(ByteBuffer b) {
+        byte[] bytes = new byte[b.getShort() & 0xFFFF];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,40 @@
+package victory.engine.net;
+
+import victory.engine.graphics.SpriteSheet;
+import victory.engine.world.Entity;
+
+/**
+ * An entity simulated by a server. A client only places and draws it.
+ * @author Victoria Lacroix
+ */
+public class RemoteEntity extends Entity {
+
+    public RemoteEntity(int id, int w, int h, SpriteSheet sheet) {
+        super(w, h, sheet);
+        setId(id);
+    }
+
+    /**
+     * Shows a frame of the sprite sheet.
+     * @param x frame index
+     * @param y frame index
+     */
+    public void setFrame(int x, int y) {
+        sprite.setIndex(x, y);
+    }
+
+    @Override
+    public void update(double delta) {
+        // The server does this.
+    }
+
+    @Override
+    public void onCollide(Entity other) {
+        // The server does this.
+    }
+
+    @Override
+    public boolean getGarbage() {
+        return false;
+    }
+}
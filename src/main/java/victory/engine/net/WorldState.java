@@ -0,0 +1,89 @@
+package victory.engine.net;
+
+/**
+ * What every entity looked like on one server tick: its id, position and
+ * sprite frame. Servers keep a short history of these to compress snapshots
+ * against, and clients keep the ones they received to apply snapshots to.
+ * @author Victoria Lacroix
+ */
+class WorldState {
+    int         tick    = -1;
+    int         count   = 0;
+    int[]       ids     = new int[16];
+    float[]     x       = new float[16];
+    float[]     y       = new float[16];
+    byte[]      frameX  = new byte[16];
+    byte[]      frameY  = new byte[16];
+
+    /**
+     * Empties this state and stamps it with a tick.
+     */
+    void clear(int t) {
+        tick = t;
+        count = 0;
+    }
+
+    void add(int id, float px, float py, int fx, int fy) {
+        if(count == ids.length) {
+            grow();
+        }
+        ids[count] = id;
+        x[count] = px;
+        y[count] = py;
+        frameX[count] = (byte)fx;
+        frameY[count] = (byte)fy;
+        ++count;
+    }
+
+    /**
+     * Removes the entity at index i. The last entity takes its place.
+     */
+    void remove(int i) {
+        --count;
+        ids[i] = ids[count];
+        x[i] = x[count];
+        y[i] = y[count];
+        frameX[i] = frameX[count];
+        frameY[i] = frameY[count];
+    }
+
+    /**
+     * @return the index of the entity with an id, or -1.
+     */
+    int indexOf(int id) {
+        for(int i = 0; i < count; ++i) {
+            if(ids[i] == id) return i;
+        }
+        return -1;
+    }
+
+    void copyFrom(WorldState o) {
+        while(ids.length < o.count) {
+            grow();
+        }
+        tick = o.tick;
+        count = o.count;
+        System.arraycopy(o.ids, 0, ids, 0, count);
+        System.arraycopy(o.x, 0, x, 0, count);
+        System.arraycopy(o.y, 0, y, 0, count);
+        System.arraycopy(o.frameX, 0, frameX, 0, count);
+        System.arraycopy(o.frameY, 0, frameY, 0, count);
+    }
+
+    private void grow() {
+        int n = ids.length * 2;
+        int[] i = new int[n];
+        float[] fx = new float[n], fy = new float[n];
+        byte[] bx = new byte[n], by = new byte[n];
+        System.arraycopy(ids, 0, i, 0, count);
+        System.arraycopy(x, 0, fx, 0, count);
+        System.arraycopy(y, 0, fy, 0, count);
+        System.arraycopy(frameX, 0, bx, 0, count);
+        System.arraycopy(frameY, 0, by, 0, count);
+        ids = i;
+        x = fx;
+        y = fy;
+        frameX = bx;
+        frameY = by;
+    }
+}
@@ -0,0 +1,118 @@
+package victory.engine.script;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * A compiled script: the bytecode, the strings it uses, and how many
+ * registers it needs. Scripts are compiled once and shared by every
+ * ScriptInstance that runs them.
+ *
+ * Each instruction is one int: the opcode in the low 8 bits, then registers
+ * a, b and c in the next three bytes. Instructions that need a constant,
+ * a jump target or a function number take it from the int after them.
+ *
+ * @author Victoria Lacroix
+ */
+public class Script {
+    static final int    LOADK   = 0;    // a = k
+    static final int    MOVE    = 1;    // a = b
+    static final int    ADD     = 2;    // a = b + c
+    static final int    SUB     = 3;
+    static final int    MUL     = 4;
+    static final int    DIV     = 5;
+    static final int    MOD     = 6;
+    static final int    LT      = 7;
+    static final int    LE      = 8;
+    static final int    EQ      = 9;
+    static final int    NE      = 10;
+    static final int    AND     = 11;
+    static final int    OR      = 12;
+    static final int    NEG     = 13;   // a = -b
+    static final int    NOT     = 14;
+    static final int    JUMP    = 15;   // go to k
+    static final int    JUMPZ   = 16;   // go to k if a is 0
+    static final int    CALL    = 17;   // a = function k(c arguments from b)
+    static final int    WAIT    = 18;   // sleep for a milliseconds
+    static final int    YIELD   = 19;
+    static final int    STOP    = 20;
+
+    /**
+     * Most registers a script may use: variables and temporaries.
+     */
+    public static final int MAX_REGISTERS = 256;
+
+    final String        name;
+    final int[]         code;
+    final String[]      strings;
+    final String[]      variables;
+    final int           registers;
+
+    Script(String name, int[] code, String[] strings, String[] variables, int registers) {
+        this.name = name;
+        this.code = code;
+        this.strings = strings;
+        this.variables = variables;
+        this.registers = registers;
+    }
+
+    /**
+     * Compiles a script.
+     * @param name used in error messages
+     * @param source script text
+     * @param host functions the script may call
+     * @return the compiled script
+     * @throws IOException on the first error, with its line.
+     */
+    public static Script compile(String name, String source, ScriptHost host) throws IOException {
+        return new ScriptCompiler(name, source, host).compile();
+    }
+
+    /**
+     * Reads and compiles a script file.
+     * @param url
+     * @param host functions the script may call
+     * @return the compiled script, named after the file without its extension.
+     * @throws IOException if the file cannot be read or does not compile.
+     */
+    public static Script load(String url, ScriptHost host) throws IOException {
+        File f = new File(url);
+        String name = f.getName();
+        if(name.lastIndexOf('.') > 0) {
+            name = name.substring(0, name.lastIndexOf('.'));
+        }
+        return compile(name, new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8), host);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return how many ints of bytecode the script compiled to.
+     */
+    public int getSize() {
+        return code.length;
+    }
+
+    /**
+     * @return the string constant with a number, as passed to host functions.
+     */
+    public String getString(int i) {
+        return (i >= 0 && i < strings.length) ? strings[i] : "";
+    }
+
+    /**
+     * @param variable name as written in the script
+     * @return the variable's register, or -1 if the script has no such
+     *         variable.
+     */
+    public int getRegister(String variable) {
+        for(int i = 0; i < variables.length; ++i) {
+            if(variables[i].equals(variable)) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,516 @@
+package victory.engine.script;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Turns script text into bytecode. Scripts are made of lines, one statement
+ * each, and # starts a comment:
+ *
+ * <pre>
+ * name = expression        assigns a variable
+ * function(a, b, ...)      calls a host function
+ * if expression / else / end
+ * while expression / end
+ * label:                   names a place to goto
+ * goto label
+ * wait expression          sleeps for that many milliseconds
+ * yield                    sleeps until the next tick
+ * stop                     ends the script
+ * </pre>
+ *
+ * Every value is an int. Expressions have + - * / %, comparisons, and, or,
+ * not, parentheses, host function calls, and "strings", which stand for the
+ * number of the string in the script. A variable is any name assigned
+ * somewhere in the script; it starts at 0.
+ *
+ * Each variable has its own register. Every step of an expression goes into
+ * a fresh temporary register above them, and temporaries are reused from
+ * one statement to the next.
+ *
+ * @author Victoria Lacroix
+ */
+final class ScriptCompiler {
+    private static final int    NAME        = 0;
+    private static final int    NUMBER      = 1;
+    private static final int    STRING      = 2;
+    private static final int    SYMBOL      = 3;
+    private static final int    NEWLINE     = 4;
+
+    private static final int    IF          = 0;
+    private static final int    ELSE        = 1;
+    private static final int    WHILE       = 2;
+
+    private final String        name;
+    private final String        source;
+    private final ScriptHost    host;
+
+    /**
+     * Tokens, one entry per array each. Numbers keep their value, strings
+     * their text, and names and symbols their spelling.
+     */
+    private int[]               type        = new int[256];
+    private String[]            text        = new String[256];
+    private int[]               value       = new int[256];
+    private int[]               line        = new int[256];
+    private int                 tokens      = 0;
+    private int                 pos         = 0;
+
+    private int[]               code        = new int[256];
+    private int                 size        = 0;
+    /**
+     * Where the last instruction that wrote a register starts, so a move out
+     * of it can be folded into it.
+     */
+    private int                 lastWrite   = -1;
+
+    private final HashMap<String, Integer> variables = new HashMap<String, Integer>();
+    private final ArrayList<String> variableNames = new ArrayList<String>();
+    private final HashMap<String, Integer> strings = new HashMap<String, Integer>();
+    private final ArrayList<String> stringList = new ArrayList<String>();
+    private final HashMap<String, Integer> labels = new HashMap<String, Integer>();
+    /**
+     * Jumps to labels, filled in once every label is known: where the target
+     * goes, and the token naming the label.
+     */
+    private final ArrayList<int[]> gotos = new ArrayList<int[]>();
+    /**
+     * Open if and while blocks: kind, the token that opened it, and up to
+     * two places in the code.
+     */
+    private final ArrayList<int[]> blocks = new ArrayList<int[]>();
+
+    private int                 nextTemp;
+    private int                 registers;
+
+    ScriptCompiler(String name, String source, ScriptHost host) {
+        this.name = name;
+        this.source = source;
+        this.host = host;
+    }
+
+    Script compile() throws IOException {
+        tokenize();
+        findVariables();
+        nextTemp = registers = variableNames.size();
+        while(pos < tokens) {
+            statement();
+            nextTemp = variableNames.size();
+        }
+        if(!blocks.isEmpty()) {
+            int[] b = blocks.get(blocks.size() - 1);
+            throw error(b[1], "Missing end.");
+        }
+        emit(Script.STOP, 0, 0, 0);
+        for(int[] g : gotos) {
+            Integer target = labels.get(text[g[1]]);
+            if(target == null) {
+                throw error(g[1], "Unknown label " + text[g[1]] + ".");
+            }
+            code[g[0]] = target;
+        }
+        return new Script(name, Arrays.copyOf(code, size), stringList.toArray(new String[stringList.size()]),
+                variableNames.toArray(new String[variableNames.size()]), registers);
+    }
+
+    private IOException error(int token, String message) {
+        int l = (token < tokens) ? line[token] : line[tokens - 1];
+        return new IOException(name + ":" + l + ": " + message);
+    }
+
+    /*
+     * Tokens.
+     */
+
+    private void tokenize() throws IOException {
+        int l = 1;
+        int i = 0, n = source.length();
+        while(i < n) {
+            char c = source.charAt(i);
+            if(c == '\n') {
+                addToken(NEWLINE, "\n", 0, l++);
+                ++i;
+            } else if(c == '#') {
+                while(i < n && source.charAt(i) != '\n') ++i;
+            } else if(Character.isWhitespace(c)) {
+                ++i;
+            } else if(Character.isLetter(c) || c == '_') {
+                int start = i;
+                while(i < n && (Character.isLetterOrDigit(source.charAt(i)) || source.charAt(i) == '_')) ++i;
+                addToken(NAME, source.substring(start, i), 0, l);
+            } else if(Character.isDigit(c)) {
+                int start = i;
+                while(i < n && Character.isDigit(source.charAt(i))) ++i;
+                try {
+                    addToken(NUMBER, source.substring(start, i), Integer.parseInt(source.substring(start, i)), l);
+                } catch(NumberFormatException e) {
+                    throw new IOException(name + ":" + l + ": Number too big.");
+                }
+            } else if(c == '"') {
+                StringBuilder s = new StringBuilder();
+                ++i;
+                while(i < n && source.charAt(i) != '"' && source.charAt(i) != '\n') {
+                    char d = source.charAt(i++);
+                    if(d == '\\' && i < n) {
+                        d = source.charAt(i++);
+                        d = (d == 'n') ? '\n' : d;
+                    }
+                    s.append(d);
+                }
+                if(i >= n || source.charAt(i) != '"') {
+                    throw new IOException(name + ":" + l + ": Unclosed string.");
+                }
+                ++i;
+                addToken(STRING, s.toString(), 0, l);
+            } else {
+                String two = (i + 1 < n) ? source.substring(i, i + 2) : "";
+                if(two.equals("==") || two.equals("!=") || two.equals("<=") || two.equals(">=")) {
+                    addToken(SYMBOL, two, 0, l);
+                    i += 2;
+                } else if("+-*/%<>=(),:".indexOf(c) >= 0) {
+                    addToken(SYMBOL, String.valueOf(c), 0, l);
+                    ++i;
+                } else {
+                    throw new IOException(name + ":" + l + ": Unexpected " + c + ".");
+                }
+            }
+        }
+        addToken(NEWLINE, "\n", 0, l);
+    }
+
+    private void addToken(int t, String s, int v, int l) {
+        if(tokens == type.length) {
+            type = Arrays.copyOf(type, tokens * 2);
+            text = Arrays.copyOf(text, tokens * 2);
+            value = Arrays.copyOf(value, tokens * 2);
+            line = Arrays.copyOf(line, tokens * 2);
+        }
+        type[tokens] = t;
+        text[tokens] = s;
+        value[tokens] = v;
+        line[tokens] = l;
+        ++tokens;
+    }
+
+    private boolean is(String s) {
+        return pos < tokens && (type[pos] == NAME || type[pos] == SYMBOL) && text[pos].equals(s);
+    }
+
+    private boolean accept(String s) {
+        if(is(s)) {
+            ++pos;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String s) throws IOException {
+        if(!accept(s)) {
+            throw error(pos, "Expected " + s + ".");
+        }
+    }
+
+    private void endOfLine() throws IOException {
+        if(pos < tokens && type[pos] != NEWLINE) {
+            throw error(pos, "Unexpected " + text[pos] + ".");
+        }
+        ++pos;
+    }
+
+    private static boolean isKeyword(String s) {
+        switch(s) {
+        case "if": case "else": case "end": case "while": case "goto": case "wait":
+        case "yield": case "stop": case "and": case "or": case "not":
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Gives a register to every name assigned to anywhere in the script, so
+     * variables can be read before the line that sets them.
+     */
+    private void findVariables() throws IOException {
+        boolean start = true;
+        for(int i = 0; i < tokens - 1; ++i) {
+            if(start && type[i] == NAME && type[i + 1] == SYMBOL && text[i + 1].equals("=")
+                    && !isKeyword(text[i]) && !variables.containsKey(text[i])) {
+                if(variableNames.size() == Script.MAX_REGISTERS) {
+                    throw error(i, "Too many variables.");
+                }
+                variables.put(text[i], variableNames.size());
+                variableNames.add(text[i]);
+            }
+            start = type[i] == NEWLINE;
+        }
+    }
+
+    /*
+     * Code.
+     */
+
+    private int emit(int op, int a, int b, int c) {
+        if(size + 2 > code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        code[size] = op | (a << 8) | (b << 16) | (c << 24);
+        return size++;
+    }
+
+    private void emitConstant(int k) {
+        code[size++] = k;
+    }
+
+    private int temp() throws IOException {
+        if(nextTemp == Script.MAX_REGISTERS) {
+            throw error(pos, "Expression too complex.");
+        }
+        int r = nextTemp++;
+        registers = Math.max(registers, nextTemp);
+        return r;
+    }
+
+    /**
+     * Puts the value in register r into register dst, by having the
+     * instruction that computed it write dst instead if it can.
+     */
+    private void moveTo(int dst, int r) {
+        if(r == dst) return;
+        int op = (lastWrite >= 0) ? code[lastWrite] & 0xFF : -1;
+        boolean last = lastWrite == size - ((op == Script.LOADK || op == Script.CALL) ? 2 : 1);
+        if(r >= variableNames.size() && last && ((code[lastWrite] >>> 8) & 0xFF) == r) {
+            code[lastWrite] = (code[lastWrite] & ~0xFF00) | (dst << 8);
+            return;
+        }
+        lastWrite = emit(Script.MOVE, dst, r, 0);
+    }
+
+    /*
+     * Statements.
+     */
+
+    private void statement() throws IOException {
+        int start = pos;
+        if(type[pos] == NEWLINE) {
+            ++pos;
+            return;
+        }
+        if(type[pos] == NAME && pos + 2 < tokens && text[pos + 1].equals(":") && type[pos + 2] == NEWLINE) {
+            if(labels.containsKey(text[pos])) {
+                throw error(pos, "Label " + text[pos] + " is already defined.");
+            }
+            labels.put(text[pos], size);
+            lastWrite = -1;
+            pos += 2;
+        } else if(accept("goto")) {
+            if(type[pos] != NAME) throw error(pos, "Expected a label.");
+            emit(Script.JUMP, 0, 0, 0);
+            gotos.add(new int[] { size, pos++ });
+            emitConstant(0);
+        } else if(accept("if")) {
+            int c = expression();
+            emit(Script.JUMPZ, c, 0, 0);
+            blocks.add(new int[] { IF, start, size, 0 });
+            emitConstant(0);
+        } else if(accept("else")) {
+            int[] b = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+            if(b == null || b[0] != IF) throw error(start, "else without if.");
+            emit(Script.JUMP, 0, 0, 0);
+            b[0] = ELSE;
+            b[3] = size;
+            emitConstant(0);
+            code[b[2]] = size;
+            lastWrite = -1;
+        } else if(accept("while")) {
+            int top = size;
+            int c = expression();
+            emit(Script.JUMPZ, c, 0, 0);
+            blocks.add(new int[] { WHILE, start, size, top });
+            emitConstant(0);
+        } else if(accept("end")) {
+            if(blocks.isEmpty()) throw error(start, "end without if or while.");
+            int[] b = blocks.remove(blocks.size() - 1);
+            if(b[0] == WHILE) {
+                emit(Script.JUMP, 0, 0, 0);
+                emitConstant(b[3]);
+                code[b[2]] = size;
+            } else if(b[0] == ELSE) {
+                code[b[3]] = size;
+            } else {
+                code[b[2]] = size;
+            }
+            lastWrite = -1;
+        } else if(accept("wait")) {
+            emit(Script.WAIT, expression(), 0, 0);
+        } else if(accept("yield")) {
+            emit(Script.YIELD, 0, 0, 0);
+        } else if(accept("stop")) {
+            emit(Script.STOP, 0, 0, 0);
+        } else if(type[pos] == NAME && !isKeyword(text[pos]) && pos + 1 < tokens && text[pos + 1].equals("=")
+                && type[pos + 1] == SYMBOL) {
+            int v = variables.get(text[pos]);
+            pos += 2;
+            moveTo(v, expression());
+        } else if(type[pos] == NAME && pos + 1 < tokens && text[pos + 1].equals("(")) {
+            call();
+        } else {
+            throw error(pos, "Unexpected " + text[pos] + ".");
+        }
+        endOfLine();
+    }
+
+    /*
+     * Expressions. Each returns the register holding its value.
+     */
+
+    private int expression() throws IOException {
+        int l = and();
+        while(accept("or")) {
+            l = binary(Script.OR, l, and());
+        }
+        return l;
+    }
+
+    private int and() throws IOException {
+        int l = not();
+        while(accept("and")) {
+            l = binary(Script.AND, l, not());
+        }
+        return l;
+    }
+
+    private int not() throws IOException {
+        if(accept("not")) {
+            int v = not();
+            int d = temp();
+            lastWrite = emit(Script.NOT, d, v, 0);
+            return d;
+        }
+        return comparison();
+    }
+
+    private int comparison() throws IOException {
+        int l = sum();
+        while(true) {
+            if(accept("<")) l = binary(Script.LT, l, sum());
+            else if(accept("<=")) l = binary(Script.LE, l, sum());
+            else if(accept(">")) { int r = sum(); l = binary(Script.LT, r, l); }
+            else if(accept(">=")) { int r = sum(); l = binary(Script.LE, r, l); }
+            else if(accept("==")) l = binary(Script.EQ, l, sum());
+            else if(accept("!=")) l = binary(Script.NE, l, sum());
+            else return l;
+        }
+    }
+
+    private int sum() throws IOException {
+        int l = product();
+        while(true) {
+            if(accept("+")) l = binary(Script.ADD, l, product());
+            else if(accept("-")) l = binary(Script.SUB, l, product());
+            else return l;
+        }
+    }
+
+    private int product() throws IOException {
+        int l = unary();
+        while(true) {
+            if(accept("*")) l = binary(Script.MUL, l, unary());
+            else if(accept("/")) l = binary(Script.DIV, l, unary());
+            else if(accept("%")) l = binary(Script.MOD, l, unary());
+            else return l;
+        }
+    }
+
+    private int unary() throws IOException {
+        if(accept("-")) {
+            if(pos < tokens && type[pos] == NUMBER) {
+                return constant(-value[pos++]);
+            }
+            int v = unary();
+            int d = temp();
+            lastWrite = emit(Script.NEG, d, v, 0);
+            return d;
+        }
+        return primary();
+    }
+
+    private int primary() throws IOException {
+        if(pos >= tokens) throw error(pos, "Expected a value.");
+        switch(type[pos]) {
+        case NUMBER:
+            return constant(value[pos++]);
+        case STRING:
+            Integer s = strings.get(text[pos]);
+            if(s == null) {
+                s = stringList.size();
+                strings.put(text[pos], s);
+                stringList.add(text[pos]);
+            }
+            ++pos;
+            return constant(s);
+        case NAME:
+            if(pos + 1 < tokens && text[pos + 1].equals("(")) {
+                return call();
+            }
+            Integer v = variables.get(text[pos]);
+            if(v == null || isKeyword(text[pos])) {
+                throw error(pos, "Unknown variable " + text[pos] + ".");
+            }
+            ++pos;
+            return v;
+        case NEWLINE:
+            throw error(pos, "Expected a value.");
+        default:
+            if(accept("(")) {
+                int r = expression();
+                expect(")");
+                return r;
+            }
+            throw error(pos, "Unexpected " + text[pos] + ".");
+        }
+    }
+
+    private int constant(int k) throws IOException {
+        int d = temp();
+        lastWrite = emit(Script.LOADK, d, 0, 0);
+        emitConstant(k);
+        return d;
+    }
+
+    private int binary(int op, int l, int r) throws IOException {
+        int d = temp();
+        lastWrite = emit(op, d, l, r);
+        return d;
+    }
+
+    /**
+     * Compiles a host function call. Arguments go into the registers right
+     * after the result's, in order.
+     */
+    private int call() throws IOException {
+        int function = host.lookup(text[pos]);
+        if(function < 0) {
+            throw error(pos, "Unknown function " + text[pos] + ".");
+        }
+        pos += 2;
+        int base = temp();
+        int count = 0;
+        if(!accept(")")) {
+            do {
+                if(count == 0xFF) throw error(pos, "Too many arguments.");
+                nextTemp = base + 1 + count;
+                int arg = temp();
+                moveTo(arg, expression());
+                ++count;
+            } while(accept(","));
+            expect(")");
+        }
+        nextTemp = base + 1;
+        lastWrite = emit(Script.CALL, base, (count == 0) ? base : base + 1, count);
+        emitConstant(function);
+        return base;
+    }
+}
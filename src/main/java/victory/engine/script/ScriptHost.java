@@ -0,0 +1,29 @@
+package victory.engine.script;
+
+/**
+ * What scripts call out to: the functions of the game they can use. Function
+ * names are looked up once, when a script is compiled; running scripts only
+ * pass the function's number.
+ *
+ * @author Victoria Lacroix
+ */
+public interface ScriptHost {
+    /**
+     * @param name function name, as written in a script
+     * @return the function's number, or -1 if there is no such function.
+     */
+    public int lookup(String name);
+
+    /**
+     * Runs a function for a script. A function that has to wait on the
+     * player, such as a line of dialog, calls block() on the instance and
+     * resume() once it is done; the script stops until then.
+     * @param script the script calling
+     * @param function number from lookup()
+     * @param registers the script's registers
+     * @param args first register holding an argument
+     * @param count how many arguments there are
+     * @return the function's result, or 0.
+     */
+    public int call(ScriptInstance script, int function, int[] registers, int args, int count);
+}
@@ -0,0 +1,230 @@
+package victory.engine.script;
+
+import java.util.Arrays;
+
+/**
+ * One running copy of a Script, with its own registers and place in the
+ * code. Instances take turns: each run() goes until the script waits,
+ * yields, blocks on a host function or stops, or until it has used up its
+ * instructions for the tick. Nothing is allocated while running.
+ *
+ * @author Victoria Lacroix
+ */
+public class ScriptInstance {
+    /**
+     * Most instructions one run() may execute before the script is made to
+     * yield, so a runaway loop costs a bounded slice of the tick.
+     */
+    public static final int     STEP_LIMIT      = 1000;
+
+    private final Script        script;
+    private final ScriptHost    host;
+    private final Object        owner;
+    private final int[]         regs;
+    private int                 pc              = 0;
+
+    /**
+     * Seconds left to sleep.
+     */
+    private double              sleep           = 0;
+    private boolean             blocked         = false;
+    private boolean             done            = false;
+    /**
+     * Register that gets the value passed to resume().
+     */
+    private int                 result          = 0;
+
+    /**
+     * @param s script to run
+     * @param h functions it calls
+     * @param o what the script belongs to, for the host's use (an entity, a
+     *          scene). May be null.
+     */
+    public ScriptInstance(Script s, ScriptHost h, Object o) {
+        script = s;
+        host = h;
+        owner = o;
+        regs = new int[Math.max(1, s.registers)];
+    }
+
+    /**
+     * Runs the script for a tick.
+     * @param delta seconds passed
+     * @return false once the script has stopped.
+     */
+    public boolean run(double delta) {
+        if(done) return false;
+        if(blocked) return true;
+        if(sleep > 0) {
+            sleep -= delta;
+            if(sleep > 0) return true;
+        }
+        final int[] code = script.code;
+        final int[] r = regs;
+        int p = pc;
+        for(int steps = 0; steps < STEP_LIMIT; ++steps) {
+            int w = code[p++];
+            int a = (w >>> 8) & 0xFF, b = (w >>> 16) & 0xFF, c = w >>> 24;
+            switch(w & 0xFF) {
+            case Script.LOADK:  r[a] = code[p++]; break;
+            case Script.MOVE:   r[a] = r[b]; break;
+            case Script.ADD:    r[a] = r[b] + r[c]; break;
+            case Script.SUB:    r[a] = r[b] - r[c]; break;
+            case Script.MUL:    r[a] = r[b] * r[c]; break;
+            case Script.DIV:    r[a] = (r[c] == 0) ? 0 : r[b] / r[c]; break;
+            case Script.MOD:    r[a] = (r[c] == 0) ? 0 : r[b] % r[c]; break;
+            case Script.LT:     r[a] = (r[b] < r[c]) ? 1 : 0; break;
+            case Script.LE:     r[a] = (r[b] <= r[c]) ? 1 : 0; break;
+            case Script.EQ:     r[a] = (r[b] == r[c]) ? 1 : 0; break;
+            case Script.NE:     r[a] = (r[b] != r[c]) ? 1 : 0; break;
+            case Script.AND:    r[a] = (r[b] != 0 && r[c] != 0) ? 1 : 0; break;
+            case Script.OR:     r[a] = (r[b] != 0 || r[c] != 0) ? 1 : 0; break;
+            case Script.NEG:    r[a] = -r[b]; break;
+            case Script.NOT:    r[a] = (r[b] == 0) ? 1 : 0; break;
+            case Script.JUMP:   p = code[p]; break;
+            case Script.JUMPZ:  p = (r[a] == 0) ? code[p] : p + 1; break;
+            case Script.CALL:
+                int function = code[p++];
+                r[a] = host.call(this, function, r, b, c);
+                if(blocked) {
+                    result = a;
+                    pc = p;
+                    return true;
+                }
+                break;
+            case Script.WAIT:
+                sleep += r[a] / 1000.0;
+                pc = p;
+                return true;
+            case Script.YIELD:
+                pc = p;
+                return true;
+            default:
+                done = true;
+                pc = p - 1;
+                return false;
+            }
+        }
+        pc = p;
+        return true;
+    }
+
+    /**
+     * Stops the script until resume() is called. For host functions that
+     * wait on something, such as the player reading a line of dialog.
+     */
+    public void block() {
+        blocked = true;
+    }
+
+    /**
+     * Lets a blocked script carry on from the next tick.
+     * @param value what the host function that blocked returns
+     */
+    public void resume(int value) {
+        if(!blocked) return;
+        blocked = false;
+        regs[result] = value;
+    }
+
+    /**
+     * Starts the script over from the top, with every variable at 0.
+     */
+    public void restart() {
+        Arrays.fill(regs, 0);
+        pc = 0;
+        sleep = 0;
+        blocked = false;
+        done = false;
+    }
+
+    /**
+     * Ends the script.
+     */
+    public void stop() {
+        done = true;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    public boolean isBlocked() {
+        return blocked;
+    }
+
+    public Script getScript() {
+        return script;
+    }
+
+    public Object getOwner() {
+        return owner;
+    }
+
+    /**
+     * @return where in the code the script carries on from, for saving.
+     */
+    public int getPosition() {
+        return pc;
+    }
+
+    /**
+     * @return seconds left to sleep, for saving.
+     */
+    public double getSleep() {
+        return sleep;
+    }
+
+    /**
+     * @return a copy of every register, for saving.
+     */
+    public int[] getRegisters() {
+        return regs.clone();
+    }
+
+    /**
+     * Puts the script back where a save left it. A script that was waiting
+     * on a host function carries on as if it had returned the value already
+     * in its register.
+     * @param position from getPosition()
+     * @param s from getSleep()
+     * @param registers from getRegisters()
+     */
+    public void restore(int position, double s, int[] registers) {
+        pc = (position >= 0 && position < script.code.length) ? position : 0;
+        sleep = s;
+        java.util.Arrays.fill(regs, 0);
+        System.arraycopy(registers, 0, regs, 0, Math.min(regs.length, registers.length));
+        blocked = false;
+        done = false;
+    }
+
+    /**
+     * @return the string constant with a number, for host functions that
+     *         take strings.
+     */
+    public String getString(int i) {
+        return script.getString(i);
+    }
+
+    /**
+     * @param variable name as written in the script
+     * @return the variable's value, or 0 if the script has none by that name.
+     */
+    public int get(String variable) {
+        int i = script.getRegister(variable);
+        return (i < 0) ? 0 : regs[i];
+    }
+
+    /**
+     * Sets a variable, so the game can pass values in.
+     * @param variable name as written in the script
+     * @param v
+     */
+    public void set(String variable, int v) {
+        int i = script.getRegister(variable);
+        if(i >= 0) {
+            regs[i] = v;
+        }
+    }
+}
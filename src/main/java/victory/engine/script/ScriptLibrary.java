@@ -0,0 +1,100 @@
+package victory.engine.script;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Every script of a game, compiled once when the library is loaded and
+ * looked up by name afterwards.
+ *
+ * @author Victoria Lacroix
+ */
+public class ScriptLibrary {
+    /**
+     * Extension of script files.
+     */
+    public static final String  EXTENSION       = ".vs";
+
+    private final ScriptHost    host;
+    private final HashMap<String, Script> scripts = new HashMap<String, Script>();
+
+    /**
+     * Creates an empty library.
+     * @param h functions its scripts may call
+     */
+    public ScriptLibrary(ScriptHost h) {
+        host = h;
+    }
+
+    /**
+     * Compiles every script file in a folder, spread over every core, and
+     * adds them to the library by file name.
+     * @param dir
+     * @return how many scripts were added
+     * @throws IOException if a script cannot be read or does not compile.
+     *         Nothing is added then.
+     */
+    public int loadAll(String dir) throws IOException {
+        final File[] files = new File(dir).listFiles((d, n) -> n.endsWith(EXTENSION));
+        if(files == null) {
+            throw new IOException("No script folder " + dir);
+        }
+        final Script[] compiled = new Script[files.length];
+        final IOException[] errors = new IOException[files.length];
+        IntStream.range(0, files.length).parallel().forEach(i -> {
+            try {
+                compiled[i] = Script.load(files[i].getPath(), host);
+            } catch(IOException e) {
+                errors[i] = e;
+            }
+        });
+        for(int i = 0; i < errors.length; ++i) {
+            if(errors[i] != null) throw errors[i];
+        }
+        for(int i = 0; i < compiled.length; ++i) {
+            scripts.put(compiled[i].getName(), compiled[i]);
+        }
+        return compiled.length;
+    }
+
+    /**
+     * Compiles a script and adds it to the library.
+     * @param name
+     * @param source
+     * @throws IOException if it does not compile.
+     */
+    public Script add(String name, String source) throws IOException {
+        Script s = Script.compile(name, source, host);
+        scripts.put(name, s);
+        return s;
+    }
+
+    /**
+     * @param name
+     * @return the script with a name, or null.
+     */
+    public Script get(String name) {
+        return scripts.get(name);
+    }
+
+    /**
+     * Starts a new instance of a script.
+     * @param name
+     * @param owner what the instance belongs to, for the host's use
+     * @return the instance, or null if there is no such script.
+     */
+    public ScriptInstance start(String name, Object owner) {
+        Script s = scripts.get(name);
+        return (s == null) ? null : new ScriptInstance(s, host, owner);
+    }
+
+    public ScriptHost getHost() {
+        return host;
+    }
+
+    public int size() {
+        return scripts.size();
+    }
+}
@@ -0,0 +1,74 @@
+package victory.engine.script;
+
+import java.util.Arrays;
+
+/**
+ * Runs many script instances, each for a turn per tick. Instances that stop
+ * are dropped.
+ *
+ * @author Victoria Lacroix
+ */
+public class ScriptRunner {
+    private ScriptInstance[]    running         = new ScriptInstance[16];
+    private int                 count           = 0;
+
+    /**
+     * Starts running an instance from the next update().
+     * @param s
+     */
+    public void add(ScriptInstance s) {
+        if(count == running.length) {
+            running = Arrays.copyOf(running, count * 2);
+        }
+        running[count++] = s;
+    }
+
+    /**
+     * Stops running an instance, without stopping the script itself.
+     * @param s
+     */
+    public void remove(ScriptInstance s) {
+        for(int i = 0; i < count; ++i) {
+            if(running[i] == s) {
+                running[i] = running[--count];
+                running[count] = null;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gives every instance its turn.
+     * @param delta seconds passed
+     */
+    public void update(double delta) {
+        int i = 0;
+        while(i < count) {
+            if(running[i].run(delta)) {
+                ++i;
+            } else {
+                running[i] = running[--count];
+                running[count] = null;
+            }
+        }
+    }
+
+    /**
+     * @return how many instances are running.
+     */
+    public int size() {
+        return count;
+    }
+
+    public ScriptInstance get(int i) {
+        return running[i];
+    }
+
+    /**
+     * Drops every instance.
+     */
+    public void clear() {
+        Arrays.fill(running, 0, count, null);
+        count = 0;
+    }
+}
@@ -11,7 +11,10 @@ import java.util.Scanner;
 public class CollisionMap {
     public final int WIDTH, HEIGHT;
     public final int TILE_WIDTH, TILE_HEIGHT;
-    boolean[] permissions;
+    /**
+     * One bit per tile, row by row, set if the tile can be walked on.
+     */
+    private long[] open;
 
     /**
      * Blank constructor, allocates size.
@@ -22,7 +25,7 @@ public class CollisionMap {
         WIDTH = w; HEIGHT = h;
         TILE_WIDTH = 16;
         TILE_HEIGHT = 16;
-        permissions = new boolean[WIDTH * HEIGHT];
+        open = new long[(WIDTH * HEIGHT + 63) >>> 6];
     }
 
     /**
@@ -34,7 +37,7 @@ public class CollisionMap {
         HEIGHT = m.getHeight();
         TILE_WIDTH = m.TILE_WIDTH;
         TILE_HEIGHT = m.TILE_HEIGHT;
-        permissions = new boolean[WIDTH * HEIGHT];
+        open = new long[(WIDTH * HEIGHT + 63) >>> 6];
         readPermissions(url);
     }
 
@@ -45,10 +48,37 @@ public class CollisionMap {
      * @return
      */
     public boolean getAt(int x, int y) {
-        return permissions[x + (y * WIDTH)];
+        int i = x + (y * WIDTH);
+        return (open[i >>> 6] & (1L << i)) != 0;
     }
     public void setAt(int x, int y, boolean permission){
-        permissions[x + (y * WIDTH)] = permission;
+        int i = x + (y * WIDTH);
+        if(permission) {
+            open[i >>> 6] |= 1L << i;
+        } else {
+            open[i >>> 6] &= ~(1L << i);
+        }
+    }
+
+    /**
+     * Returns whether a tile blocks movement. Tiles off the map block.
+     * @param x tile coord
+     * @param y tile coord
+     * @return
+     */
+    public boolean isBlocked(int x, int y) {
+        if(x < 0 || y < 0 || x >= WIDTH || y >= HEIGHT) {
+            return true;
+        }
+        int i = x + (y * WIDTH);
+        return (open[i >>> 6] & (1L << i)) == 0;
+    }
+
+    /**
+     * @return the open bits, one per tile, row by row. Not a copy.
+     */
+    long[] bits() {
+        return open;
     }
 
     /**
@@ -58,15 +88,10 @@ public class CollisionMap {
      * @return
      */
     public boolean getAt(double x, double y) {
-        x -= x % TILE_WIDTH;
-        y -= y % TILE_HEIGHT;
-        x /= TILE_WIDTH;
-        y /= TILE_HEIGHT;
-        if(x >= 0 && y >= 0 && x < WIDTH && y < HEIGHT){
-            return !permissions[(int)x + (int)(y * WIDTH)];
+        if(x < 0 || y < 0) {
+            return true;
         }
-        return true;
-        
+        return isBlocked((int)(x / TILE_WIDTH), (int)(y / TILE_HEIGHT));
     }
     
     /**
@@ -84,12 +109,12 @@ public class CollisionMap {
         if(s != null){
             for(int j = 0; j < HEIGHT; j++){
                 for(int i = 0; i < WIDTH; i++){
-                    permissions[i + (j * WIDTH)] = (s.nextInt() == 0) ? false: true;
+                    setAt(i, j, s.nextInt() != 0);
                 }
             }
         }else{
-            for(int i = 0; i < WIDTH*HEIGHT; ++i){
-                permissions[i] = false;
+            for(int i = 0; i < open.length; ++i){
+                open[i] = 0;
             }
         }
     }
@@ -0,0 +1,341 @@
+package victory.engine.world;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Append-only log of the tile edits made to a Map. Every setTile() adds a
+ * small record (chunk, tile in chunk, tile, permission) instead of the whole
+ * map being written out. Replaying the journal over the base map on load
+ * brings back every edit.
+ *
+ * Once the journal is long enough, it is compacted: the map is written over
+ * its base CSV files and the journal starts over from the records made
+ * since. The map is copied on the game thread; the files are written on a
+ * background thread, so a compaction never holds up a frame.
+ *
+ * @author Victoria Lacroix
+ */
+public class EditJournal implements MapListener {
+    /**
+     * Width and height of a journal chunk, in tiles.
+     */
+    public static final int     CHUNK_SIZE      = 16;
+    private static final int    RECORD_SIZE     = 8;
+    /**
+     * Compact once the journal holds this many records.
+     */
+    private static final int    COMPACT_AFTER   = 1 << 16;
+
+    /**
+     * Background thread that writes compacted maps, one at a time.
+     */
+    private static final ExecutorService compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Journal compactor");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final Map           map;
+    private final File          file;
+    private final int           chunksX;
+    private RandomAccessFile    raf;
+    private FileChannel         channel;
+    private ByteBuffer          buffer;
+
+    /**
+     * Records in the journal, in total and per chunk.
+     */
+    private int                 records         = 0;
+    private int[]               chunkRecords;
+    private boolean             replaying       = false;
+    /**
+     * The compaction being written, or null.
+     */
+    private Future<?>           compacting;
+
+    /**
+     * Opens (or creates) the journal for a map and starts recording its edits.
+     * Call replay() before making any edits to bring back the logged ones.
+     * @param m map to record
+     * @param f journal file
+     * @throws IOException
+     */
+    public EditJournal(Map m, File f) throws IOException {
+        map = m;
+        file = f;
+        chunksX = (m.getWidth() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        chunkRecords = new int[chunksX * ((m.getHeight() + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+        raf = new RandomAccessFile(f, "rw");
+        channel = raf.getChannel();
+        // A crash can leave half a record at the end. Cut it off, so new
+        // records start on a record boundary.
+        channel.truncate((channel.size() / RECORD_SIZE) * RECORD_SIZE);
+        channel.position(channel.size());
+        buffer = ByteBuffer.allocateDirect(RECORD_SIZE * 1024);
+        m.addListener(this);
+    }
+
+    /**
+     * Applies every logged edit to the map, oldest first.
+     * @return how many records were replayed
+     * @throws IOException if the journal cannot be read.
+     */
+    public synchronized int replay() throws IOException {
+        sync();
+        int n = (int)(channel.size() / RECORD_SIZE);
+        ByteBuffer b = ByteBuffer.allocate(n * RECORD_SIZE);
+        channel.position(0);
+        while(b.hasRemaining() && channel.read(b) >= 0);
+        channel.position(channel.size());
+        b.flip();
+        replaying = true;
+        try {
+            for(int i = 0; i < n; ++i) {
+                int chunk = b.getInt();
+                int local = b.get() & 0xFF;
+                short tile = b.getShort();
+                boolean perm = b.get() != 0;
+                int x = (chunk % chunksX) * CHUNK_SIZE + (local % CHUNK_SIZE);
+                int y = (chunk / chunksX) * CHUNK_SIZE + (local / CHUNK_SIZE);
+                map.setTile(x, y, tile, perm);
+                if(chunk >= 0 && chunk < chunkRecords.length) {
+                    chunkRecords[chunk]++;
+                }
+            }
+        } finally {
+            replaying = false;
+        }
+        records = n;
+        return n;
+    }
+
+    @Override
+    public void tileChanged(int x, int y) {
+        if(replaying) return;
+        int chunk = (x / CHUNK_SIZE) + (y / CHUNK_SIZE) * chunksX;
+        int local = (x % CHUNK_SIZE) + (y % CHUNK_SIZE) * CHUNK_SIZE;
+        if(!buffer.hasRemaining()) {
+            try {
+                sync();
+            } catch(IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+        buffer.putInt(chunk).put((byte)local).putShort(map.getTile(x, y))
+                .put((byte)(map.cmap.getAt(x, y) ? 1 : 0));
+        chunkRecords[chunk]++;
+        records++;
+    }
+
+    @Override
+    public void regionChanged(int x, int y, int w, int h) {
+        // Generated or reverted areas are not edits.
+    }
+
+    /**
+     * Writes buffered records to the journal file, and compacts the journal
+     * if it has grown long enough.
+     * @throws IOException
+     */
+    public void sync() throws IOException {
+        flush();
+        if(records >= COMPACT_AFTER && map.getSource() != null && (compacting == null || compacting.isDone())) {
+            compactAsync();
+        }
+    }
+
+    /**
+     * Writes buffered records to the journal file. The compactor swaps the
+     * file out from under the game thread, so the two take turns.
+     */
+    private synchronized void flush() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @param cx chunk coord
+     * @param cy chunk coord
+     * @return how many journal records touch the chunk.
+     */
+    public int getRecords(int cx, int cy) {
+        return chunkRecords[cx + (cy * chunksX)];
+    }
+
+    /**
+     * Compacts the journal and waits for it to finish.
+     * @throws IOException if the map was not loaded from a file, or could not
+     *         be written.
+     */
+    public void compact() throws IOException {
+        try {
+            compactAsync().get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compacting " + file, e);
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+            throw new IOException("Could not compact " + file, e.getCause());
+        }
+    }
+
+    /**
+     * Copies the map, then writes it over its base CSV and collision files on
+     * a background thread and drops the records it covers from the journal.
+     * Each file is written next to its destination and moved into place, so
+     * an interrupted compaction leaves the old base and the journal; records
+     * replayed over a base that already has them change nothing.
+     * @return the compaction, done once the files are written.
+     * @throws IOException if the map was not loaded from a file.
+     */
+    public Future<?> compactAsync() throws IOException {
+        final String source = map.getSource();
+        if(source == null) {
+            throw new IOException("Generated maps have no base file to compact into.");
+        }
+        flush();
+        final long covered;
+        synchronized(this) {
+            channel.force(false);
+            covered = channel.size();
+        }
+
+        final int w = map.getWidth(), h = map.getHeight();
+        final int[] tiles = new int[w * h];
+        final boolean[] perms = new boolean[w * h];
+        for(int y = 0; y < h; ++y) {
+            for(int x = 0; x < w; ++x) {
+                // Tiles go up to TileLayer.MAX_TILE; getTile() is signed.
+                tiles[x + (y * w)] = map.getTile(x, y) & 0xFFFF;
+                perms[x + (y * w)] = map.cmap.getAt(x, y);
+            }
+        }
+        records = 0;
+        Arrays.fill(chunkRecords, 0);
+
+        compacting = compactor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                writeBase(source, w, h, tiles, perms);
+                dropBefore(covered);
+                return null;
+            }
+        });
+        return compacting;
+    }
+
+    private static void writeBase(String source, int w, int h, int[] tiles, boolean[] perms) throws IOException {
+        StringBuilder t = new StringBuilder(w * h * 4);
+        StringBuilder p = new StringBuilder(w * h * 2);
+        for(int y = 0; y < h; ++y) {
+            for(int x = 0; x < w; ++x) {
+                if(x > 0) {
+                    t.append(',');
+                    p.append(',');
+                }
+                t.append(tiles[x + (y * w)]);
+                p.append(perms[x + (y * w)] ? 1 : 0);
+            }
+            t.append('\n');
+            p.append('\n');
+        }
+        replace(new File(source), t);
+        replace(new File(source + ".col"), p);
+    }
+
+    /**
+     * Swaps the journal for one holding only the records past a point, those
+     * made after the map was copied.
+     */
+    private synchronized void dropBefore(long covered) throws IOException {
+        long size = channel.size();
+        ByteBuffer rest = ByteBuffer.allocate((int)(size - covered));
+        channel.position(covered);
+        while(rest.hasRemaining() && channel.read(rest) >= 0);
+        rest.flip();
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            while(rest.hasRemaining()) {
+                out.getChannel().write(rest);
+            }
+            out.getChannel().force(true);
+        } finally {
+            out.close();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        raf.close();
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        channel.position(channel.size());
+    }
+
+    private static void replace(File f, CharSequence text) throws IOException {
+        File temp = new File(f.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        try {
+            w.append(text);
+            w.flush();
+            // On disk before it takes the old file's place.
+            out.getChannel().force(true);
+        } finally {
+            w.close();
+        }
+        Files.move(temp.toPath(), f.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Writes out what is buffered and closes the journal.
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        flush();
+        if(compacting != null) {
+            try {
+                compacting.get();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch(ExecutionException e) {
+                e.getCause().printStackTrace();
+            }
+        }
+        map.removeListener(this);
+        synchronized(this) {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return the journal file.
+     */
+    public File getFile() {
+        return file;
+    }
+}
@@ -26,7 +26,7 @@ public abstract class Entity {
     protected double            xposlast, yposlast;
 
     /**
-     * Axis Velocity
+     * Axis Velocity, in pixels per second
      */
     protected double            xvel, yvel;
 
@@ -36,7 +36,7 @@ public abstract class Entity {
     protected double            xvelmax, yvelmax;
 
     /**
-     * Axis acceleration
+     * Axis acceleration, in pixels per second squared
      */
     protected double            xacc, yacc;
 
@@ -46,9 +46,9 @@ public abstract class Entity {
     protected int               width, height;
 
     /**
-     * Gravity for this entity.
+     * Gravity for this entity, in pixels per second squared.
      */
-    protected double            gravity         = 9.8 / 60;
+    protected double            gravity         = 588;
 
     /**
      * Current graphic setting
@@ -65,7 +65,37 @@ public abstract class Entity {
     protected int               direction       = 1;
     private double              animCounter     = 0;
     private int                 step            = 0;
-    private static final int    COUNTER_RESET   = 25;
+    /**
+     * Seconds each step of the walk animation shows for.
+     */
+    private static final double COUNTER_RESET   = 0.4;
+
+    /**
+     * Whether the last nextFrame() moved or re-animated this entity.
+     */
+    boolean                     changed         = true;
+
+    /**
+     * The MapEngine this entity was added to.
+     */
+    protected MapEngine         world;
+
+    /**
+     * Identifies this entity for as long as it lives, across saves and the
+     * network. Given by the MapEngine when it is first added; 0 means none.
+     */
+    int                         id              = 0;
+
+    /**
+     * Map tile (x + y * width) under this entity's center when triggers were
+     * last checked, or -1.
+     */
+    int                         triggerTile     = -1;
+
+    /**
+     * How many values saveState() writes.
+     */
+    static final int            STATE_SIZE      = 11;
 
     /**
      * New abstract entity with SpriteSheet 'sheet'
@@ -75,8 +105,8 @@ public abstract class Entity {
     public Entity(int w, int h, SpriteSheet sheet) {
         xvel = 0;
         yvel = 0;
-        xvelmax = 12;
-        yvelmax = 12;
+        xvelmax = 720;
+        yvelmax = 720;
         width = w;
         height = h;
         sprite = new Sprite(w, h, sheet);
@@ -89,86 +119,21 @@ public abstract class Entity {
     }
 
     /**
-     * Collision detection/reaction method for tilemaps/collisionmaps.
-     *
-     * @param cmap
-     *            CollisionMap to correspond to.
+     * Calculate/Run anything that needs to be finalized, without colliding
+     * with tiles.
      */
-    public void checkCollision(CollisionMap cmap) {
-        // First off, we look at grouped points representing the full collided side. This should take care of high-velocity collisions.
-
-        // Vertical collision (top/bottom)
-        if(cmap.getAt(xpos + xvel + 4, ypos + yvel + height - 1)
-                && cmap.getAt(xpos + xvel + width - 1 - 4, ypos + yvel + height
-                        - 1)){
-            // bottom
-            ypos += yvel;
-            ypos -= ypos % height;
-            yvel = (yvel > 0) ? 0 : yvel;
-        }else if((cmap.getAt((xpos) + xvel + 4, (ypos) + yvel) && cmap.getAt(
-                (xpos) + xvel + (width - 1) - 4, (ypos) + yvel))){
-            // top
-            if(yvel < 0){
-                ypos += yvel; // change position
-                ypos += height - (ypos % height);
-                yvel = (yvel < 0) ? 0 : yvel; // fix velocity if needed
-            }
-
-        }
-
-        // horizontal collision (left/right)
-        if((cmap.getAt((xpos) + xvel, (ypos) + yvel + 4) && cmap.getAt((xpos)
-                + xvel, (ypos) + yvel + (height - 1) - 4))){
-            // left
-            xpos += xvel;
-            xpos += width - (xpos % width);
-            xvel = (xvel < 0) ? 0 : xvel;
-        }else if((cmap.getAt((xpos) + xvel + (width - 1), (ypos) + yvel + 4) && cmap
-                .getAt((xpos) + xvel + (width - 1), (ypos) + yvel
-                        + (height - 1) - 4))){
-            // right
-            xpos += xvel;
-            xpos -= xpos % width;
-            xvel = (xvel > 0) ? 0 : xvel;
-        }
-
-        // Here, we check weak collision (single points instead of grouped points). This take care of low-velocity
-        // collisions.
-
-        // Vertical collision (bottom, then top)
-        if(cmap.getAt(xpos + xvel + 4, ypos + yvel + height - 1) ||
-                cmap.getAt(xpos + xvel + width - 1 - 4, ypos + yvel + height - 1)) {
-            ypos += yvel;
-            ypos -= ypos % height;
-            yvel = (yvel > 0) ? 0 : yvel;
-        } else if((cmap.getAt((xpos) + xvel + 4, (ypos) + yvel) ||
-                    cmap.getAt( (xpos) + xvel + (width - 1) - 4, (ypos) + yvel))) {
-            ypos += yvel;
-            ypos += height - (ypos % height);
-            yvel = (yvel < 0) ? 0 : yvel; // fix velocity if needed
-        }
-
-        // horizontal collision (left, then right)
-        if((cmap.getAt((xpos) + xvel, (ypos) + yvel + 4) ||
-                    cmap.getAt((xpos) + xvel, (ypos) + yvel + (height - 1) - 4))) {
-            xpos += xvel;
-            xpos += width - (xpos % width);
-            xvel = (xvel < 0) ? 0 : xvel;
-        } else if((cmap.getAt((xpos) + xvel + (width - 1), (ypos) + yvel + 4) ||
-                    cmap .getAt((xpos) + xvel + (width - 1), (ypos) + yvel + (height - 1) - 4))) {
-            xpos += xvel;
-            xpos -= xpos % width;
-            xvel = (xvel > 0) ? 0 : xvel;
-        }
+    public final void nextFrame(double delta) {
+        nextFrame(delta, null);
     }
 
     /**
      * Calculate/Run anything that needs to be finalized.
      *
-     * A note on the delta, all velocity values are roughly equal to what the entity will traverse in 1/60th of a
-     * second, in pixels.
+     * @param delta seconds passed
+     * @param cmap tiles to collide with, or null
      */
-    public final void nextFrame(double delta) {
+    public final void nextFrame(double delta, CollisionMap cmap) {
+        int lastX = sprite.getIndexX(), lastY = sprite.getIndexY();
         animCounter += delta;
         if(animCounter >= COUNTER_RESET) {
             step = (step == 0) ? 1 : 0;
@@ -183,8 +148,133 @@ public abstract class Entity {
         yvel = yvel > yvelmax ? yvelmax : yvel;
         xvel = -xvel > xvelmax ? -xvelmax : xvel;
         yvel = -yvel > yvelmax ? -yvelmax : yvel;
-        xpos += xvel * delta;
-        ypos += yvel * delta;
+        if(cmap == null) {
+            xpos += xvel * delta;
+            ypos += yvel * delta;
+        } else {
+            sweepX(cmap, xvel * delta);
+            sweepY(cmap, yvel * delta);
+        }
+        changed = xpos != xposlast || ypos != yposlast
+                || sprite.getIndexX() != lastX || sprite.getIndexY() != lastY;
+    }
+
+    /**
+     * Moves along x by dx, stopping flush against the first blocked tile the
+     * leading edge would enter. Only the columns the edge crosses are looked
+     * at, so nothing is skipped however far the entity moves.
+     */
+    private void sweepX(CollisionMap cmap, double dx) {
+        if(dx == 0) return;
+        int tw = cmap.TILE_WIDTH, th = cmap.TILE_HEIGHT;
+        int top = (int)Math.floor(ypos / th);
+        int bottom = (int)Math.ceil((ypos + height) / th) - 1;
+        if(dx > 0) {
+            double edge = xpos + width;
+            int last = (int)Math.ceil((edge + dx) / tw) - 1;
+            for(int tx = (int)Math.ceil(edge / tw); tx <= last; ++tx) {
+                if(blockedColumn(cmap, tx, top, bottom)) {
+                    xpos = tx * tw - width;
+                    xvel = 0;
+                    return;
+                }
+            }
+        } else {
+            int last = (int)Math.floor((xpos + dx) / tw);
+            for(int tx = (int)Math.floor(xpos / tw) - 1; tx >= last; --tx) {
+                if(blockedColumn(cmap, tx, top, bottom)) {
+                    xpos = (tx + 1) * tw;
+                    xvel = 0;
+                    return;
+                }
+            }
+        }
+        xpos += dx;
+    }
+
+    /**
+     * Moves along y by dy, the same way as sweepX().
+     */
+    private void sweepY(CollisionMap cmap, double dy) {
+        if(dy == 0) return;
+        int tw = cmap.TILE_WIDTH, th = cmap.TILE_HEIGHT;
+        int left = (int)Math.floor(xpos / tw);
+        int right = (int)Math.ceil((xpos + width) / tw) - 1;
+        if(dy > 0) {
+            double edge = ypos + height;
+            int last = (int)Math.ceil((edge + dy) / th) - 1;
+            for(int ty = (int)Math.ceil(edge / th); ty <= last; ++ty) {
+                if(blockedRow(cmap, ty, left, right)) {
+                    ypos = ty * th - height;
+                    yvel = 0;
+                    return;
+                }
+            }
+        } else {
+            int last = (int)Math.floor((ypos + dy) / th);
+            for(int ty = (int)Math.floor(ypos / th) - 1; ty >= last; --ty) {
+                if(blockedRow(cmap, ty, left, right)) {
+                    ypos = (ty + 1) * th;
+                    yvel = 0;
+                    return;
+                }
+            }
+        }
+        ypos += dy;
+    }
+
+    private static boolean blockedColumn(CollisionMap cmap, int tx, int top, int bottom) {
+        for(int ty = top; ty <= bottom; ++ty) {
+            if(cmap.isBlocked(tx, ty)) return true;
+        }
+        return false;
+    }
+
+    private static boolean blockedRow(CollisionMap cmap, int ty, int left, int right) {
+        for(int tx = left; tx <= right; ++tx) {
+            if(cmap.isBlocked(tx, ty)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes this entity's motion and animation state into an array.
+     * @param s array to write to
+     * @param off where to start writing; STATE_SIZE values are written.
+     */
+    void saveState(double[] s, int off) {
+        s[off] = xpos;
+        s[off + 1] = ypos;
+        s[off + 2] = xposlast;
+        s[off + 3] = yposlast;
+        s[off + 4] = xvel;
+        s[off + 5] = yvel;
+        s[off + 6] = xacc;
+        s[off + 7] = yacc;
+        s[off + 8] = direction;
+        s[off + 9] = step;
+        s[off + 10] = animCounter;
+    }
+
+    /**
+     * Reads back what saveState() wrote.
+     * @param s array to read from
+     * @param off where to start reading
+     */
+    void loadState(double[] s, int off) {
+        xpos = s[off];
+        ypos = s[off + 1];
+        xposlast = s[off + 2];
+        yposlast = s[off + 3];
+        xvel = s[off + 4];
+        yvel = s[off + 5];
+        xacc = s[off + 6];
+        yacc = s[off + 7];
+        direction = (int)s[off + 8];
+        step = (int)s[off + 9];
+        animCounter = s[off + 10];
+        sprite.setIndex(step, direction);
+        changed = true;
     }
 
     /**
@@ -208,6 +298,26 @@ public abstract class Entity {
         return false;
     }
 
+    public final int getId() {
+        return id;
+    }
+
+    /**
+     * Gives this entity an id, such as the one it had on a server.
+     */
+    public final void setId(int i) {
+        id = i;
+    }
+
+    /**
+     * Moves this entity, as if it had always been there.
+     */
+    public void setPosition(double x, double y) {
+        xpos = xposlast = x;
+        ypos = yposlast = y;
+        changed = true;
+    }
+
     public final double getX() {
         return xpos;
     }
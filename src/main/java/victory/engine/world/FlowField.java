@@ -0,0 +1,109 @@
+package victory.engine.world;
+
+/**
+ * A distance field towards a single goal tile. Any number of entities heading
+ * to the same goal can share one field: each of them just steps to the
+ * neighbouring tile that is closest to the goal.
+ *
+ * @author Victoria Lacroix
+ */
+public class FlowField {
+    /**
+     * Distance of a tile that cannot reach the goal.
+     */
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private final CollisionMap  cmap;
+    private final int           goal;
+    private int[]               dist;
+    private int[]               queue;
+    private boolean             stale   = true;
+
+    /**
+     * Creates a field towards tile (gx, gy). The field is filled in the first
+     * time it is used.
+     * @param c collision map to walk over
+     * @param gx goal tile coord
+     * @param gy goal tile coord
+     */
+    public FlowField(CollisionMap c, int gx, int gy) {
+        cmap = c;
+        goal = gx + (gy * c.WIDTH);
+        dist = new int[c.WIDTH * c.HEIGHT];
+        queue = new int[c.WIDTH * c.HEIGHT];
+    }
+
+    /**
+     * @return the goal tile, packed as x + y * width
+     */
+    public int getGoal() {
+        return goal;
+    }
+
+    /**
+     * Marks the field as out of date. It is rebuilt on its next use.
+     */
+    public void invalidate() {
+        stale = true;
+    }
+
+    /**
+     * Breadth-first fill from the goal. Every step costs the same, so this is
+     * all Dijkstra would do here.
+     */
+    private void rebuild() {
+        for(int i = 0; i < dist.length; ++i) {
+            dist[i] = UNREACHABLE;
+        }
+        stale = false;
+        if(!cmap.getAt(goal % cmap.WIDTH, goal / cmap.WIDTH)) return;
+        int head = 0, tail = 0;
+        dist[goal] = 0;
+        queue[tail++] = goal;
+        while(head < tail) {
+            int t = queue[head++];
+            int x = t % cmap.WIDTH, y = t / cmap.WIDTH;
+            int d = dist[t] + 1;
+            if(x > 0 && visit(t - 1, x - 1, y, d)) queue[tail++] = t - 1;
+            if(x < cmap.WIDTH - 1 && visit(t + 1, x + 1, y, d)) queue[tail++] = t + 1;
+            if(y > 0 && visit(t - cmap.WIDTH, x, y - 1, d)) queue[tail++] = t - cmap.WIDTH;
+            if(y < cmap.HEIGHT - 1 && visit(t + cmap.WIDTH, x, y + 1, d)) queue[tail++] = t + cmap.WIDTH;
+        }
+    }
+
+    private boolean visit(int t, int x, int y, int d) {
+        if(dist[t] != UNREACHABLE || !cmap.getAt(x, y)) return false;
+        dist[t] = d;
+        return true;
+    }
+
+    /**
+     * @param x tile coord
+     * @param y tile coord
+     * @return how many steps tile (x, y) is from the goal
+     */
+    public int distanceAt(int x, int y) {
+        if(stale) rebuild();
+        if(x < 0 || y < 0 || x >= cmap.WIDTH || y >= cmap.HEIGHT) return UNREACHABLE;
+        return dist[x + (y * cmap.WIDTH)];
+    }
+
+    /**
+     * Finds the next tile to step to from (x, y).
+     * @param x tile coord
+     * @param y tile coord
+     * @return the next tile packed as x + y * width, or -1 if (x, y) is the
+     *         goal or cannot reach it.
+     */
+    public int next(int x, int y) {
+        int best = distanceAt(x, y);
+        if(best == 0 || best == UNREACHABLE) return -1;
+        int t = x + (y * cmap.WIDTH);
+        int res = -1;
+        if(x > 0 && dist[t - 1] < best) { best = dist[t - 1]; res = t - 1; }
+        if(x < cmap.WIDTH - 1 && dist[t + 1] < best) { best = dist[t + 1]; res = t + 1; }
+        if(y > 0 && dist[t - cmap.WIDTH] < best) { best = dist[t - cmap.WIDTH]; res = t - cmap.WIDTH; }
+        if(y < cmap.HEIGHT - 1 && dist[t + cmap.WIDTH] < best) { res = t + cmap.WIDTH; }
+        return res;
+    }
+}
@@ -0,0 +1,339 @@
+package victory.engine.world;
+
+import java.util.Arrays;
+
+/**
+ * Light levels over the tiles of a Map. Lights give their own tile their
+ * level, and each step away from them (up, down, left, right) one less.
+ * Blocked tiles of the CollisionMap are lit like any other, but light does
+ * not pass through them.
+ *
+ * Levels are kept up to date incrementally. Adding, moving or removing a
+ * light, or changing a tile, only queues work at that tile; update() then
+ * spreads the change outwards breadth first and stops where levels are
+ * already right. Removing light first darkens every tile that could have
+ * been lit by what was removed, then relights them from the tiles around
+ * the dark area that still have light.
+ *
+ * The same levels double as fog-of-war: give a LightMap one light at the
+ * viewer, with the view distance as its level. Lit tiles are in view, and
+ * tiles that have ever been lit are explored.
+ *
+ * @author Victoria Lacroix
+ */
+public class LightMap implements MapListener {
+    /**
+     * Brightest light level. Light reaches this many tiles out at most.
+     */
+    public static final int     MAX_LEVEL       = 15;
+
+    /**
+     * Shade for each light level, from 0 (black) to 255 (as drawn). Dark
+     * levels fall off faster than bright ones, which reads better on screen
+     * than an even ramp.
+     */
+    private static final int[]  SHADE           = new int[MAX_LEVEL + 1];
+    static {
+        for(int l = 0; l <= MAX_LEVEL; ++l) {
+            SHADE[l] = (int)Math.round(255 * Math.pow((double)l / MAX_LEVEL, 1.5));
+        }
+    }
+
+    private final Map           map;
+    private final int           width, height;
+    private final byte[]        level;
+    /**
+     * Level given off by the lights on each tile.
+     */
+    private final byte[]        emit;
+    /**
+     * One bit per tile, set once the tile has been lit.
+     */
+    private final long[]        explored;
+    private int                 ambient         = 0;
+
+    /**
+     * Lights, one entry per array each. A level of -1 marks a free entry.
+     */
+    private int[]               lightX          = new int[16];
+    private int[]               lightY          = new int[16];
+    private int[]               lightLevel      = new int[16];
+    private int                 lights          = 0;
+
+    /**
+     * Tiles waiting to spread light, and tiles waiting to take away the
+     * level (packed in the low 4 bits) they had.
+     */
+    private int[]               spread          = new int[256];
+    private int                 spreadCount     = 0;
+    private int[]               darken          = new int[256];
+    private int                 darkenCount     = 0;
+
+    /**
+     * Creates a dark LightMap for a map, and starts listening for tile
+     * changes on it.
+     * @param m
+     */
+    public LightMap(Map m) {
+        map = m;
+        width = m.getWidth();
+        height = m.getHeight();
+        level = new byte[width * height];
+        emit = new byte[width * height];
+        explored = new long[(width * height + 63) >>> 6];
+        Arrays.fill(lightLevel, -1);
+        m.addListener(this);
+    }
+
+    /**
+     * Stops listening to the map.
+     */
+    public void detach() {
+        map.removeListener(this);
+    }
+
+    /**
+     * Adds a light. It shows up on the next update().
+     * @param x tile coord
+     * @param y tile coord
+     * @param l level, 1 to MAX_LEVEL
+     * @return the light's id
+     */
+    public int addLight(int x, int y, int l) {
+        int id = 0;
+        while(id < lights && lightLevel[id] >= 0) ++id;
+        if(id == lightLevel.length) {
+            lightX = Arrays.copyOf(lightX, id * 2);
+            lightY = Arrays.copyOf(lightY, id * 2);
+            lightLevel = Arrays.copyOf(lightLevel, id * 2);
+            Arrays.fill(lightLevel, id, id * 2, -1);
+        }
+        lights = Math.max(lights, id + 1);
+        lightX[id] = x;
+        lightY[id] = y;
+        lightLevel[id] = clamp(l);
+        relight(x, y);
+        return id;
+    }
+
+    /**
+     * Moves a light to another tile. Does nothing if it is already there.
+     * @param id from addLight()
+     * @param x tile coord
+     * @param y tile coord
+     */
+    public void moveLight(int id, int x, int y) {
+        if(lightX[id] == x && lightY[id] == y) return;
+        int ox = lightX[id], oy = lightY[id];
+        lightX[id] = x;
+        lightY[id] = y;
+        relight(ox, oy);
+        relight(x, y);
+    }
+
+    /**
+     * Changes the level of a light.
+     * @param id from addLight()
+     * @param l level, 1 to MAX_LEVEL
+     */
+    public void setLightLevel(int id, int l) {
+        l = clamp(l);
+        if(lightLevel[id] == l) return;
+        lightLevel[id] = l;
+        relight(lightX[id], lightY[id]);
+    }
+
+    /**
+     * Removes a light. Its id may be given to a later light.
+     * @param id from addLight()
+     */
+    public void removeLight(int id) {
+        if(id < 0 || id >= lights || lightLevel[id] < 0) return;
+        lightLevel[id] = -1;
+        relight(lightX[id], lightY[id]);
+        while(lights > 0 && lightLevel[lights - 1] < 0) --lights;
+    }
+
+    private static int clamp(int l) {
+        return (l < 1) ? 1 : (l > MAX_LEVEL) ? MAX_LEVEL : l;
+    }
+
+    /**
+     * Works out again what the lights on a tile give off, and queues the
+     * tile to be darkened and relit.
+     */
+    private void relight(int x, int y) {
+        if(x < 0 || y < 0 || x >= width || y >= height) return;
+        int e = 0;
+        for(int i = 0; i < lights; ++i) {
+            if(lightX[i] == x && lightY[i] == y && lightLevel[i] > e) {
+                e = lightLevel[i];
+            }
+        }
+        int t = x + (y * width);
+        emit[t] = (byte)e;
+        invalidate(t);
+    }
+
+    /**
+     * Queues a tile to lose its level, and to be lit again by its own lights
+     * and its neighbours.
+     */
+    private void invalidate(int t) {
+        int l = level[t];
+        if(l > 0) {
+            level[t] = 0;
+            pushDarken(t, l);
+        }
+        if(emit[t] > 0) {
+            level[t] = emit[t];
+            markExplored(t);
+        }
+        pushSpread(t);
+        int x = t % width, y = t / width;
+        if(x > 0) pushSpread(t - 1);
+        if(x < width - 1) pushSpread(t + 1);
+        if(y > 0) pushSpread(t - width);
+        if(y < height - 1) pushSpread(t + width);
+    }
+
+    private void pushSpread(int t) {
+        if(spreadCount == spread.length) {
+            spread = Arrays.copyOf(spread, spreadCount * 2);
+        }
+        spread[spreadCount++] = t;
+    }
+
+    private void pushDarken(int t, int l) {
+        if(darkenCount == darken.length) {
+            darken = Arrays.copyOf(darken, darkenCount * 2);
+        }
+        darken[darkenCount++] = (t << 4) | l;
+    }
+
+    private void markExplored(int t) {
+        explored[t >>> 6] |= 1L << t;
+    }
+
+    /**
+     * Spreads every queued change. Call once a tick, before drawing.
+     * @return whether any level might have changed.
+     */
+    public boolean update() {
+        if(spreadCount == 0 && darkenCount == 0) return false;
+        // Darkening queues more tiles to spread from, so it goes first.
+        for(int head = 0; head < darkenCount; ++head) {
+            int t = darken[head] >>> 4, l = darken[head] & 0xF;
+            int x = t % width, y = t / width;
+            if(x > 0) darken(t - 1, l);
+            if(x < width - 1) darken(t + 1, l);
+            if(y > 0) darken(t - width, l);
+            if(y < height - 1) darken(t + width, l);
+        }
+        darkenCount = 0;
+        for(int head = 0; head < spreadCount; ++head) {
+            int t = spread[head];
+            int l = level[t] - 1;
+            if(l <= 0 || (emit[t] == 0 && map.cmap.isBlocked(t % width, t / width))) continue;
+            int x = t % width, y = t / width;
+            if(x > 0) brighten(t - 1, l);
+            if(x < width - 1) brighten(t + 1, l);
+            if(y > 0) brighten(t - width, l);
+            if(y < height - 1) brighten(t + width, l);
+        }
+        spreadCount = 0;
+        return true;
+    }
+
+    /**
+     * Darkens a neighbour of a tile that lost level l. Neighbours dimmer than
+     * l may have been lit by it; brighter ones were lit some other way, and
+     * spread back into the dark.
+     */
+    private void darken(int n, int l) {
+        int ln = level[n];
+        if(ln == 0) return;
+        if(ln < l) {
+            level[n] = 0;
+            pushDarken(n, ln);
+            if(emit[n] > 0) {
+                level[n] = emit[n];
+                pushSpread(n);
+            }
+        } else {
+            pushSpread(n);
+        }
+    }
+
+    private void brighten(int n, int l) {
+        if(level[n] < l) {
+            level[n] = (byte)l;
+            markExplored(n);
+            pushSpread(n);
+        }
+    }
+
+    @Override
+    public void tileChanged(int x, int y) {
+        invalidate(x + (y * width));
+    }
+
+    @Override
+    public void regionChanged(int x, int y, int w, int h) {
+        for(int ty = y; ty < y + h; ++ty) {
+            for(int tx = x; tx < x + w; ++tx) {
+                invalidate(tx + (ty * width));
+            }
+        }
+    }
+
+    /**
+     * @param x tile coord
+     * @param y tile coord
+     * @return the light level of a tile, 0 off the map.
+     */
+    public int getLevel(int x, int y) {
+        if(x < 0 || y < 0 || x >= width || y >= height) return 0;
+        return level[x + (y * width)];
+    }
+
+    /**
+     * @param x tile coord
+     * @param y tile coord
+     * @return whether a tile has ever been lit.
+     */
+    public boolean isExplored(int x, int y) {
+        if(x < 0 || y < 0 || x >= width || y >= height) return false;
+        int t = x + (y * width);
+        return (explored[t >>> 6] & (1L << t)) != 0;
+    }
+
+    /**
+     * Sets the level every tile has at least, when drawn.
+     * @param l 0 to MAX_LEVEL
+     */
+    public void setAmbient(int l) {
+        ambient = (l < 0) ? 0 : (l > MAX_LEVEL) ? MAX_LEVEL : l;
+    }
+
+    public int getAmbient() {
+        return ambient;
+    }
+
+    /**
+     * @param x tile coord
+     * @param y tile coord
+     * @return how bright to draw a tile, 0 (black) to 255.
+     */
+    public int getShade(int x, int y) {
+        return SHADE[Math.max(getLevel(x, y), ambient)];
+    }
+
+    /**
+     * @param l light level
+     * @return how bright to draw a tile of that level, 0 (black) to 255.
+     */
+    public static int shade(int l) {
+        return SHADE[(l < 0) ? 0 : (l > MAX_LEVEL) ? MAX_LEVEL : l];
+    }
+}
@@ -1,24 +1,89 @@
 package victory.engine.world;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Scanner;
+import java.util.stream.IntStream;
 
+import victory.engine.graphics.Blend;
 import victory.engine.graphics.Screen;
 import victory.engine.graphics.ScreenController;
-import victory.engine.graphics.Sprite;
 import victory.engine.graphics.SpriteSheet;
 
 public class Map implements ScreenController {
-    short[] tilemap; // data. This array is of shorts instead of bytes because
-                        // of a need to keep all tile indices positive. How I
-                        // wish java did unsigned data...
+    /**
+     * Tile layers, bottom first. The base layer, 0, is the one collisions,
+     * edits and generation work on; every tile of it is drawn, even 0.
+     */
+    private TileLayer[] layers;
+    private TileLayer base;
     public final int MAP_WIDTH, MAP_HEIGHT;
     public final int TILE_WIDTH, TILE_HEIGHT;
     private final SpriteSheet tileset;
     public CollisionMap cmap;
+    private ArrayList<MapListener> listeners = new ArrayList<MapListener>();
+    private TriggerLayer triggers;
+
+    /**
+     * Light levels the tiles are drawn with, and what the viewer can see.
+     * Either may be null.
+     */
+    private LightMap lighting;
+    private LightMap fog;
+    private int fogViewer = -1;
+    private int fogRadius;
+    /**
+     * Shade of explored tiles that are out of view.
+     */
+    private static final int FOG_SHADE = 0x60;
+    /**
+     * Color of tileset pixels that are not drawn.
+     */
+    private static final int MASK_COLOR = 0xFFFF00FF;
+
+    /**
+     * Terrain generator and which chunks it has filled in, for generated maps.
+     */
+    private TerrainGenerator terrain;
+    private boolean[] generated;
+    private int chunksX, chunksY;
+
+    /**
+     * Frame of the animated tiles.
+     */
+    private int animFrame = 0;
 
     /**
-     * Generates new Map (with collisions!).
+     * Where this map was loaded from, or null for generated maps.
+     */
+    private String source;
+
+    /**
+     * Every tile changed through setTile() since the map was built, with the
+     * tile and permission it had before its first change.
+     */
+    private boolean[] edited;
+    private int[] editIndex = new int[64];
+    private short[] editTile = new short[64];
+    private boolean[] editPermission = new boolean[64];
+    private int editCount = 0;
+
+    /**
+     * Undo log: what each setTile() overwrote, oldest first, while logging is
+     * on. Marks count every entry ever logged, so one stays valid after older
+     * entries are forgotten.
+     */
+    private boolean undoLogging = false;
+    private int[] undoIndex = new int[64];
+    private short[] undoTile = new short[64];
+    private boolean[] undoPermission = new boolean[64];
+    private int undoCount = 0;
+    private int undoStart = 0;
+
+    /**
+     * Generates new Map (with collisions!) from a random seed.
      * 
      * @param w
      *            width of the map
@@ -26,13 +91,33 @@ public class Map implements ScreenController {
      *            height of the map
      */
     public Map(int w, int h) {
+        this(w, h, System.nanoTime());
+    }
+
+    /**
+     * Generates new Map (with collisions!). Chunks are only generated once
+     * prepare() is called for an area around them; until then they are solid.
+     * 
+     * @param w
+     *            width of the map
+     * @param h
+     *            height of the map
+     * @param seed
+     *            terrain seed. The same seed always gives the same map.
+     */
+    public Map(int w, int h, long seed) {
         MAP_WIDTH = w;
         MAP_HEIGHT = h;
         TILE_WIDTH = TILE_HEIGHT = 16;
         tileset = new SpriteSheet("tiles.png");
-        tilemap = new short[w * h];
-        generateMap();
-        cmap = new CollisionMap(this, null);
+        base = new TileLayer("base", w, h);
+        layers = new TileLayer[] { base };
+        cmap = new CollisionMap(w, h);
+        terrain = new TerrainGenerator(seed);
+        chunksX = (w + TerrainGenerator.CHUNK_SIZE - 1) / TerrainGenerator.CHUNK_SIZE;
+        chunksY = (h + TerrainGenerator.CHUNK_SIZE - 1) / TerrainGenerator.CHUNK_SIZE;
+        generated = new boolean[chunksX * chunksY];
+        edited = new boolean[w * h];
     }
 
     /**
@@ -49,21 +134,21 @@ public class Map implements ScreenController {
         MAP_WIDTH = w;
         MAP_HEIGHT = h;
         TILE_WIDTH = TILE_HEIGHT = 16;
-        tilemap = new short[w * h];
-        for (int i = 0; i < tilemap.length; i++) {
-            tilemap[i] = 0;
-        }
         load(url);
+        source = url;
         tileset = set;
         cmap = new CollisionMap(this, url+".col");
+        edited = new boolean[w * h];
     }
 
     /**
-     * Loads a CSV file into a map.
+     * Loads a CSV file into the base layer of a map. Tiles that are not
+     * numbers, or are out of range, become 0.
      * 
      * @param url
      */
     public void load(String url) {
+        int[] tiles = new int[MAP_WIDTH * MAP_HEIGHT];
         Scanner s;
         try {
             s = new Scanner(new File(url)).useDelimiter(",|\n|\t|\r|\f| ");
@@ -71,23 +156,23 @@ public class Map implements ScreenController {
             s = null;
         }
         for (int i = 0; i < MAP_WIDTH * MAP_HEIGHT; ++i) {
-            if (s == null) {
-                tilemap[i] = 0x00;
-            } else if (s.hasNext()) {
-                int t;
+            if (s != null && s.hasNext()) {
                 try{
-                    t = Integer.parseInt(s.next());
+                    tiles[i] = Integer.parseInt(s.next());
                 }catch(Exception e){
-                    t = 0x00;
+                    tiles[i] = 0x00;
                 }
-                t = (t < 0x00) ? 0 : t;
-                t = (t > 0xFF) ? 0 : t;
-                tilemap[i] = (short) t;
-            } else {
-                tilemap[i] = 0x00;
             }
         }
-        s.close();
+        if (s != null) {
+            s.close();
+        }
+        base = new TileLayer("base", MAP_WIDTH, MAP_HEIGHT, tiles);
+        if (layers == null) {
+            layers = new TileLayer[] { base };
+        } else {
+            layers[0] = base;
+        }
     }
 
     /**
@@ -109,123 +194,128 @@ public class Map implements ScreenController {
     }
 
     /**
-     * Generates the tilemap for this Map.
+     * Generates every chunk of the map that has not been generated yet. Does
+     * nothing on maps that were not generated.
      */
     public void generateMap() {
-        int[] heightmap = new int[MAP_WIDTH];
-        int[] temp = new int[MAP_WIDTH / 16];
-        for (int i = 0; i < temp.length; i++) {
-            temp[i] = (int) (Math.random() * 24) + 12;
-        }
-        heightmap = generateHeightMap(temp);
-        /*
-         * for(int i = 0; i < MAP_WIDTH; i++){ heightmap[i] =
-         * (int)(Math.random() * 6) + 13; // give us a really simple heightmap }
-         */
-        for (int y = 0; y < MAP_HEIGHT; y++) {
-            for (int x = 0; x < MAP_WIDTH; x++) {
-                if (y >= heightmap[x]) {
-                    setTile(x, y, (short) 0x11);
-                } else {
-                    setTile(x, y, (short) 0x00);
+        prepare(0, 0, MAP_WIDTH * TILE_WIDTH, MAP_HEIGHT * TILE_HEIGHT);
+    }
+
+    /**
+     * Makes sure the chunks around an area are generated. Missing chunks are
+     * generated in parallel, then copied into the map. Does nothing on maps
+     * that were not generated.
+     * 
+     * @param px
+     *            left of the area, in pixels
+     * @param py
+     *            top of the area, in pixels
+     * @param pw
+     *            width of the area, in pixels
+     * @param ph
+     *            height of the area, in pixels
+     */
+    public void prepare(int px, int py, int pw, int ph) {
+        if (terrain == null) {
+            return;
+        }
+        int size = TerrainGenerator.CHUNK_SIZE;
+        // one chunk of margin, so chunks are ready before they scroll in.
+        int x0 = Math.max(0, Math.floorDiv(px, TILE_WIDTH * size) - 1);
+        int y0 = Math.max(0, Math.floorDiv(py, TILE_HEIGHT * size) - 1);
+        int x1 = Math.min(chunksX - 1, Math.floorDiv(px + pw, TILE_WIDTH * size) + 1);
+        int y1 = Math.min(chunksY - 1, Math.floorDiv(py + ph, TILE_HEIGHT * size) + 1);
+        int missing = 0;
+        for (int cy = y0; cy <= y1; cy++) {
+            for (int cx = x0; cx <= x1; cx++) {
+                if (!generated[cx + (cy * chunksX)]) {
+                    missing++;
                 }
             }
         }
+        if (missing == 0) {
+            return;
+        }
+        final int[] todo = new int[missing];
+        missing = 0;
+        for (int cy = y0; cy <= y1; cy++) {
+            for (int cx = x0; cx <= x1; cx++) {
+                if (!generated[cx + (cy * chunksX)]) {
+                    todo[missing++] = cx + (cy * chunksX);
+                }
+            }
+        }
+        final short[][] chunks = new short[todo.length][size * size];
+        IntStream.range(0, todo.length).parallel().forEach(i ->
+                terrain.generateChunk(todo[i] % chunksX, todo[i] / chunksX, chunks[i]));
+        for (int i = 0; i < todo.length; i++) {
+            placeChunk(todo[i] % chunksX, todo[i] / chunksX, chunks[i]);
+        }
     }
 
     /**
-     * Animates the tiles belonging to the bottom row of the tileset.
+     * Copies a generated chunk into the map and its collisions. Tiles edited
+     * before the chunk was generated, such as ones replayed from a journal,
+     * are kept; reverting them gives the generated tile.
      */
-    public void animate() {
-        for (int i = 0; i < MAP_WIDTH * MAP_HEIGHT; ++i) {
-            if (tilemap[i] >= 0xF0 && tilemap[i] <= 0xFF) {
-                switch (tilemap[i]) {
-                case 0xF0:
-                    tilemap[i] = 0xF1;
-                    break;
-                case 0xF1:
-                    tilemap[i] = 0xF2;
-                    break;
-                case 0xF2:
-                    tilemap[i] = 0xF3;
-                    break;
-                case 0xF3:
-                    tilemap[i] = 0xF0;
-                    break;
-                //
-                case 0xF4:
-                    tilemap[i] = 0xF5;
-                    break;
-                case 0xF5:
-                    tilemap[i] = 0xF6;
-                    break;
-                case 0xF6:
-                    tilemap[i] = 0xF7;
-                    break;
-                case 0xF7:
-                    tilemap[i] = 0xF4;
-                    break;
-                //
-                case 0xF8:
-                    tilemap[i] = 0xF9;
-                    break;
-                case 0xF9:
-                    tilemap[i] = 0xFA;
-                    break;
-                case 0xFA:
-                    tilemap[i] = 0xFB;
-                    break;
-                case 0xFB:
-                    tilemap[i] = 0xF8;
-                    break;
-                //
-                case 0xFC:
-                    tilemap[i] = 0xFD;
-                    break;
-                case 0xFD:
-                    tilemap[i] = 0xFE;
-                    break;
-                case 0xFE:
-                    tilemap[i] = 0xFF;
-                    break;
-                case 0xFF:
-                    tilemap[i] = 0xFC;
-                    break;
+    private void placeChunk(int cx, int cy, short[] chunk) {
+        int size = TerrainGenerator.CHUNK_SIZE;
+        int w = Math.min(size, MAP_WIDTH - cx * size);
+        int h = Math.min(size, MAP_HEIGHT - cy * size);
+        for (int ly = 0; ly < h; ly++) {
+            for (int lx = 0; lx < w; lx++) {
+                int x = cx * size + lx, y = cy * size + ly;
+                if (edited[x + (MAP_WIDTH * y)]) {
+                    continue;
                 }
+                short t = chunk[lx + (ly * size)];
+                base.set(x + (MAP_WIDTH * y), t & 0xFFFF);
+                cmap.setAt(x, y, t != 0x00);
             }
         }
+        for (int i = 0; i < editCount; i++) {
+            int lx = editIndex[i] % MAP_WIDTH - cx * size, ly = editIndex[i] / MAP_WIDTH - cy * size;
+            if (lx >= 0 && ly >= 0 && lx < w && ly < h) {
+                editTile[i] = chunk[lx + (ly * size)];
+                editPermission[i] = editTile[i] != 0x00;
+            }
+        }
+        generated[cx + (cy * chunksX)] = true;
+        for (int i = 0; i < listeners.size(); ++i) {
+            listeners.get(i).regionChanged(cx * size, cy * size, w, h);
+        }
     }
 
     /**
-     * Generates a heightmap for use in generateMap(), recursively
-     * 
-     * @param h
-     *            initial array
-     * @return
-     */
-    public int[] generateHeightMap(int[] h) {
-        if (h.length == MAP_WIDTH)
-            return h;
-        if (h.length % 2 != 0)
-            return null;
-        if (h.length > MAP_WIDTH)
-            return null;
-        int[] result = new int[h.length * 2];
-        for (int i = 0; i < h.length; i++) {
-            result[i * 2] = h[i];
-        }
-        for (int i = 1; i < result.length; i += 2) {
-            if (i != result.length - 1) {
-                result[i] = (int) Math.abs(Math.random()
-                        * (result[i - 1] - result[i + 1]))
-                        + Math.min(result[i - 1], result[i + 1]);
-            } else {
-                result[i] = (int) Math.abs(Math.random()
-                        * (result[i - 1] - result[0]))
-                        + Math.min(result[i - 1], result[0]);
-            }
+     * Animates the tiles belonging to the bottom row of the tileset. Each
+     * group of four tiles (0xF0-0xF3, 0xF4-0xF7, ...) cycles through its
+     * frames. The layers themselves are untouched; draw() picks the frame.
+     */
+    public void animate() {
+        animFrame = (animFrame + 1) & 3;
+    }
+
+    /**
+     * @param t
+     *            tile as stored in a layer
+     * @return the tile to show for the current animation frame.
+     */
+    private int displayTile(int t) {
+        if (t >= 0xF0 && t <= 0xFF) {
+            return (t & 0xFC) | ((t + animFrame) & 3);
         }
-        return generateHeightMap(result);
+        return t;
+    }
+
+    /**
+     * @return the current tile animation frame, 0-3.
+     */
+    public int getAnimationFrame() {
+        return animFrame;
+    }
+
+    public void setAnimationFrame(int f) {
+        animFrame = f & 3;
     }
 
     /**
@@ -236,43 +326,448 @@ public class Map implements ScreenController {
      * @param t
      */
     public void setTile(int x, int y, short t) {
+        setTile(x, y, t, t != 0x00);
+    }
+
+    /**
+     * Sets a tile on the map, with its own collision permission.
+     * 
+     * @param x
+     * @param y
+     * @param t
+     * @param perm
+     *            whether the tile can be walked on.
+     */
+    public void setTile(int x, int y, short t, boolean perm) {
         if (x >= 0 && y >= 0 && x < MAP_WIDTH && y < MAP_HEIGHT) {
-            tilemap[x + (MAP_WIDTH * y)] = t;
-            boolean perm = !(t == 0x00);
+            if (edited != null && !edited[x + (MAP_WIDTH * y)]) {
+                recordEdit(x + (MAP_WIDTH * y));
+            }
+            if (undoLogging) {
+                recordUndo(x + (MAP_WIDTH * y));
+            }
+            base.set(x + (MAP_WIDTH * y), t & 0xFFFF);
             if (cmap != null) {
                 cmap.setAt(x, y, perm);
             }
+            for (int i = 0; i < listeners.size(); ++i) {
+                listeners.get(i).tileChanged(x, y);
+            }
         } else {
             return;
         }
 
     }
 
+    /**
+     * Remembers what a tile was before its first edit.
+     */
+    private void recordEdit(int i) {
+        if (editCount == editIndex.length) {
+            int[] index = new int[editCount * 2];
+            short[] tile = new short[editCount * 2];
+            boolean[] perm = new boolean[editCount * 2];
+            System.arraycopy(editIndex, 0, index, 0, editCount);
+            System.arraycopy(editTile, 0, tile, 0, editCount);
+            System.arraycopy(editPermission, 0, perm, 0, editCount);
+            editIndex = index;
+            editTile = tile;
+            editPermission = perm;
+        }
+        edited[i] = true;
+        editIndex[editCount] = i;
+        editTile[editCount] = (short) base.get(i);
+        editPermission[editCount] = cmap != null && cmap.getAt(i % MAP_WIDTH, i / MAP_WIDTH);
+        editCount++;
+    }
+
+    /**
+     * Remembers what a tile is before it is overwritten.
+     */
+    private void recordUndo(int i) {
+        if (undoCount == undoIndex.length) {
+            int[] index = new int[undoCount * 2];
+            short[] tile = new short[undoCount * 2];
+            boolean[] perm = new boolean[undoCount * 2];
+            System.arraycopy(undoIndex, 0, index, 0, undoCount);
+            System.arraycopy(undoTile, 0, tile, 0, undoCount);
+            System.arraycopy(undoPermission, 0, perm, 0, undoCount);
+            undoIndex = index;
+            undoTile = tile;
+            undoPermission = perm;
+        }
+        undoIndex[undoCount] = i;
+        undoTile[undoCount] = (short) base.get(i);
+        undoPermission[undoCount] = cmap != null && cmap.getAt(i % MAP_WIDTH, i / MAP_WIDTH);
+        undoCount++;
+    }
+
+    /**
+     * Turns the undo log on or off. Turning it off forgets what it held.
+     * 
+     * @param on
+     */
+    public void setUndoLogging(boolean on) {
+        undoLogging = on;
+        if (!on) {
+            undoStart += undoCount;
+            undoCount = 0;
+        }
+    }
+
+    /**
+     * @return a mark that undoTo() can take the map back to.
+     */
+    public int getUndoMark() {
+        return undoStart + undoCount;
+    }
+
+    /**
+     * Puts back every tile changed since a mark was taken, newest first.
+     * 
+     * @param mark
+     *            from getUndoMark()
+     * @return false if the mark is older than what the log still holds.
+     */
+    public boolean undoTo(int mark) {
+        if (mark < undoStart) {
+            return false;
+        }
+        while (undoStart + undoCount > mark) {
+            undoCount--;
+            int at = undoIndex[undoCount];
+            base.set(at, undoTile[undoCount] & 0xFFFF);
+            if (cmap != null) {
+                cmap.setAt(at % MAP_WIDTH, at / MAP_WIDTH, undoPermission[undoCount]);
+            }
+            for (int i = 0; i < listeners.size(); ++i) {
+                listeners.get(i).tileChanged(at % MAP_WIDTH, at / MAP_WIDTH);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forgets the undo entries from before a mark. The map can no longer be
+     * taken back further than that.
+     * 
+     * @param mark
+     *            from getUndoMark()
+     */
+    public void forgetUndo(int mark) {
+        int n = Math.min(mark - undoStart, undoCount);
+        if (n <= 0) {
+            return;
+        }
+        undoCount -= n;
+        System.arraycopy(undoIndex, n, undoIndex, 0, undoCount);
+        System.arraycopy(undoTile, n, undoTile, 0, undoCount);
+        System.arraycopy(undoPermission, n, undoPermission, 0, undoCount);
+        undoStart += n;
+    }
+
+    /**
+     * @return how many tiles have been edited since the map was built.
+     */
+    public int getEditCount() {
+        return editCount;
+    }
+
+    /**
+     * Copies out every edited tile: where it is, what it is now, and what it
+     * was before it was edited. Tiles that were edited back to what they
+     * were are included too. Each array needs getEditCount() entries.
+     */
+    public void copyEdits(int[] index, short[] tile, boolean[] perm, short[] baseTile, boolean[] basePerm) {
+        for (int i = 0; i < editCount; i++) {
+            int at = editIndex[i];
+            index[i] = at;
+            tile[i] = (short) base.get(at);
+            perm[i] = cmap.getAt(at % MAP_WIDTH, at / MAP_WIDTH);
+            baseTile[i] = editTile[i];
+            basePerm[i] = editPermission[i];
+        }
+    }
+
+    /**
+     * Puts every edited tile back the way the map was built, and forgets the
+     * edits. Listeners hear about each tile put back, the same as an edit, so
+     * journals and clients keep up with it.
+     */
+    public void revertEdits() {
+        int n = editCount;
+        editCount = 0;
+        for (int i = 0; i < n; i++) {
+            int at = editIndex[i];
+            base.set(at, editTile[i] & 0xFFFF);
+            cmap.setAt(at % MAP_WIDTH, at / MAP_WIDTH, editPermission[i]);
+            edited[at] = false;
+            for (int l = 0; l < listeners.size(); ++l) {
+                listeners.get(l).tileChanged(at % MAP_WIDTH, at / MAP_WIDTH);
+            }
+        }
+    }
+
+    /**
+     * @return the triggers on this map. Maps start with none.
+     */
+    public TriggerLayer getTriggers() {
+        if (triggers == null) {
+            triggers = TriggerLayer.empty(this);
+        }
+        return triggers;
+    }
+
+    public void setTriggers(TriggerLayer t) {
+        triggers = t;
+    }
+
+    /**
+     * @return the light levels tiles are drawn with, or null if the map is
+     *         drawn fully lit.
+     */
+    public LightMap getLighting() {
+        return lighting;
+    }
+
+    public void setLighting(LightMap l) {
+        lighting = l;
+    }
+
+    /**
+     * @return what the viewer can see and has seen, or null if there is no
+     *         fog-of-war.
+     */
+    public LightMap getFog() {
+        return fog;
+    }
+
+    /**
+     * Covers the map in fog-of-war. Tiles never seen are drawn black, and
+     * tiles seen before but out of view are drawn dim.
+     * 
+     * @param f
+     *            fog to use, or null for none
+     * @param radius
+     *            how many tiles the viewer can see, up to LightMap.MAX_LEVEL
+     */
+    public void setFog(LightMap f, int radius) {
+        fog = f;
+        fogViewer = -1;
+        fogRadius = radius;
+    }
+
+    /**
+     * Moves the viewer of the fog-of-war.
+     * 
+     * @param x
+     *            tile coord
+     * @param y
+     *            tile coord
+     */
+    public void reveal(int x, int y) {
+        if (fog == null) {
+            return;
+        }
+        if (fogViewer < 0) {
+            fogViewer = fog.addLight(x, y, fogRadius);
+        } else {
+            fog.moveLight(fogViewer, x, y);
+        }
+    }
+
+    /**
+     * Spreads any change to the lighting and fog-of-war.
+     * 
+     * @return whether the map may look different.
+     */
+    public boolean updateLighting() {
+        boolean lit = lighting != null && lighting.update();
+        boolean seen = fog != null && fog.update();
+        return lit || seen;
+    }
+
+    /**
+     * @return the file this map was loaded from, or null if it was generated.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Registers a listener to be told about tile changes.
+     * 
+     * @param l
+     */
+    public void addListener(MapListener l) {
+        listeners.add(l);
+    }
+
+    public void removeListener(MapListener l) {
+        listeners.remove(l);
+    }
+
     public short getTile(int x, int y) {
         if (x >= 0 && y >= 0 && x < MAP_WIDTH && y < MAP_HEIGHT) {
-            return tilemap[x + (y * MAP_WIDTH)];
+            return (short) base.get(x + (y * MAP_WIDTH));
         } else {
             return 0x00;
         }
     }
 
+    /**
+     * @return how many tile layers there are, the base included.
+     */
+    public int getLayerCount() {
+        return layers.length;
+    }
+
+    /**
+     * @param i layer, 0 being the base
+     * @return the layer
+     */
+    public TileLayer getLayer(int i) {
+        return layers[i];
+    }
+
+    /**
+     * Adds a layer on top of the others.
+     * 
+     * @param l
+     *            layer the size of the map
+     * @return the layer's number.
+     */
+    public int addLayer(TileLayer l) {
+        if (l.WIDTH != MAP_WIDTH || l.HEIGHT != MAP_HEIGHT) {
+            throw new IllegalArgumentException("Layer " + l.getName() + " is not the size of the map.");
+        }
+        layers = Arrays.copyOf(layers, layers.length + 1);
+        layers[layers.length - 1] = l;
+        for (int i = 0; i < listeners.size(); ++i) {
+            listeners.get(i).regionChanged(0, 0, MAP_WIDTH, MAP_HEIGHT);
+        }
+        return layers.length - 1;
+    }
+
+    /**
+     * Adds the layers of a TMX file over the base layer. The first layer in
+     * the file is taken to be the base layer, which the map already has from
+     * its CSV, and is skipped.
+     * 
+     * @param url
+     *            TMX file
+     */
+    public void loadLayers(String url) {
+        try {
+            TileLayer[] read = TileLayer.load(url);
+            for (int i = 1; i < read.length; i++) {
+                if (read[i].WIDTH == MAP_WIDTH && read[i].HEIGHT == MAP_HEIGHT) {
+                    addLayer(read[i]);
+                } else {
+                    System.err.println("Skipping layer " + read[i].getName() + " of " + url + ": wrong size.");
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Could not read layers from " + url);
+        }
+    }
+
+    /**
+     * @param layer
+     *            layer number, 0 being the base
+     * @return the tile there, or 0 off the map.
+     */
+    public int getTile(int layer, int x, int y) {
+        return layers[layer].get(x, y);
+    }
+
+    /**
+     * Sets a tile on any layer. Tiles on the base layer go through
+     * setTile(x, y, t), so they change collisions and are recorded as edits;
+     * tiles on other layers are only drawn.
+     * 
+     * @param layer
+     *            layer number, 0 being the base
+     */
+    public void setTile(int layer, int x, int y, int t) {
+        if (layer == 0) {
+            setTile(x, y, (short) t);
+        } else if (x >= 0 && y >= 0 && x < MAP_WIDTH && y < MAP_HEIGHT) {
+            layers[layer].set(x, y, t);
+            for (int i = 0; i < listeners.size(); ++i) {
+                listeners.get(i).regionChanged(x, y, 1, 1);
+            }
+        }
+    }
+
+    /**
+     * Draws the layers that go under the entities.
+     */
     @Override
     public void draw(int sx, int sy, Screen s) {
-        Sprite drawSprite = new Sprite(16, 16, tileset);
-        for (int y = (-sy/16); y < MAP_HEIGHT; y++) {
-            for (int x = (-sx/16); x < MAP_WIDTH; x++) {
-                if ((x * TILE_WIDTH) + sx >= -TILE_WIDTH
-                        && (x * TILE_WIDTH) + sx < s.getScreenWidth()
-                        && (y * TILE_HEIGHT) + sy >= -TILE_HEIGHT
-                        && (y * TILE_HEIGHT) + sy < s.getScreenHeight()) {
-                    drawSprite.setIndex(tilemap[x + (MAP_WIDTH * y)]
-                            % TILE_WIDTH, tilemap[x + (MAP_WIDTH * y)]
-                            / TILE_HEIGHT);
-                    drawSprite.draw(sx + (x * TILE_WIDTH), sy + (y * TILE_HEIGHT), s);
+        for (int i = 0; i < layers.length; i++) {
+            if (i == 0 || !layers[i].isOverhead()) {
+                drawLayer(layers[i], i == 0, sx, sy, s);
+            }
+        }
+    }
+
+    /**
+     * Draws the layers that go over the entities.
+     */
+    public void drawOverhead(int sx, int sy, Screen s) {
+        for (int i = 1; i < layers.length; i++) {
+            if (layers[i].isOverhead()) {
+                drawLayer(layers[i], false, sx, sy, s);
+            }
+        }
+    }
+
+    /**
+     * Draws the tiles of a layer that are on the screen, shaded by the
+     * lighting and fog-of-war. Layers other than the base skip their empty
+     * chunks and tiles.
+     */
+    private void drawLayer(TileLayer layer, boolean isBase, int sx, int sy, Screen s) {
+        if (!isBase && layer.isEmpty()) {
+            return;
+        }
+        int columns = Math.max(1, tileset.getWidth() / TILE_WIDTH);
+        int x0 = Math.max(0, Math.floorDiv(-sx, TILE_WIDTH));
+        int y0 = Math.max(0, Math.floorDiv(-sy, TILE_HEIGHT));
+        int x1 = Math.min(MAP_WIDTH, Math.floorDiv(s.getScreenWidth() - sx - 1, TILE_WIDTH) + 1);
+        int y1 = Math.min(MAP_HEIGHT, Math.floorDiv(s.getScreenHeight() - sy - 1, TILE_HEIGHT) + 1);
+        int size = TileLayer.CHUNK_SIZE;
+        for (int cy = y0 / size; cy * size < y1; cy++) {
+            for (int cx = x0 / size; cx * size < x1; cx++) {
+                if (!isBase && layer.isChunkEmpty(cx, cy)) {
+                    continue;
+                }
+                int ty1 = Math.min(y1, (cy + 1) * size), tx1 = Math.min(x1, (cx + 1) * size);
+                for (int y = Math.max(y0, cy * size); y < ty1; y++) {
+                    for (int x = Math.max(x0, cx * size); x < tx1; x++) {
+                        int t = layer.get(x + (MAP_WIDTH * y));
+                        if (!isBase && t == 0) {
+                            continue;
+                        }
+                        int px = sx + (x * TILE_WIDTH), py = sy + (y * TILE_HEIGHT);
+                        if (fog != null && !fog.isExplored(x, y)) {
+                            if (isBase) {
+                                s.fill(px, py, TILE_WIDTH, TILE_HEIGHT, 0xFF000000);
+                            }
+                            continue;
+                        }
+                        int shade = (lighting == null) ? 0xFF : lighting.getShade(x, y);
+                        if (fog != null && fog.getLevel(x, y) == 0) {
+                            shade = Math.min(shade, FOG_SHADE);
+                        }
+                        t = displayTile(t);
+                        s.blit(tileset, px, py, (t % columns) * TILE_WIDTH, (t / columns) * TILE_HEIGHT,
+                                TILE_WIDTH, TILE_HEIGHT, MASK_COLOR, (shade == 0xFF) ? Blend.MASK : Blend.SHADE, shade);
+                    }
                 }
-                if(x * TILE_WIDTH + sx > s.getScreenWidth()) break;
             }
-            if(y * TILE_HEIGHT + sy > s.getScreenHeight()) break;
         }
     }
 }
@@ -0,0 +1,258 @@
+package victory.engine.world;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import victory.engine.graphics.SpriteSheet;
+
+/**
+ * Maps that are loaded, or being loaded, by name. A map named "base" is read
+ * from map/csv/base.csv, and its triggers and the layers over its base one
+ * from map/tmx/base.tmx. Maps can be generated from a seed instead, in
+ * which case only their triggers are read, if there are any.
+ *
+ * Maps are loaded on a background thread, so that the game thread only ever
+ * picks up maps that are ready. Once more maps are kept than the limit, the
+ * ones used longest ago are dropped, except the current one, pinned ones,
+ * and ones with edits, which reading the map again would lose.
+ *
+ * Entities left behind on a map when the player warps away are kept here
+ * too, so that they are back in place when the player returns.
+ *
+ * @author Victoria Lacroix
+ */
+public class MapCache {
+    public static final String  CSV_DIR         = "map/csv/";
+    public static final String  TMX_DIR         = "map/tmx/";
+    public static final String  DEFAULT_TILESET = "world.png";
+
+    /**
+     * Background thread that loads maps, one at a time.
+     */
+    private static final ExecutorService loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Map loader");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        }
+    });
+
+    private final int           limit;
+    /**
+     * Maps by name, least recently used first.
+     */
+    private final LinkedHashMap<String, CompletableFuture<Map>> maps =
+            new LinkedHashMap<String, CompletableFuture<Map>>(16, 0.75f, true);
+    private String              current;
+    /**
+     * Maps never dropped, such as ones with a journal bound to them.
+     */
+    private final HashSet<String> pinned    = new HashSet<String>();
+    /**
+     * Entities left on maps nobody is on, by map name. Kept even when their
+     * map is dropped, since reading it again gives the same tiles.
+     */
+    private final HashMap<String, Entity[]> residents = new HashMap<String, Entity[]>();
+
+    /**
+     * @param l how many maps to keep, or 0 for no limit
+     */
+    public MapCache(int l) {
+        limit = l;
+    }
+
+    /**
+     * Adds a map that is already loaded.
+     */
+    public synchronized void put(String name, Map m) {
+        maps.put(name, CompletableFuture.completedFuture(m));
+        evict();
+    }
+
+    /**
+     * Starts loading a map, unless it is loaded or loading already.
+     * @param name
+     * @param w width, in tiles
+     * @param h height, in tiles
+     * @param tileset sheet the map is drawn with
+     * @return the map, once it is loaded
+     */
+    public synchronized CompletableFuture<Map> preload(final String name, final int w, final int h,
+            final String tileset) {
+        CompletableFuture<Map> f = maps.get(name);
+        if(f == null || f.isCompletedExceptionally()) {
+            f = CompletableFuture.supplyAsync(() -> load(name, w, h, tileset), loader);
+            maps.put(name, f);
+            evict();
+        }
+        return f;
+    }
+
+    /**
+     * Starts generating a map, unless it is generated or being generated
+     * already.
+     * @param name
+     * @param w width, in tiles
+     * @param h height, in tiles
+     * @param seed terrain seed
+     * @return the map, once it is made. Its chunks are generated as they are
+     *         shown.
+     */
+    public synchronized CompletableFuture<Map> preloadGenerated(final String name, final int w, final int h,
+            final long seed) {
+        CompletableFuture<Map> f = maps.get(name);
+        if(f == null || f.isCompletedExceptionally()) {
+            f = CompletableFuture.supplyAsync(() -> generate(name, w, h, seed), loader);
+            maps.put(name, f);
+            evict();
+        }
+        return f;
+    }
+
+    /**
+     * Starts loading the map a portal leads to. A portal is a trigger with
+     * a "map" property, and optionally "width", "height" and "tileset", or
+     * "seed" for a generated map.
+     * @return the map, or null if the trigger leads nowhere.
+     */
+    public CompletableFuture<Map> preload(Trigger portal) {
+        String name = portal.getProperty("map");
+        if(name == null) return null;
+        String seed = portal.getProperty("seed");
+        if(seed != null) {
+            try {
+                return preloadGenerated(name, portal.getProperty("width", 32), portal.getProperty("height", 32),
+                        Long.parseLong(seed.trim()));
+            } catch(NumberFormatException e) {
+                System.err.println("Bad seed for map " + name + ": " + seed);
+                return null;
+            }
+        }
+        String tileset = portal.getProperty("tileset");
+        return preload(name, portal.getProperty("width", 32), portal.getProperty("height", 32),
+                (tileset == null) ? DEFAULT_TILESET : tileset);
+    }
+
+    /**
+     * Starts loading every map a map's portals lead to.
+     */
+    public void preloadPortals(Map m) {
+        TriggerLayer triggers = m.getTriggers();
+        for(int i = 0; i < triggers.size(); ++i) {
+            preload(triggers.get(i));
+        }
+    }
+
+    /**
+     * Marks a map as the one in use, which is never dropped.
+     */
+    public synchronized void setCurrent(String name) {
+        current = name;
+        maps.get(name); // counts as a use
+    }
+
+    /**
+     * Keeps a map for good, such as one whose edits are being journaled.
+     */
+    public synchronized void pin(String name) {
+        pinned.add(name);
+    }
+
+    public synchronized void unpin(String name) {
+        pinned.remove(name);
+        evict();
+    }
+
+    /**
+     * Keeps the entities left on a map until it is entered again.
+     * @param m a map in this cache
+     * @param e the entities left on it
+     * @return false if the map is not in this cache, so nothing was kept.
+     */
+    public synchronized boolean keepEntities(Map m, Entity[] e) {
+        String name = nameOf(m);
+        if(name == null) return false;
+        residents.put(name, e);
+        return true;
+    }
+
+    /**
+     * Takes back the entities left on a map.
+     * @param m a map in this cache
+     * @return the entities, or none if nobody was left there.
+     */
+    public synchronized Entity[] takeEntities(Map m) {
+        String name = nameOf(m);
+        Entity[] e = (name == null) ? null : residents.remove(name);
+        return (e == null) ? new Entity[0] : e;
+    }
+
+    private String nameOf(Map m) {
+        for(java.util.Map.Entry<String, CompletableFuture<Map>> e : maps.entrySet()) {
+            CompletableFuture<Map> f = e.getValue();
+            if(f.isDone() && !f.isCompletedExceptionally() && f.join() == m) return e.getKey();
+        }
+        return null;
+    }
+
+    /**
+     * @return how many maps are kept.
+     */
+    public synchronized int size() {
+        return maps.size();
+    }
+
+    private void evict() {
+        if(limit <= 0) return;
+        Iterator<java.util.Map.Entry<String, CompletableFuture<Map>>> entries = maps.entrySet().iterator();
+        while(maps.size() > limit && entries.hasNext()) {
+            java.util.Map.Entry<String, CompletableFuture<Map>> e = entries.next();
+            // The newest map was just asked for; keep it even over the limit.
+            if(!entries.hasNext()) break;
+            if(!e.getKey().equals(current) && !pinned.contains(e.getKey()) && !isEdited(e.getValue())) {
+                entries.remove();
+            }
+        }
+    }
+
+    private static boolean isEdited(CompletableFuture<Map> f) {
+        return f.isDone() && !f.isCompletedExceptionally() && f.join().getEditCount() > 0;
+    }
+
+    /**
+     * Reads a map, its triggers and its layers, and gets its tileset's pixels ready, so
+     * that nothing is left to load on the game thread.
+     */
+    static Map load(String name, int w, int h, String tileset) {
+        SpriteSheet sheet = new SpriteSheet(tileset);
+        if(sheet.getWidth() > 0) {
+            sheet.getPixel(0, 0);
+        }
+        Map m = new Map(w, h, sheet, CSV_DIR + name + ".csv");
+        m.setTriggers(TriggerLayer.load(m, TMX_DIR + name + ".tmx"));
+        m.loadLayers(TMX_DIR + name + ".tmx");
+        return m;
+    }
+
+    /**
+     * Makes a generated map, with the triggers from its tmx file if it has
+     * one.
+     */
+    static Map generate(String name, int w, int h, long seed) {
+        Map m = new Map(w, h, seed);
+        File tmx = new File(TMX_DIR + name + ".tmx");
+        if(tmx.exists()) {
+            m.setTriggers(TriggerLayer.load(m, tmx.getPath()));
+        }
+        return m;
+    }
+}
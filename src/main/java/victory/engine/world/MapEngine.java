@@ -1,8 +1,14 @@
 package victory.engine.world;
 
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 import victory.engine.gui.*;
 import victory.engine.battle.BattleScene;
 import victory.engine.graphics.Screen;
+import victory.engine.script.ScriptLibrary;
+import victory.engine.script.ScriptRunner;
 
 /**
  * Map Engine that handles map logic and logic for the entities that inhabit it.
@@ -10,7 +16,7 @@ import victory.engine.graphics.Screen;
  * @author Victoria Lacroix
  *
  */
-public class MapEngine implements GUI {
+public class MapEngine implements GUI, Cacheable, MapListener {
     public final int    TILE_WIDTH, TILE_HEIGHT;
     public final int    SCREEN_WIDTH, SCREEN_HEIGHT;
 
@@ -19,9 +25,9 @@ public class MapEngine implements GUI {
      */
     private double animCounter = 0;
     /**
-     * Tile animation reset. Resets the animation counter if it's equal to or greater than this.
+     * Tile animation reset, in seconds. Resets the animation counter if it's equal to or greater than this.
      */
-    private static final double COUNTER_RESET = 30;
+    private static final double COUNTER_RESET = 0.5;
 
     /**
      * Camera Coordinates, used in drawing.
@@ -47,6 +53,70 @@ public class MapEngine implements GUI {
      */
     private Map         loadedMap;
 
+    /**
+     * Spatial index of the entities, rebuilt once per tick, and the queue of
+     * entities the camera can see.
+     */
+    private SpatialGrid grid;
+    private RenderQueue renderQueue;
+    private boolean     gridDirty       = true;
+
+    /**
+     * Whether anything visible changed since the last draw.
+     */
+    private boolean     changed         = true;
+
+    /**
+     * Id given to the next entity added that does not have one.
+     */
+    private int         nextId          = 1;
+
+    /**
+     * Told when entities move through the map's triggers.
+     */
+    private ArrayList<TriggerListener> triggerListeners = new ArrayList<TriggerListener>();
+
+    /**
+     * Map to switch to once it has loaded, and where the entity in control
+     * arrives on it.
+     */
+    private Future<Map> nextMap;
+    private double      warpX, warpY;
+    /**
+     * Where entities left behind by a warp wait, or null to drop them.
+     */
+    private MapCache    maps;
+
+    /**
+     * Saved ticks to rewind to, or null if rollback is off.
+     */
+    private Rollback    rollback;
+
+    /**
+     * Particles over the map, made when first asked for.
+     */
+    private ParticleSystem particles;
+    private static final int MAX_PARTICLES = 1 << 16;
+
+    /**
+     * Ray caster over the loaded map, made when first asked for.
+     */
+    private RayCaster   rays;
+
+    /**
+     * Pathfinder over the loaded map, made when first asked for.
+     */
+    private Pathfinder  paths;
+
+    /**
+     * Scripts that belong to no entity, such as cutscenes.
+     */
+    private ScriptRunner scripts = new ScriptRunner();
+    /**
+     * Where entities' scripts come from, so saves can start them again.
+     */
+    private ScriptLibrary library;
+
     public MapEngine(int screenWidth, int screenHeight, Map startmap) {
         SCREEN_WIDTH = screenWidth;
         SCREEN_HEIGHT = screenHeight;
@@ -61,6 +131,10 @@ public class MapEngine implements GUI {
         entities = new Entity[32];
 
         loadedMap = startmap;
+        loadedMap.addListener(this);
+        grid = new SpatialGrid(loadedMap.MAP_WIDTH * loadedMap.TILE_WIDTH,
+                loadedMap.MAP_HEIGHT * loadedMap.TILE_HEIGHT, 64);
+        renderQueue = new RenderQueue(entities.length);
     }
 
     /**
@@ -68,14 +142,21 @@ public class MapEngine implements GUI {
      * @param e
      */
     public void addEntity(Entity e) {
-        if(manyEntities <= entities.length) {
+        if(manyEntities < entities.length) {
             int i;
             for(i = 0; entities[i] != null; i++);
             entities[i] = e;
+            e.world = this;
+            e.triggerTile = -1;
+            if(e.id == 0) {
+                e.id = nextId++;
+            }
             manyEntities++;
             if(cameraman == null){
                 cameraman = e; // attaches camera if it is null.
             }
+            gridDirty = true;
+            changed = true;
         } else {
             System.err.println("Entites full in MapEngine.");
         }
@@ -89,6 +170,8 @@ public class MapEngine implements GUI {
         if(manyEntities > 0) {
             entities[i] = entities[--manyEntities];
             entities[manyEntities] = null;
+            gridDirty = true;
+            changed = true;
         }
     }
 
@@ -105,6 +188,99 @@ public class MapEngine implements GUI {
         removeEntity(i);
     }
 
+    /**
+     * Removes every entity, and detaches the camera and input from them.
+     */
+    public void clearEntities() {
+        for(int i = 0; i < entities.length; ++i) {
+            entities[i] = null;
+        }
+        manyEntities = 0;
+        cameraman = null;
+        director = null;
+        gridDirty = true;
+        changed = true;
+    }
+
+    /**
+     * @return how many entities are on the map.
+     */
+    public int getEntityCount() {
+        return manyEntities;
+    }
+
+    /**
+     * @return how many entities the map can hold.
+     */
+    public int getEntityCapacity() {
+        return entities.length;
+    }
+
+    /**
+     * @param i index, from 0 to getEntityCount() - 1
+     * @return the entity at that index
+     */
+    public Entity getEntity(int i) {
+        return entities[i];
+    }
+
+    /**
+     * @param e
+     * @return the index of e, or -1 if it is not on the map.
+     */
+    public int indexOf(Entity e) {
+        for(int i = 0; i < manyEntities; ++i) {
+            if(entities[i] == e) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return index of the entity the camera follows, or -1.
+     */
+    public int getCameraIndex() {
+        return indexOf(cameraman);
+    }
+
+    /**
+     * @return index of the entity in control, or -1.
+     */
+    public int getInputIndex() {
+        return indexOf(director);
+    }
+
+    public int getCameraX() {
+        return camX;
+    }
+
+    public int getCameraY() {
+        return camY;
+    }
+
+    public void setCamera(int x, int y) {
+        camX = x;
+        camY = y;
+        changed = true;
+    }
+
+    /**
+     * @return the map that is loaded.
+     */
+    public Map getMap() {
+        return loadedMap;
+    }
+
+    /**
+     * @param id
+     * @return the entity with that id, or null.
+     */
+    public Entity getEntityById(int id) {
+        for(int i = 0; i < manyEntities; ++i) {
+            if(entities[i].id == id) return entities[i];
+        }
+        return null;
+    }
+
     /**
      * Attaches control of the camera to
      *
@@ -129,8 +305,13 @@ public class MapEngine implements GUI {
     /**
      * Updates the entities logic, then collision, and then algorithms (velocity
      * etc).
+     * @param delta seconds passed
      */
     public void update(double delta) {
+        finishWarp();
+
+        scripts.update(delta);
+
         // Logic, animation of entities.
         for(int i = 0; i < entities.length; i++) {
             if(entities[i] != null) {
@@ -143,20 +324,22 @@ public class MapEngine implements GUI {
         // Physics update of entities
         for(int i = 0; i < entities.length; i++) {
             if(entities[i] != null){
-                entities[i].nextFrame(delta);
+                entities[i].nextFrame(delta, loadedMap.cmap);
+                changed |= entities[i].changed;
             }
         }
 
-        //following
-        camX = (int)(cameraman.getX() - SCREEN_WIDTH / 2 + cameraman.getWidth() / 2);
-        camY = (int)(cameraman.getY() - SCREEN_HEIGHT / 2 + cameraman.getHeight() / 2);
-        //fix out-of-bounds
-        camX = (camX < 0) ? 0 : camX;
-        camX = (camX + SCREEN_WIDTH > loadedMap.MAP_WIDTH * loadedMap.TILE_WIDTH)
-                ? loadedMap.MAP_WIDTH * loadedMap.TILE_WIDTH - SCREEN_WIDTH : camX;
-        camY = (camY < 0) ? 0 : camY;
-        camY = (camY + SCREEN_HEIGHT > loadedMap.MAP_HEIGHT * loadedMap.TILE_HEIGHT)
-                ? loadedMap.MAP_HEIGHT * loadedMap.TILE_HEIGHT - SCREEN_HEIGHT : camY;
+        if(particles != null && particles.size() > 0) {
+            particles.update(delta);
+            changed = true;
+        }
+
+        follow();
+        // Generated maps make the chunks that are about to be seen.
+        loadedMap.prepare(camX, camY, SCREEN_WIDTH, SCREEN_HEIGHT);
+        changed |= loadedMap.updateLighting();
+
+        fireTriggers();
 
         for(int i = 0; i < manyEntities; ++i) {
             if(entities[i].getGarbage()){
@@ -169,7 +352,304 @@ public class MapEngine implements GUI {
         if(animCounter >= COUNTER_RESET) {
             animCounter -= COUNTER_RESET; //cycle again. We subtract by the reset to make animation smoother.
             loadedMap.animate();
+            changed = true;
+        }
+
+        rebuildGrid();
+    }
+
+    /**
+     * Starts keeping the last few ticks so the engine can be rewound to them.
+     * Turns on the map's undo log.
+     * @param ticks how many ticks to keep
+     */
+    public void enableRollback(int ticks) {
+        rollback = new Rollback(ticks, entities.length);
+        loadedMap.setUndoLogging(true);
+    }
+
+    /**
+     * Saves the state of every entity, the camera and the map as tick
+     * 'tick', over the oldest saved tick. Call this between updates.
+     * @param tick
+     */
+    public void saveTick(int tick) {
+        if(rollback == null) return;
+        int s = rollback.slot(tick);
+        Entity[] members = rollback.members[s];
+        for(int i = 0; i < manyEntities; ++i) {
+            members[i] = entities[i];
+            entities[i].saveState(rollback.state[s], i * Entity.STATE_SIZE);
         }
+        for(int i = manyEntities; i < rollback.counts[s]; ++i) {
+            members[i] = null;
+        }
+        rollback.counts[s] = manyEntities;
+        rollback.camX[s] = camX;
+        rollback.camY[s] = camY;
+        rollback.cameraIndex[s] = getCameraIndex();
+        rollback.inputIndex[s] = getInputIndex();
+        rollback.animCounter[s] = animCounter;
+        rollback.animFrame[s] = loadedMap.getAnimationFrame();
+        rollback.undoMark[s] = loadedMap.getUndoMark();
+        rollback.ticks[s] = tick;
+        loadedMap.forgetUndo(rollback.oldestMark());
+    }
+
+    /**
+     * Puts the engine back the way it was when a tick was saved. Entities
+     * removed since come back, and entities added since are dropped. Ticks
+     * saved after this one are forgotten, since they are about to be
+     * simulated again.
+     * @param tick
+     * @return false if that tick is not saved any more.
+     */
+    public boolean rewindTo(int tick) {
+        if(rollback == null) return false;
+        int s = rollback.slot(tick);
+        if(rollback.ticks[s] != tick || !loadedMap.undoTo(rollback.undoMark[s])) {
+            return false;
+        }
+        for(int i = 0; i < manyEntities; ++i) {
+            entities[i] = null;
+        }
+        manyEntities = rollback.counts[s];
+        for(int i = 0; i < manyEntities; ++i) {
+            entities[i] = rollback.members[s][i];
+            entities[i].loadState(rollback.state[s], i * Entity.STATE_SIZE);
+        }
+        cameraman = (rollback.cameraIndex[s] < 0) ? null : entities[rollback.cameraIndex[s]];
+        director = (rollback.inputIndex[s] < 0) ? null : entities[rollback.inputIndex[s]];
+        camX = rollback.camX[s];
+        camY = rollback.camY[s];
+        animCounter = rollback.animCounter[s];
+        loadedMap.setAnimationFrame(rollback.animFrame[s]);
+        rollback.dropAfter(tick);
+        rebuildGrid();
+        changed = true;
+        return true;
+    }
+
+    /**
+     * Keeps the entities left behind by warps in a cache, and brings them
+     * back when their map is entered again. Without one, they are dropped.
+     */
+    public void setMapCache(MapCache c) {
+        maps = c;
+    }
+
+    /**
+     * Switches to another map at the start of the first tick after it has
+     * loaded. Only the entity in control comes along; the others stay on
+     * the old map, in the MapCache if there is one.
+     * @param next map to switch to, usually from a MapCache
+     * @param x where the entity in control arrives, in pixels
+     * @param y where the entity in control arrives, in pixels
+     */
+    public void warp(Future<Map> next, double x, double y) {
+        nextMap = next;
+        warpX = x;
+        warpY = y;
+    }
+
+    /**
+     * Makes a pending warp happen, if its map is ready. Never waits for it.
+     */
+    private void finishWarp() {
+        if(nextMap == null || !nextMap.isDone()) return;
+        Map next;
+        try {
+            next = nextMap.get();
+        } catch(InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+            nextMap = null;
+            return;
+        }
+        nextMap = null;
+        Map previous = loadedMap;
+        setMap(next);
+        if(director != null) {
+            Entity traveller = director;
+            Entity[] left = new Entity[manyEntities - 1];
+            for(int i = 0, j = 0; i < manyEntities; ++i) {
+                if(entities[i] != traveller) left[j++] = entities[i];
+            }
+            clearEntities();
+            addEntity(traveller);
+            director = traveller;
+            traveller.setPosition(warpX, warpY);
+            if(maps != null) {
+                maps.keepEntities(previous, left);
+                for(Entity e : maps.takeEntities(next)) {
+                    addEntity(e);
+                }
+            }
+        }
+        follow();
+        loadedMap.prepare(camX, camY, SCREEN_WIDTH, SCREEN_HEIGHT);
+    }
+
+    /**
+     * Puts another map in place of the loaded one, keeping the entities.
+     * Saved rollback ticks are forgotten, since they belong to the old map.
+     */
+    public void setMap(Map next) {
+        loadedMap.removeListener(this);
+        if(paths != null) {
+            loadedMap.removeListener(paths);
+            paths = null;
+        }
+        if(rollback != null) {
+            loadedMap.setUndoLogging(false);
+            rollback.dropAfter(Integer.MIN_VALUE);
+            next.setUndoLogging(true);
+        }
+        loadedMap = next;
+        loadedMap.addListener(this);
+        grid = new SpatialGrid(loadedMap.MAP_WIDTH * loadedMap.TILE_WIDTH,
+                loadedMap.MAP_HEIGHT * loadedMap.TILE_HEIGHT, 64);
+        for(int i = 0; i < manyEntities; ++i) {
+            entities[i].triggerTile = -1;
+        }
+        rays = null;
+        if(particles != null) {
+            particles.clear();
+            particles.setCollision(loadedMap.cmap, particles.getBounce());
+        }
+        rebuildGrid();
+        changed = true;
+    }
+
+    /**
+     * @return the particles drawn over this engine's map. They bounce off of
+     *         the map's blocked tiles.
+     */
+    public ParticleSystem getParticles() {
+        if(particles == null) {
+            particles = new ParticleSystem(MAX_PARTICLES);
+            particles.setCollision(loadedMap.cmap, 0.5);
+        }
+        return particles;
+    }
+
+    /**
+     * @return the scripts run on this engine every tick, apart from those
+     *         of its entities.
+     */
+    public ScriptRunner getScripts() {
+        return scripts;
+    }
+
+    /**
+     * @return the library entities' scripts come from, or null.
+     */
+    public ScriptLibrary getScriptLibrary() {
+        return library;
+    }
+
+    public void setScriptLibrary(ScriptLibrary l) {
+        library = l;
+    }
+
+    /**
+     * @return a ray caster for line of sight on the loaded map.
+     */
+    public RayCaster getRayCaster() {
+        if(rays == null) {
+            rays = new RayCaster(loadedMap.cmap);
+        }
+        return rays;
+    }
+
+    /**
+     * @return a pathfinder over the loaded map.
+     */
+    public Pathfinder getPathfinder() {
+        if(paths == null) {
+            paths = new Pathfinder(loadedMap);
+        }
+        return paths;
+    }
+
+    public void addTriggerListener(TriggerListener l) {
+        triggerListeners.add(l);
+    }
+
+    public void removeTriggerListener(TriggerListener l) {
+        triggerListeners.remove(l);
+    }
+
+    /**
+     * Tells the trigger listeners which triggers each entity entered, stayed
+     * in and left. An entity is in the triggers that cover the tile under
+     * its center. Every entity is looked at every tick, since staying in a
+     * trigger is reported each tick, but only against the triggers of its
+     * tile last tick and its tile now, never the whole layer.
+     */
+    private void fireTriggers() {
+        TriggerLayer layer = loadedMap.getTriggers();
+        if(layer.size() == 0 || triggerListeners.isEmpty()) return;
+        for(int i = 0; i < manyEntities; ++i) {
+            Entity e = entities[i];
+            int was = e.triggerTile;
+            int now = layer.tileAt(e.getX() + e.getWidth() / 2.0, e.getY() + e.getHeight() / 2.0);
+            e.triggerTile = now;
+            // Both tiles' lists are in ascending order, so walking them
+            // together sorts out who left, who stayed and who arrived.
+            int a = (was < 0) ? 0 : layer.start(was), aEnd = (was < 0) ? 0 : layer.end(was);
+            int b = (now < 0) ? 0 : layer.start(now), bEnd = (now < 0) ? 0 : layer.end(now);
+            while(a < aEnd || b < bEnd) {
+                int ta = (a < aEnd) ? layer.tileTrigger(a) : Integer.MAX_VALUE;
+                int tb = (b < bEnd) ? layer.tileTrigger(b) : Integer.MAX_VALUE;
+                Trigger t = layer.get(Math.min(ta, tb));
+                for(int l = 0; l < triggerListeners.size(); ++l) {
+                    if(ta == tb) {
+                        triggerListeners.get(l).triggerStayed(e, t);
+                    } else if(ta < tb) {
+                        triggerListeners.get(l).triggerExited(e, t);
+                    } else {
+                        triggerListeners.get(l).triggerEntered(e, t);
+                    }
+                }
+                if(ta <= tb) a++;
+                if(tb <= ta) b++;
+            }
+        }
+    }
+
+    /**
+     * Re-indexes every entity by its current position.
+     */
+    private void rebuildGrid() {
+        grid.clear();
+        for(int i = 0; i < manyEntities; ++i) {
+            grid.insert(i, entities[i].getX(), entities[i].getY(),
+                    entities[i].getWidth(), entities[i].getHeight());
+        }
+        gridDirty = false;
+    }
+
+    /**
+     * Moves the camera to the entity it is attached to, keeping it inside the
+     * map, and makes sure the map around it is ready.
+     */
+    public void follow() {
+        if(cameraman == null) return;
+        int lastCamX = camX, lastCamY = camY;
+        //following
+        camX = (int)(cameraman.getX() - SCREEN_WIDTH / 2 + cameraman.getWidth() / 2);
+        camY = (int)(cameraman.getY() - SCREEN_HEIGHT / 2 + cameraman.getHeight() / 2);
+        //fix out-of-bounds
+        camX = (camX < 0) ? 0 : camX;
+        camX = (camX + SCREEN_WIDTH > loadedMap.MAP_WIDTH * loadedMap.TILE_WIDTH)
+                ? loadedMap.MAP_WIDTH * loadedMap.TILE_WIDTH - SCREEN_WIDTH : camX;
+        camY = (camY < 0) ? 0 : camY;
+        camY = (camY + SCREEN_HEIGHT > loadedMap.MAP_HEIGHT * loadedMap.TILE_HEIGHT)
+                ? loadedMap.MAP_HEIGHT * loadedMap.TILE_HEIGHT - SCREEN_HEIGHT : camY;
+        changed |= camX != lastCamX || camY != lastCamY;
+        loadedMap.prepare(camX, camY, SCREEN_WIDTH, SCREEN_HEIGHT);
+        loadedMap.reveal((int)(cameraman.getX() + cameraman.getWidth() / 2) / loadedMap.TILE_WIDTH,
+                (int)(cameraman.getY() + cameraman.getHeight() / 2) / loadedMap.TILE_HEIGHT);
     }
 
     /**
@@ -177,19 +657,16 @@ public class MapEngine implements GUI {
      * @param buttonManager where to buttons from
      */
     public int control(KeyStateManager buttonManager) {
+        if(director == null) return 0;
         director.control(buttonManager);
         return 0;
     }
 
     /**
-     * Handles the collision of all entities within eachother.
+     * Handles the collision of all entities within eachother. Collision with
+     * tiles happens as entities move, in nextFrame().
      */
     public void handleCollision() {
-        for(int i = 0; i < entities.length; i++) {
-            if(entities[i] != null) {
-                entities[i].checkCollision(loadedMap.cmap);
-            }
-        }
         for(int i = 0; i < manyEntities; ++i) {
             for(int j = 0; j < manyEntities; ++j) {
                 if(i != j) {
@@ -201,11 +678,41 @@ public class MapEngine implements GUI {
         }
     }
 
+    @Override
+    public void tileChanged(int x, int y) {
+        changed = true;
+    }
+
+    @Override
+    public void regionChanged(int x, int y, int w, int h) {
+        changed = true;
+    }
+
+    @Override
+    public boolean hasChanged() {
+        return changed;
+    }
+
     @Override
     public void draw(int sx, int sy, Screen s) {
+        changed = false;
         loadedMap.draw(-camX, -camY, s);
-        for(int i = 0; i < manyEntities; i++) {
-            entities[i].draw((int)entities[i].getX() - camX, (int)entities[i].getY() - camY, s);
+        if(gridDirty) {
+            rebuildGrid();
+        }
+        // Only what the camera sees, back to front. Each entity gets its own
+        // depth, since they can overlap.
+        renderQueue.gather(grid, entities, camX, camY, s.getScreenWidth(), s.getScreenHeight());
+        for(int i = 0; i < renderQueue.size(); i++) {
+            Entity e = entities[renderQueue.get(i)];
+            s.setDepth(i + 1);
+            e.draw((int)e.getX() - camX, (int)e.getY() - camY, s);
+        }
+        s.setDepth(renderQueue.size() + 1);
+        loadedMap.drawOverhead(-camX, -camY, s);
+        s.setDepth(renderQueue.size() + 2);
+        if(particles != null) {
+            particles.draw(camX, camY, s);
         }
 
         // Draw our director if they are an instance of ScreenController.
@@ -0,0 +1,24 @@
+package victory.engine.world;
+
+/**
+ * Something that needs to know when tiles on a Map change.
+ * @author Victoria Lacroix
+ */
+public interface MapListener {
+    /**
+     * Called after a tile (and its collision permission) has been changed.
+     * @param x tile coord
+     * @param y tile coord
+     */
+    public void tileChanged(int x, int y);
+
+    /**
+     * Called after a whole area of tiles has been filled in at once, such as
+     * when terrain is generated.
+     * @param x tile coord of the area
+     * @param y tile coord of the area
+     * @param w width of the area, in tiles
+     * @param h height of the area, in tiles
+     */
+    public void regionChanged(int x, int y, int w, int h);
+}
@@ -0,0 +1,117 @@
+package victory.engine.world;
+
+import victory.engine.graphics.SpriteSheet;
+import victory.engine.script.ScriptInstance;
+
+/**
+ * An entity whose behavior comes from a script, run once a tick.
+ *
+ * @author Victoria Lacroix
+ */
+public class NPCEntity extends Entity {
+    /**
+     * How fast NPCs walk routes, in pixels per second.
+     */
+    public static final double  WALK_SPEED  = 60;
+
+    private ScriptInstance script;
+    /**
+     * Points left to walk through, as x, y pairs, and the script waiting
+     * for the walk to end.
+     */
+    private double[]        route;
+    private int             routeStep;
+    private ScriptInstance  walker;
+
+    /**
+     * An NPC with no script, which stands still until it is given one.
+     * @param x
+     * @param y
+     */
+    public NPCEntity(double x, double y) {
+        super(16, 16, new SpriteSheet("td-char.png"));
+        sprite.setIndex(0, 0);
+        this.xpos = x;
+        this.ypos = y;
+    }
+
+    /**
+     * Gives the NPC a script to run, replacing the one it had.
+     * @param s an instance that belongs to this NPC, or null for none
+     */
+    public void setScript(ScriptInstance s) {
+        script = s;
+    }
+
+    public ScriptInstance getScript() {
+        return script;
+    }
+
+    /**
+     * Walks through some points, in order, in straight lines.
+     * @param points x, y pairs of where to put the NPC, in pixels
+     * @param s script to resume with 1 once the last point is reached, or
+     *          null
+     */
+    public void walk(double[] points, ScriptInstance s) {
+        route = points;
+        routeStep = 0;
+        walker = s;
+    }
+
+    /**
+     * @return whether the NPC is walking a route.
+     */
+    public boolean isWalking() {
+        return route != null;
+    }
+
+    @Override
+    public void update(double delta) {
+        if(script != null) {
+            script.run(delta);
+        }
+        if(route != null) {
+            steer(delta);
+        }
+    }
+
+    /**
+     * Heads for the next point of the route, moving on to the one after it
+     * once it is within a tick's walk.
+     */
+    private void steer(double delta) {
+        double dx = route[routeStep] - xpos, dy = route[routeStep + 1] - ypos;
+        double reach = WALK_SPEED * delta;
+        if(dx * dx + dy * dy <= reach * reach) {
+            setPosition(route[routeStep], route[routeStep + 1]);
+            routeStep += 2;
+            if(routeStep >= route.length) {
+                xvel = yvel = 0;
+                route = null;
+                ScriptInstance s = walker;
+                walker = null;
+                if(s != null) {
+                    s.resume(1);
+                }
+                return;
+            }
+            dx = route[routeStep] - xpos;
+            dy = route[routeStep + 1] - ypos;
+        }
+        double d = Math.sqrt(dx * dx + dy * dy);
+        xvel = dx / d * WALK_SPEED;
+        yvel = dy / d * WALK_SPEED;
+        if(Math.abs(dy) >= Math.abs(dx)) direction = (dy > 0) ? 0 : 1;
+        else direction = (dx < 0) ? 2 : 3;
+    }
+
+    @Override
+    public void onCollide(Entity other) {
+    }
+
+    @Override
+    public boolean getGarbage() {
+        return false;
+    }
+}
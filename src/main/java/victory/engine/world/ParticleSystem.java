@@ -0,0 +1,274 @@
+package victory.engine.world;
+
+import victory.engine.graphics.DrawList;
+import victory.engine.graphics.Screen;
+
+/**
+ * A pool of small, short-lived dots: sparks, rain, dust, hit effects.
+ * Particles are not entities. They never touch each other, and they are kept
+ * one field per array, so a tick is one pass over a few float arrays and
+ * nothing is allocated after the pool is built.
+ *
+ * Particles are drawn straight into the screen's pixels by a rasterizer,
+ * skipping those the camera cannot see.
+ *
+ * @author Victoria Lacroix
+ */
+public class ParticleSystem implements DrawList.Rasterizer {
+    private final float[]   x, y, vx, vy, life;
+    private final int[]     color;
+    private int             count           = 0;
+
+    /**
+     * Added to every particle's y velocity, in pixels per second squared.
+     */
+    private float           gravity         = 0;
+    /**
+     * What is left of a particle's velocity after a second.
+     */
+    private float           drag            = 1;
+    /**
+     * Tiles particles bounce off of, or null to let them fly through.
+     */
+    private CollisionMap    cmap;
+    /**
+     * What is left of a particle's velocity after bouncing. Below zero,
+     * particles die when they hit a tile instead.
+     */
+    private float           bounce          = 0.5f;
+    private int             size            = 1;
+
+    /**
+     * State of the random numbers used for bursts.
+     */
+    private long            seed            = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Where the camera was at the last draw().
+     */
+    private int             camX, camY;
+
+    /**
+     * Creates an empty pool.
+     * @param capacity most particles alive at once
+     */
+    public ParticleSystem(int capacity) {
+        x = new float[capacity];
+        y = new float[capacity];
+        vx = new float[capacity];
+        vy = new float[capacity];
+        life = new float[capacity];
+        color = new int[capacity];
+    }
+
+    /**
+     * Adds a particle.
+     * @param px x coord, in pixels
+     * @param py y coord, in pixels
+     * @param pvx x velocity, in pixels per second
+     * @param pvy y velocity, in pixels per second
+     * @param seconds how long it lives
+     * @param c color
+     * @return false if the pool is full.
+     */
+    public boolean spawn(double px, double py, double pvx, double pvy, double seconds, int c) {
+        if(count == x.length) return false;
+        int i = count++;
+        x[i] = (float)px;
+        y[i] = (float)py;
+        vx[i] = (float)pvx;
+        vy[i] = (float)pvy;
+        life[i] = (float)seconds;
+        color[i] = c;
+        return true;
+    }
+
+    /**
+     * Adds particles flying out of a point in random directions, at up to a
+     * speed, living up to a number of seconds.
+     * @param px x coord, in pixels
+     * @param py y coord, in pixels
+     * @param n how many
+     * @param speed fastest speed, in pixels per second
+     * @param seconds longest life
+     * @param c color
+     * @return how many were added before the pool was full.
+     */
+    public int burst(double px, double py, int n, double speed, double seconds, int c) {
+        for(int k = 0; k < n; ++k) {
+            double a = random() * 2 * Math.PI;
+            double v = random() * speed;
+            if(!spawn(px, py, Math.cos(a) * v, Math.sin(a) * v, seconds * (0.5 + random() * 0.5), c)) {
+                return k;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return a random number from 0 to 1.
+     */
+    private double random() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 7;
+        seed ^= seed << 17;
+        return (seed >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Moves every particle, bounces them off tiles, and removes the ones
+     * whose time is up.
+     * @param delta seconds passed
+     */
+    public void update(double delta) {
+        float d = (float)delta;
+        float g = gravity * d;
+        float k = (drag == 1) ? 1 : (float)Math.pow(drag, delta);
+        CollisionMap c = cmap;
+        int i = 0;
+        while(i < count) {
+            float l = life[i] - d;
+            if(l <= 0) {
+                remove(i);
+                continue;
+            }
+            life[i] = l;
+            float nvx = vx[i] * k, nvy = (vy[i] + g) * k;
+            float nx = x[i] + nvx * d, ny = y[i] + nvy * d;
+            if(c != null) {
+                int tx = (int)Math.floor(nx / c.TILE_WIDTH), ty = (int)Math.floor(y[i] / c.TILE_HEIGHT);
+                if(c.isBlocked(tx, ty)) {
+                    if(bounce < 0) {
+                        remove(i);
+                        continue;
+                    }
+                    nx = x[i];
+                    nvx = -nvx * bounce;
+                }
+                tx = (int)Math.floor(nx / c.TILE_WIDTH);
+                ty = (int)Math.floor(ny / c.TILE_HEIGHT);
+                if(c.isBlocked(tx, ty)) {
+                    if(bounce < 0) {
+                        remove(i);
+                        continue;
+                    }
+                    ny = y[i];
+                    nvy = -nvy * bounce;
+                }
+            }
+            x[i] = nx;
+            y[i] = ny;
+            vx[i] = nvx;
+            vy[i] = nvy;
+            ++i;
+        }
+    }
+
+    /**
+     * Removes a particle by moving the last one into its place.
+     */
+    private void remove(int i) {
+        int last = --count;
+        x[i] = x[last];
+        y[i] = y[last];
+        vx[i] = vx[last];
+        vy[i] = vy[last];
+        life[i] = life[last];
+        color[i] = color[last];
+    }
+
+    /**
+     * Removes every particle.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * @return how many particles are alive.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return most particles alive at once.
+     */
+    public int capacity() {
+        return x.length;
+    }
+
+    /**
+     * @param g pixels per second added to the y velocity every second
+     */
+    public void setGravity(double g) {
+        gravity = (float)g;
+    }
+
+    /**
+     * @param k what is left of the velocity after a second, 0 to 1
+     */
+    public void setDrag(double k) {
+        drag = (float)k;
+    }
+
+    /**
+     * Makes particles bounce off of blocked tiles.
+     * @param c tiles to bounce off of, or null for none
+     * @param b what is left of the velocity after a bounce, or below zero to
+     *          have particles die when they hit a tile
+     */
+    public void setCollision(CollisionMap c, double b) {
+        cmap = c;
+        bounce = (float)b;
+    }
+
+    public CollisionMap getCollision() {
+        return cmap;
+    }
+
+    public double getBounce() {
+        return bounce;
+    }
+
+    /**
+     * @param s width and height each particle is drawn at, in pixels
+     */
+    public void setSize(int s) {
+        size = Math.max(1, s);
+    }
+
+    /**
+     * Queues the particles to be drawn on a Screen.
+     * @param cx camera x coord, in pixels
+     * @param cy camera y coord, in pixels
+     * @param s
+     */
+    public void draw(int cx, int cy, Screen s) {
+        if(count == 0) return;
+        camX = cx;
+        camY = cy;
+        s.raster(this);
+    }
+
+    @Override
+    public void rasterize(int[] pixels, int width, int height, int y0, int y1) {
+        int n = count, sz = size;
+        for(int i = 0; i < n; ++i) {
+            int px = (int)x[i] - camX, py = (int)y[i] - camY;
+            if(px + sz <= 0 || px >= width || py + sz <= y0 || py >= y1) continue;
+            int c = color[i];
+            if(sz == 1) {
+                pixels[px + (py * width)] = c;
+                continue;
+            }
+            int left = Math.max(0, px), right = Math.min(width, px + sz);
+            int bottom = Math.min(y1, py + sz);
+            for(int row = Math.max(y0, py); row < bottom; ++row) {
+                for(int col = left; col < right; ++col) {
+                    pixels[col + (row * width)] = c;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,606 @@
+package victory.engine.world;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Navigation service over a Map's CollisionMap.
+ *
+ * Short hops are answered with a plain A* search. Long routes go through a
+ * cluster graph (HPA*): the map is cut into square clusters, the walkable
+ * openings between neighbouring clusters become graph nodes, and a route is
+ * planned over those nodes before being refined into tiles one cluster at a
+ * time. When many entities share a goal, a FlowField answers all of them at
+ * once.
+ *
+ * Found paths are cached. Changing a tile only throws away the cached paths
+ * and cluster data that touch the tile's cluster.
+ *
+ * Paths are arrays of tiles packed as x + y * width, from the start tile to
+ * the goal tile inclusive. They are shared with the cache and must not be
+ * modified.
+ *
+ * @author Victoria Lacroix
+ */
+public class Pathfinder implements MapListener {
+    /**
+     * Width and height of a cluster, in tiles.
+     */
+    public static final int     CLUSTER_SIZE    = 8;
+    /**
+     * Routes shorter than this (in tiles, manhattan) skip the cluster graph.
+     */
+    private static final int    SHORT_RANGE     = 2 * CLUSTER_SIZE;
+    private static final int    CACHE_SIZE      = 256;
+    private static final int    FLOW_FIELDS     = 8;
+
+    private final CollisionMap  cmap;
+    private final int           width, height;
+
+    /**
+     * Search scratch shared by every query. A tile's entries are only valid
+     * when its stamp matches the current search, so nothing is ever cleared.
+     */
+    private int[]               gScore, fScore, parent, stamp, closed;
+    private int                 searchId        = 0;
+    private int[]               heap;
+    private int                 heapSize;
+    private int[]               queue;
+
+    /**
+     * Cluster graph. Links are pairs of tiles (inside, outside) on the east
+     * and south borders of each cluster. Nodes are the inside ends of every
+     * link touching the cluster, with the path length between each pair of
+     * them.
+     */
+    private final int           clustersX, clustersY;
+    private int[][]             eastLinks, southLinks;
+    private int[]               eastCount, southCount;
+    private int[][]             nodes;
+    private int[][][]           partners;
+    private int[][]             nodeCosts;
+    private int[]               nodeSlot;
+    private boolean[]           linksDirty, nodesDirty;
+    private boolean             anyDirty        = true;
+
+    private LinkedHashMap<Long, CachedPath>     cache;
+    private LinkedHashMap<Integer, FlowField>   flowFields;
+
+    /**
+     * Creates a pathfinder for map m and starts listening to its changes.
+     * @param m
+     */
+    public Pathfinder(Map m) {
+        cmap = m.cmap;
+        width = cmap.WIDTH;
+        height = cmap.HEIGHT;
+        int n = width * height;
+        gScore = new int[n];
+        fScore = new int[n];
+        parent = new int[n];
+        stamp = new int[n];
+        closed = new int[n];
+        heap = new int[64];
+        queue = new int[n];
+
+        clustersX = (width + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        clustersY = (height + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        int c = clustersX * clustersY;
+        eastLinks = new int[c][];
+        southLinks = new int[c][];
+        eastCount = new int[c];
+        southCount = new int[c];
+        nodes = new int[c][0];
+        partners = new int[c][0][];
+        nodeCosts = new int[c][0];
+        nodeSlot = new int[n];
+        for(int i = 0; i < n; ++i) {
+            nodeSlot[i] = -1;
+        }
+        linksDirty = new boolean[c];
+        nodesDirty = new boolean[c];
+        for(int i = 0; i < c; ++i) {
+            linksDirty[i] = nodesDirty[i] = true;
+        }
+
+        cache = new LinkedHashMap<Long, CachedPath>(CACHE_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(java.util.Map.Entry<Long, CachedPath> e) {
+                return size() > CACHE_SIZE;
+            }
+        };
+        flowFields = new LinkedHashMap<Integer, FlowField>(FLOW_FIELDS, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(java.util.Map.Entry<Integer, FlowField> e) {
+                return size() > FLOW_FIELDS;
+            }
+        };
+        m.addListener(this);
+    }
+
+    /**
+     * Finds a path between two tiles.
+     * @param sx start tile coord
+     * @param sy start tile coord
+     * @param gx goal tile coord
+     * @param gy goal tile coord
+     * @return the path, or null if there is none.
+     */
+    public int[] findPath(int sx, int sy, int gx, int gy) {
+        if(!walkable(sx, sy) || !walkable(gx, gy)) return null;
+        int start = sx + (sy * width);
+        int goal = gx + (gy * width);
+        long key = ((long)start << 32) | goal;
+        CachedPath hit = cache.get(key);
+        if(hit != null) return hit.tiles;
+
+        int[] path = null;
+        if(Math.abs(gx - sx) + Math.abs(gy - sy) <= SHORT_RANGE) {
+            path = search(start, goal,
+                    Math.min(sx, gx) - CLUSTER_SIZE, Math.min(sy, gy) - CLUSTER_SIZE,
+                    Math.max(sx, gx) + CLUSTER_SIZE, Math.max(sy, gy) + CLUSTER_SIZE);
+        }
+        if(path == null) {
+            path = hierarchicalSearch(start, goal);
+        }
+        if(path != null) {
+            cache.put(key, new CachedPath(path, clustersOf(path)));
+        }
+        return path;
+    }
+
+    /**
+     * Gets a shared flow field towards a goal tile.
+     * @param gx goal tile coord
+     * @param gy goal tile coord
+     * @return the field, or null if the goal is out of bounds.
+     */
+    public FlowField getFlowField(int gx, int gy) {
+        if(gx < 0 || gy < 0 || gx >= width || gy >= height) return null;
+        int goal = gx + (gy * width);
+        FlowField f = flowFields.get(goal);
+        if(f == null) {
+            f = new FlowField(cmap, gx, gy);
+            flowFields.put(goal, f);
+        }
+        return f;
+    }
+
+    @Override
+    public void tileChanged(int x, int y) {
+        int cx = x / CLUSTER_SIZE, cy = y / CLUSTER_SIZE;
+        int c = cx + (cy * clustersX);
+        // Links on a border depend on the tiles on both sides of it.
+        linksDirty[c] = true;
+        nodesDirty[c] = true;
+        if(cx > 0) { linksDirty[c - 1] = true; nodesDirty[c - 1] = true; }
+        if(cy > 0) { linksDirty[c - clustersX] = true; nodesDirty[c - clustersX] = true; }
+        if(cx < clustersX - 1) nodesDirty[c + 1] = true;
+        if(cy < clustersY - 1) nodesDirty[c + clustersX] = true;
+        anyDirty = true;
+
+        Iterator<CachedPath> it = cache.values().iterator();
+        while(it.hasNext()) {
+            if(it.next().touches(c)) it.remove();
+        }
+        for(FlowField f : flowFields.values()) {
+            f.invalidate();
+        }
+    }
+
+    @Override
+    public void regionChanged(int x, int y, int w, int h) {
+        // One tile per cluster dirties the same things as every tile in it.
+        for(int cy = y / CLUSTER_SIZE; cy <= (y + h - 1) / CLUSTER_SIZE; ++cy) {
+            for(int cx = x / CLUSTER_SIZE; cx <= (x + w - 1) / CLUSTER_SIZE; ++cx) {
+                tileChanged(cx * CLUSTER_SIZE, cy * CLUSTER_SIZE);
+            }
+        }
+    }
+
+    private boolean walkable(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height && cmap.getAt(x, y);
+    }
+
+    private int clusterOf(int t) {
+        return ((t % width) / CLUSTER_SIZE) + ((t / width) / CLUSTER_SIZE) * clustersX;
+    }
+
+    private int[] clustersOf(int[] path) {
+        int[] res = new int[path.length];
+        int n = 0;
+        for(int i = 0; i < path.length; ++i) {
+            int c = clusterOf(path[i]);
+            if(n == 0 || res[n - 1] != c) res[n++] = c;
+        }
+        int[] trimmed = new int[n];
+        System.arraycopy(res, 0, trimmed, 0, n);
+        return trimmed;
+    }
+
+    // ------------------------------------------------------------------
+    // Grid searches
+    // ------------------------------------------------------------------
+
+    /**
+     * A* between two tiles, only visiting tiles inside the given bounds.
+     * @return the path, or null.
+     */
+    private int[] search(int start, int goal, int x0, int y0, int x1, int y1) {
+        x0 = Math.max(x0, 0); y0 = Math.max(y0, 0);
+        x1 = Math.min(x1, width - 1); y1 = Math.min(y1, height - 1);
+        int gx = goal % width, gy = goal / width;
+        ++searchId;
+        heapSize = 0;
+        open(start, 0, -1, gx, gy);
+        while(heapSize > 0) {
+            int t = pop();
+            if(closed[t] == searchId) continue;
+            closed[t] = searchId;
+            if(t == goal) return trace(start, goal);
+            int x = t % width, y = t / width;
+            int g = gScore[t] + 1;
+            if(x > x0 && cmap.getAt(x - 1, y)) relax(t - 1, g, t, gx, gy);
+            if(x < x1 && cmap.getAt(x + 1, y)) relax(t + 1, g, t, gx, gy);
+            if(y > y0 && cmap.getAt(x, y - 1)) relax(t - width, g, t, gx, gy);
+            if(y < y1 && cmap.getAt(x, y + 1)) relax(t + width, g, t, gx, gy);
+        }
+        return null;
+    }
+
+    /**
+     * Breadth-first distances from a tile to everything reachable inside the
+     * given bounds. Results are read back with distance().
+     */
+    private void flood(int source, int x0, int y0, int x1, int y1) {
+        ++searchId;
+        int head = 0, tail = 0;
+        stamp[source] = searchId;
+        gScore[source] = 0;
+        queue[tail++] = source;
+        while(head < tail) {
+            int t = queue[head++];
+            int x = t % width, y = t / width;
+            int g = gScore[t] + 1;
+            if(x > x0) tail = reach(t - 1, g, tail);
+            if(x < x1) tail = reach(t + 1, g, tail);
+            if(y > y0) tail = reach(t - width, g, tail);
+            if(y < y1) tail = reach(t + width, g, tail);
+        }
+    }
+
+    private int reach(int t, int g, int tail) {
+        if(stamp[t] == searchId || !cmap.getAt(t % width, t / width)) return tail;
+        stamp[t] = searchId;
+        gScore[t] = g;
+        queue[tail] = t;
+        return tail + 1;
+    }
+
+    private int distance(int t) {
+        return (stamp[t] == searchId) ? gScore[t] : -1;
+    }
+
+    private void open(int t, int g, int from, int gx, int gy) {
+        stamp[t] = searchId;
+        gScore[t] = g;
+        parent[t] = from;
+        fScore[t] = g + Math.abs(t % width - gx) + Math.abs(t / width - gy);
+        push(t);
+    }
+
+    private void relax(int t, int g, int from, int gx, int gy) {
+        if(closed[t] == searchId) return;
+        if(stamp[t] != searchId || g < gScore[t]) {
+            open(t, g, from, gx, gy);
+        }
+    }
+
+    private int[] trace(int start, int goal) {
+        int n = 1;
+        for(int t = goal; t != start; t = parent[t]) ++n;
+        int[] path = new int[n];
+        for(int t = goal; n > 0; t = parent[t]) {
+            path[--n] = t;
+        }
+        return path;
+    }
+
+    /**
+     * Binary min-heap on fScore. Stale entries are left in and skipped when
+     * popped, which is cheaper than a decrease-key.
+     */
+    private void push(int t) {
+        if(heapSize == heap.length) {
+            int[] grown = new int[heap.length * 2];
+            System.arraycopy(heap, 0, grown, 0, heap.length);
+            heap = grown;
+        }
+        int i = heapSize++;
+        while(i > 0) {
+            int p = (i - 1) >> 1;
+            if(fScore[heap[p]] <= fScore[t]) break;
+            heap[i] = heap[p];
+            i = p;
+        }
+        heap[i] = t;
+    }
+
+    private int pop() {
+        int top = heap[0];
+        int last = heap[--heapSize];
+        int i = 0;
+        while(true) {
+            int c = (i << 1) + 1;
+            if(c >= heapSize) break;
+            if(c + 1 < heapSize && fScore[heap[c + 1]] < fScore[heap[c]]) ++c;
+            if(fScore[heap[c]] >= fScore[last]) break;
+            heap[i] = heap[c];
+            i = c;
+        }
+        heap[i] = last;
+        return top;
+    }
+
+    // ------------------------------------------------------------------
+    // Cluster graph
+    // ------------------------------------------------------------------
+
+    private int clusterX0(int c) { return (c % clustersX) * CLUSTER_SIZE; }
+    private int clusterY0(int c) { return (c / clustersX) * CLUSTER_SIZE; }
+    private int clusterX1(int c) { return Math.min(clusterX0(c) + CLUSTER_SIZE, width) - 1; }
+    private int clusterY1(int c) { return Math.min(clusterY0(c) + CLUSTER_SIZE, height) - 1; }
+
+    private int[] boundedPath(int from, int to, int c) {
+        return search(from, to, clusterX0(c), clusterY0(c), clusterX1(c), clusterY1(c));
+    }
+
+    /**
+     * Brings every dirty cluster up to date.
+     */
+    private void refresh() {
+        if(!anyDirty) return;
+        for(int c = 0; c < linksDirty.length; ++c) {
+            if(linksDirty[c]) rebuildLinks(c);
+        }
+        for(int c = 0; c < nodesDirty.length; ++c) {
+            if(nodesDirty[c]) rebuildNodes(c);
+        }
+        anyDirty = false;
+    }
+
+    /**
+     * Finds the openings on the east and south borders of cluster c. Each run
+     * of open tiles along a border becomes a single link at its middle.
+     */
+    private void rebuildLinks(int c) {
+        int x0 = clusterX0(c), y0 = clusterY0(c), x1 = clusterX1(c), y1 = clusterY1(c);
+        eastCount[c] = 0;
+        southCount[c] = 0;
+        if(x1 + 1 < width) {
+            int run = -1;
+            for(int y = y0; y <= y1 + 1; ++y) {
+                boolean open = y <= y1 && cmap.getAt(x1, y) && cmap.getAt(x1 + 1, y);
+                if(open && run < 0) {
+                    run = y;
+                } else if(!open && run >= 0) {
+                    int my = (run + y - 1) / 2;
+                    eastLinks[c] = addLink(eastLinks[c], eastCount[c]++,
+                            x1 + (my * width), x1 + 1 + (my * width));
+                    run = -1;
+                }
+            }
+        }
+        if(y1 + 1 < height) {
+            int run = -1;
+            for(int x = x0; x <= x1 + 1; ++x) {
+                boolean open = x <= x1 && cmap.getAt(x, y1) && cmap.getAt(x, y1 + 1);
+                if(open && run < 0) {
+                    run = x;
+                } else if(!open && run >= 0) {
+                    int mx = (run + x - 1) / 2;
+                    southLinks[c] = addLink(southLinks[c], southCount[c]++,
+                            mx + (y1 * width), mx + ((y1 + 1) * width));
+                    run = -1;
+                }
+            }
+        }
+        linksDirty[c] = false;
+    }
+
+    private int[] addLink(int[] links, int at, int inside, int outside) {
+        if(links == null) {
+            links = new int[8];
+        } else if(links.length < (at + 1) * 2) {
+            int[] grown = new int[links.length * 2];
+            System.arraycopy(links, 0, grown, 0, links.length);
+            links = grown;
+        }
+        links[at * 2] = inside;
+        links[at * 2 + 1] = outside;
+        return links;
+    }
+
+    /**
+     * Collects the nodes of cluster c from the links around it, then measures
+     * the path length between every pair of them.
+     */
+    private void rebuildNodes(int c) {
+        for(int i = 0; i < nodes[c].length; ++i) {
+            nodeSlot[nodes[c][i]] = -1;
+        }
+        int cx = c % clustersX, cy = c / clustersX;
+        NodeList found = new NodeList();
+        for(int i = 0; i < eastCount[c]; ++i) {
+            found.add(eastLinks[c][i * 2], eastLinks[c][i * 2 + 1]);
+        }
+        for(int i = 0; i < southCount[c]; ++i) {
+            found.add(southLinks[c][i * 2], southLinks[c][i * 2 + 1]);
+        }
+        if(cx > 0) {
+            int west = c - 1;
+            for(int i = 0; i < eastCount[west]; ++i) {
+                found.add(eastLinks[west][i * 2 + 1], eastLinks[west][i * 2]);
+            }
+        }
+        if(cy > 0) {
+            int north = c - clustersX;
+            for(int i = 0; i < southCount[north]; ++i) {
+                found.add(southLinks[north][i * 2 + 1], southLinks[north][i * 2]);
+            }
+        }
+        int n = found.size;
+        nodes[c] = new int[n];
+        partners[c] = new int[n][];
+        System.arraycopy(found.tiles, 0, nodes[c], 0, n);
+        System.arraycopy(found.links, 0, partners[c], 0, n);
+        for(int i = 0; i < n; ++i) {
+            nodeSlot[nodes[c][i]] = i;
+        }
+
+        int[] costs = new int[n * n];
+        int x0 = clusterX0(c), y0 = clusterY0(c), x1 = clusterX1(c), y1 = clusterY1(c);
+        for(int i = 0; i < n; ++i) {
+            flood(nodes[c][i], x0, y0, x1, y1);
+            for(int j = 0; j < n; ++j) {
+                costs[i * n + j] = distance(nodes[c][j]);
+            }
+        }
+        nodeCosts[c] = costs;
+        nodesDirty[c] = false;
+    }
+
+    /**
+     * Plans over the cluster graph, then refines every hop into tiles.
+     */
+    private int[] hierarchicalSearch(int start, int goal) {
+        refresh();
+        int sc = clusterOf(start), gc = clusterOf(goal);
+        if(sc == gc) {
+            int[] direct = boundedPath(start, goal, sc);
+            if(direct != null) return direct;
+        }
+
+        // How far the start and goal are from the nodes of their clusters.
+        int[] startCost = new int[nodes[sc].length];
+        flood(start, clusterX0(sc), clusterY0(sc), clusterX1(sc), clusterY1(sc));
+        for(int i = 0; i < startCost.length; ++i) {
+            startCost[i] = distance(nodes[sc][i]);
+        }
+        int[] goalCost = new int[nodes[gc].length];
+        flood(goal, clusterX0(gc), clusterY0(gc), clusterX1(gc), clusterY1(gc));
+        for(int i = 0; i < goalCost.length; ++i) {
+            goalCost[i] = distance(nodes[gc][i]);
+        }
+
+        int gx = goal % width, gy = goal / width;
+        ++searchId;
+        heapSize = 0;
+        for(int i = 0; i < startCost.length; ++i) {
+            if(startCost[i] >= 0) open(nodes[sc][i], startCost[i], -1, gx, gy);
+        }
+        int best = Integer.MAX_VALUE, last = -1;
+        while(heapSize > 0) {
+            int t = pop();
+            if(closed[t] == searchId) continue;
+            if(fScore[t] >= best) break;
+            closed[t] = searchId;
+            int c = clusterOf(t);
+            int k = nodeSlot[t];
+            if(c == gc && goalCost[k] >= 0 && gScore[t] + goalCost[k] < best) {
+                best = gScore[t] + goalCost[k];
+                last = t;
+            }
+            int n = nodes[c].length;
+            for(int j = 0; j < n; ++j) {
+                int cost = nodeCosts[c][k * n + j];
+                if(j != k && cost >= 0) relax(nodes[c][j], gScore[t] + cost, t, gx, gy);
+            }
+            for(int p : partners[c][k]) {
+                relax(p, gScore[t] + 1, t, gx, gy);
+            }
+        }
+        if(last < 0) return null;
+
+        int hops = 0;
+        for(int t = last; t != -1; t = parent[t]) ++hops;
+        int[] chain = new int[hops];
+        for(int t = last; t != -1; t = parent[t]) {
+            chain[--hops] = t;
+        }
+
+        // Refine. Every segment starts where the previous one ended.
+        int[][] segments = new int[chain.length + 1][];
+        segments[0] = boundedPath(start, chain[0], sc);
+        for(int i = 1; i < chain.length; ++i) {
+            int a = chain[i - 1], b = chain[i];
+            int c = clusterOf(a);
+            segments[i] = (c != clusterOf(b)) ? new int[] { a, b } : boundedPath(a, b, c);
+        }
+        segments[chain.length] = boundedPath(chain[chain.length - 1], goal, gc);
+        int length = 1;
+        for(int i = 0; i < segments.length; ++i) {
+            length += segments[i].length - 1;
+        }
+        int[] path = new int[length];
+        int n = 0;
+        for(int i = 0; i < segments.length; ++i) {
+            for(int j = (n == 0) ? 0 : 1; j < segments[i].length; ++j) {
+                path[n++] = segments[i][j];
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Growable list of nodes and their partners, used while rebuilding.
+     */
+    private static class NodeList {
+        int[]   tiles   = new int[16];
+        int[][] links   = new int[16][];
+        int     size    = 0;
+
+        void add(int tile, int partner) {
+            for(int i = 0; i < size; ++i) {
+                if(tiles[i] == tile) {
+                    int[] p = new int[links[i].length + 1];
+                    System.arraycopy(links[i], 0, p, 0, links[i].length);
+                    p[links[i].length] = partner;
+                    links[i] = p;
+                    return;
+                }
+            }
+            if(size == tiles.length) {
+                int[] t = new int[size * 2];
+                int[][] l = new int[size * 2][];
+                System.arraycopy(tiles, 0, t, 0, size);
+                System.arraycopy(links, 0, l, 0, size);
+                tiles = t;
+                links = l;
+            }
+            tiles[size] = tile;
+            links[size] = new int[] { partner };
+            ++size;
+        }
+    }
+
+    /**
+     * A found path, with the clusters it passes through.
+     */
+    private static class CachedPath {
+        final int[] tiles;
+        final int[] clusters;
+
+        CachedPath(int[] t, int[] c) {
+            tiles = t;
+            clusters = c;
+        }
+
+        boolean touches(int c) {
+            for(int i = 0; i < clusters.length; ++i) {
+                if(clusters[i] == c) return true;
+            }
+            return false;
+        }
+    }
+}
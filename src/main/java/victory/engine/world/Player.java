@@ -1,5 +1,7 @@
 package victory.engine.world;
 
+import java.io.File;
+
 import victory.engine.graphics.SpriteSheet;
 import victory.engine.gui.*;
 import victory.engine.gui.KeyStateManager.Button;
@@ -12,6 +14,16 @@ import victory.engine.gui.KeyStateManager.Button;
  */
 public class Player extends Entity {
 
+    /**
+     * Where the "Save" menu choice writes to.
+     */
+    public static final String SAVE_FILE = "save.dat";
+
+    /**
+     * Walking speed, in pixels per second.
+     */
+    public static final double SPEED = 60;
+
     public Player(double x, double y) {
         super(16, 16, new SpriteSheet("td-char.png"));
         sprite.setIndex(0, 0);
@@ -37,20 +49,20 @@ public class Player extends Entity {
 
     public int control(KeyStateManager input) {
         if(input.isButtonDown(Button.DOWN) && !input.isButtonDown(Button.UP)) {
-            yvel = 1;
+            yvel = SPEED;
             direction = 0;
         } else if(input.isButtonDown(Button.UP) && !input.isButtonDown(Button.DOWN)) {
-            yvel = -1;
+            yvel = -SPEED;
             direction = 1;
         } else {
             yvel = 0;
         }
 
         if(input.isButtonDown(Button.LEFT) && !input.isButtonDown(Button.RIGHT)) {
-            xvel = -1;
+            xvel = -SPEED;
             direction = 2;
         } else if(input.isButtonDown(Button.RIGHT) && !input.isButtonDown(Button.LEFT)) {
-            xvel = 1;
+            xvel = SPEED;
             direction = 3;
         } else {
             xvel = 0;
@@ -58,7 +70,14 @@ public class Player extends Entity {
 
         if(input.wasButtonPressed(Button.CANCEL)) {
             yvel = xvel = yacc = xacc = 0;
-            GUIEngine.addGUI(new Menu(0, 0, "Party", "Inventory", "Config", "Save"));
+            GUIEngine.addGUI(new Menu(0, 0, "Party", "Inventory", "Config", "Save") {
+                @Override
+                protected void fire(int choice) {
+                    if(choice == 3 && world != null) {
+                        Snapshot.saveAsync(world, new File(SAVE_FILE));
+                    }
+                }
+            });
         }
 
         return 0;
@@ -0,0 +1,44 @@
+package victory.engine.world;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends the entity in control through "warp" triggers to the map they lead
+ * to. A warp has a "map" property, and "x" and "y" for the tile to arrive
+ * on. The maps every warp leads to are loaded ahead of time, so walking
+ * through one only waits if it is taken right after arriving.
+ *
+ * @author Victoria Lacroix
+ */
+public class Portals implements TriggerListener {
+    public static final String  WARP    = "warp";
+
+    private final MapEngine     engine;
+    private final MapCache      cache;
+
+    public Portals(MapEngine e, MapCache c) {
+        engine = e;
+        cache = c;
+        cache.preloadPortals(e.getMap());
+    }
+
+    @Override
+    public void triggerEntered(Entity e, Trigger t) {
+        if(!WARP.equals(t.type) || engine.getInputIndex() < 0
+                || engine.getEntity(engine.getInputIndex()) != e) {
+            return;
+        }
+        CompletableFuture<Map> next = cache.preload(t);
+        if(next == null) return;
+        cache.setCurrent(t.getProperty("map"));
+        Map m = engine.getMap();
+        engine.warp(next, t.getProperty("x", 0) * m.TILE_WIDTH, t.getProperty("y", 0) * m.TILE_HEIGHT);
+        next.thenAccept(cache::preloadPortals);
+    }
+
+    @Override
+    public void triggerStayed(Entity e, Trigger t) {}
+
+    @Override
+    public void triggerExited(Entity e, Trigger t) {}
+}
@@ -0,0 +1,217 @@
+package victory.engine.world;
+
+import java.util.stream.IntStream;
+
+/**
+ * Casts rays through the blocked tiles of a CollisionMap. A ray walks the
+ * grid one tile border at a time (a DDA), so it tests every tile it passes
+ * through exactly once, and none it does not, however long it is. Tiles are
+ * tested straight on the CollisionMap's bits.
+ *
+ * Coordinates and distances are in pixels, like entity coordinates. Tiles
+ * off the map block.
+ *
+ * @author Victoria Lacroix
+ */
+public class RayCaster {
+    /**
+     * Where a ray stopped.
+     */
+    public static class Hit {
+        /**
+         * Whether the ray hit a blocked tile before its end.
+         */
+        public boolean  hit;
+        /**
+         * Tile that was hit.
+         */
+        public int      tileX, tileY;
+        /**
+         * How far the ray went before it hit, or its whole length.
+         */
+        public double   distance;
+    }
+
+    /**
+     * Values per ray in castAll(): x, y, dx, dy, length.
+     */
+    public static final int     RAY_SIZE        = 5;
+    /**
+     * Values per line in lineOfSightAll(): x0, y0, x1, y1.
+     */
+    public static final int     LINE_SIZE       = 4;
+    /**
+     * Rays handed to a thread at a time in the batch casts. Below this many,
+     * a batch runs on the calling thread.
+     */
+    private static final int    BATCH           = 256;
+
+    private final CollisionMap  cmap;
+    private final long[]        open;
+    private final int           width, height;
+    private final double        tileWidth, tileHeight;
+
+    /**
+     * @param c collisions to cast against
+     */
+    public RayCaster(CollisionMap c) {
+        cmap = c;
+        open = c.bits();
+        width = c.WIDTH;
+        height = c.HEIGHT;
+        tileWidth = c.TILE_WIDTH;
+        tileHeight = c.TILE_HEIGHT;
+    }
+
+    /**
+     * @return the collisions this casts against.
+     */
+    public CollisionMap getCollisionMap() {
+        return cmap;
+    }
+
+    private boolean blocked(int x, int y) {
+        if(x < 0 || y < 0 || x >= width || y >= height) return true;
+        int i = x + (y * width);
+        return (open[i >>> 6] & (1L << i)) == 0;
+    }
+
+    /**
+     * Casts a ray until it hits a blocked tile or reaches its length.
+     * @param x start x coord
+     * @param y start y coord
+     * @param dx direction, need not be of length 1
+     * @param dy direction
+     * @param length furthest to cast
+     * @param out where to put the result
+     * @return whether a blocked tile was hit.
+     */
+    public boolean cast(double x, double y, double dx, double dy, double length, Hit out) {
+        long r = cast(x, y, dx, dy, length);
+        out.hit = r >= 0;
+        if(out.hit) {
+            int tile = (int)(r >>> 32);
+            out.tileX = tile % width;
+            out.tileY = tile / width;
+            out.distance = Float.intBitsToFloat((int)r);
+        } else {
+            out.tileX = out.tileY = -1;
+            out.distance = length;
+        }
+        return out.hit;
+    }
+
+    /**
+     * @return whether nothing blocks the straight line between two points.
+     */
+    public boolean lineOfSight(double x0, double y0, double x1, double y1) {
+        double dx = x1 - x0, dy = y1 - y0;
+        return cast(x0, y0, dx, dy, Math.sqrt(dx * dx + dy * dy)) < 0;
+    }
+
+    /**
+     * @return whether nothing blocks the line between the centers of two
+     *         entities.
+     */
+    public boolean lineOfSight(Entity a, Entity b) {
+        return lineOfSight(a.getX() + a.getWidth() / 2, a.getY() + a.getHeight() / 2,
+                b.getX() + b.getWidth() / 2, b.getY() + b.getHeight() / 2);
+    }
+
+    /**
+     * Walks a ray through the grid.
+     * @return -1 if nothing was hit, or the tile index in the high 32 bits
+     *         and the distance as float bits in the low 32.
+     */
+    private long cast(double x, double y, double dx, double dy, double length) {
+        int tx = (int)Math.floor(x / tileWidth), ty = (int)Math.floor(y / tileHeight);
+        if(blocked(tx, ty)) {
+            return hit(tx, ty, 0);
+        }
+        double len = Math.sqrt(dx * dx + dy * dy);
+        if(len == 0) return -1;
+        double ux = dx / len, uy = dy / len;
+        int stepX = (ux > 0) ? 1 : -1, stepY = (uy > 0) ? 1 : -1;
+        // Distance along the ray to the next column and row border, and
+        // between borders.
+        double nextX = (ux > 0) ? ((tx + 1) * tileWidth - x) / ux
+                : (ux < 0) ? (tx * tileWidth - x) / ux : Double.POSITIVE_INFINITY;
+        double nextY = (uy > 0) ? ((ty + 1) * tileHeight - y) / uy
+                : (uy < 0) ? (ty * tileHeight - y) / uy : Double.POSITIVE_INFINITY;
+        double stepDX = (ux == 0) ? Double.POSITIVE_INFINITY : tileWidth / Math.abs(ux);
+        double stepDY = (uy == 0) ? Double.POSITIVE_INFINITY : tileHeight / Math.abs(uy);
+        while(true) {
+            double t;
+            if(nextX < nextY) {
+                t = nextX;
+                nextX += stepDX;
+                tx += stepX;
+            } else {
+                t = nextY;
+                nextY += stepDY;
+                ty += stepY;
+            }
+            if(t > length) return -1;
+            if(blocked(tx, ty)) {
+                return hit(tx, ty, t);
+            }
+        }
+    }
+
+    private long hit(int tx, int ty, double t) {
+        // Rays that leave the map hit the border tile just off of it, which
+        // has no index; report the last tile on the map instead.
+        tx = (tx < 0) ? 0 : (tx >= width) ? width - 1 : tx;
+        ty = (ty < 0) ? 0 : (ty >= height) ? height - 1 : ty;
+        return ((long)(tx + (ty * width)) << 32) | (Float.floatToIntBits((float)t) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Casts many rays at once, spread over every core.
+     * @param rays RAY_SIZE values per ray: x, y, dx, dy, length
+     * @param n how many rays
+     * @param tiles for each ray, the index (x + y * width) of the tile it hit,
+     *        or -1 if it hit nothing
+     * @param distances for each ray, how far it went
+     */
+    public void castAll(final double[] rays, int n, final int[] tiles, final double[] distances) {
+        runBatches(n, i -> {
+            int r = i * RAY_SIZE;
+            long h = cast(rays[r], rays[r + 1], rays[r + 2], rays[r + 3], rays[r + 4]);
+            tiles[i] = (h < 0) ? -1 : (int)(h >>> 32);
+            distances[i] = (h < 0) ? rays[r + 4] : Float.intBitsToFloat((int)h);
+        });
+    }
+
+    /**
+     * Tests many lines of sight at once, spread over every core.
+     * @param lines LINE_SIZE values per line: x0, y0, x1, y1
+     * @param n how many lines
+     * @param clear for each line, whether nothing blocks it
+     */
+    public void lineOfSightAll(final double[] lines, int n, final boolean[] clear) {
+        runBatches(n, i -> {
+            int l = i * LINE_SIZE;
+            clear[i] = lineOfSight(lines[l], lines[l + 1], lines[l + 2], lines[l + 3]);
+        });
+    }
+
+    private interface Job {
+        public void run(int i);
+    }
+
+    private static void runBatches(final int n, final Job job) {
+        if(n <= BATCH) {
+            for(int i = 0; i < n; ++i) {
+                job.run(i);
+            }
+            return;
+        }
+        IntStream.range(0, (n + BATCH - 1) / BATCH).parallel().forEach(b -> {
+            int end = Math.min(n, (b + 1) * BATCH);
+            for(int i = b * BATCH; i < end; ++i) {
+                job.run(i);
+            }
+        });
+    }
+}
@@ -0,0 +1,113 @@
+package victory.engine.world;
+
+/**
+ * Collects the entities that are inside the camera and orders them by depth.
+ * In a top-down view, something standing lower on the screen is closer to the
+ * viewer, so entities are drawn in order of their bottom edge.
+ *
+ * @author Victoria Lacroix
+ */
+public class RenderQueue {
+    private int[]   slots, keys;
+    private int[]   sortedSlots, sortedKeys;
+    private int[]   counts  = new int[256];
+    private int     size    = 0;
+
+    public RenderQueue(int capacity) {
+        slots = new int[capacity];
+        keys = new int[capacity];
+        sortedSlots = new int[capacity];
+        sortedKeys = new int[capacity];
+    }
+
+    /**
+     * Fills the queue with the entities that intersect the camera rectangle,
+     * sorted back-to-front.
+     * @param grid spatial index of the entities
+     * @param entities entity slots the grid refers to
+     * @param camX camera x, in pixels
+     * @param camY camera y, in pixels
+     * @param w camera width, in pixels
+     * @param h camera height, in pixels
+     * @return how many entities are queued
+     */
+    public int gather(SpatialGrid grid, Entity[] entities, int camX, int camY, int w, int h) {
+        if(slots.length < entities.length) {
+            slots = new int[entities.length];
+            keys = new int[entities.length];
+            sortedSlots = new int[entities.length];
+            sortedKeys = new int[entities.length];
+        }
+        int found = grid.query(camX, camY, w, h, sortedSlots);
+        size = 0;
+        for(int i = 0; i < found; ++i) {
+            Entity e = entities[sortedSlots[i]];
+            if(e == null) continue;
+            // the grid is coarse, so test the real bounds.
+            if(e.getX() + e.getWidth() <= camX || e.getX() >= camX + w
+                    || e.getY() + e.getHeight() <= camY || e.getY() >= camY + h) {
+                continue;
+            }
+            slots[size] = sortedSlots[i];
+            keys[size] = (int)e.getY() + e.getHeight();
+            ++size;
+        }
+        sort();
+        return size;
+    }
+
+    /**
+     * @return how many entities are queued
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param i position in draw order
+     * @return the entity slot to draw at that position
+     */
+    public int get(int i) {
+        return slots[i];
+    }
+
+    /**
+     * Two-pass radix sort on the low 16 bits of each key, relative to the
+     * smallest key. Keys of visible entities never span more than a screen
+     * and a sprite, so 16 bits is plenty. Both passes are stable, which keeps
+     * entities on the same row in storage order.
+     */
+    private void sort() {
+        if(size < 2) return;
+        int min = keys[0];
+        for(int i = 1; i < size; ++i) {
+            min = (keys[i] < min) ? keys[i] : min;
+        }
+        for(int i = 0; i < size; ++i) {
+            int k = keys[i] - min;
+            keys[i] = (k > 0xFFFF) ? 0xFFFF : k;
+        }
+        radixPass(keys, slots, sortedKeys, sortedSlots, 0);
+        radixPass(sortedKeys, sortedSlots, keys, slots, 8);
+    }
+
+    private void radixPass(int[] inKeys, int[] inSlots, int[] outKeys, int[] outSlots, int shift) {
+        for(int i = 0; i < counts.length; ++i) {
+            counts[i] = 0;
+        }
+        for(int i = 0; i < size; ++i) {
+            counts[(inKeys[i] >>> shift) & 0xFF]++;
+        }
+        int total = 0;
+        for(int i = 0; i < counts.length; ++i) {
+            int c = counts[i];
+            counts[i] = total;
+            total += c;
+        }
+        for(int i = 0; i < size; ++i) {
+            int at = counts[(inKeys[i] >>> shift) & 0xFF]++;
+            outKeys[at] = inKeys[i];
+            outSlots[at] = inSlots[i];
+        }
+    }
+}
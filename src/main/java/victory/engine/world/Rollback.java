@@ -0,0 +1,79 @@
+package victory.engine.world;
+
+/**
+ * Ring of saved MapEngine ticks, allocated up front. Each slot holds every
+ * entity's state in one flat array, which entities were on the map, the
+ * camera and animation counters, and a mark into the map's undo log; saving
+ * a tick only copies numbers into the slot.
+ *
+ * @author Victoria Lacroix
+ */
+class Rollback {
+    static final int    NONE    = Integer.MIN_VALUE;
+
+    final int[]         ticks;
+    final double[][]    state;
+    final Entity[][]    members;
+    final int[]         counts;
+    final int[]         camX, camY;
+    final int[]         cameraIndex, inputIndex;
+    final double[]      animCounter;
+    final int[]         animFrame;
+    final int[]         undoMark;
+
+    /**
+     * @param slots how many ticks to keep
+     * @param capacity how many entities the engine can hold
+     */
+    Rollback(int slots, int capacity) {
+        ticks = new int[slots];
+        state = new double[slots][capacity * Entity.STATE_SIZE];
+        members = new Entity[slots][capacity];
+        counts = new int[slots];
+        camX = new int[slots];
+        camY = new int[slots];
+        cameraIndex = new int[slots];
+        inputIndex = new int[slots];
+        animCounter = new double[slots];
+        animFrame = new int[slots];
+        undoMark = new int[slots];
+        for(int i = 0; i < slots; ++i) {
+            ticks[i] = NONE;
+        }
+    }
+
+    /**
+     * @return the slot for a tick, whether or not it holds that tick.
+     */
+    int slot(int tick) {
+        return Math.floorMod(tick, ticks.length);
+    }
+
+    /**
+     * @return the oldest undo mark any saved tick still needs.
+     */
+    int oldestMark() {
+        int oldest = Integer.MAX_VALUE;
+        for(int i = 0; i < ticks.length; ++i) {
+            if(ticks[i] != NONE) {
+                oldest = Math.min(oldest, undoMark[i]);
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Forgets every saved tick after this one.
+     */
+    void dropAfter(int tick) {
+        for(int i = 0; i < ticks.length; ++i) {
+            if(ticks[i] != NONE && ticks[i] > tick) {
+                ticks[i] = NONE;
+                for(int j = 0; j < counts[i]; ++j) {
+                    members[i][j] = null;
+                }
+                counts[i] = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package victory.engine.world;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import victory.engine.gui.GUIEngine;
+import victory.engine.script.ScriptInstance;
+import victory.engine.script.ScriptLibrary;
+
+/**
+ * A saved copy of a MapEngine: its entities, camera, the tiles that were
+ * edited since its map was built, and the names of the GUI layers that were
+ * open.
+ *
+ * capture() only copies what it needs on the calling thread: entity state and
+ * the edited tiles. Turning that into bytes and writing it out is done by
+ * saveAsync() on a background thread.
+ *
+ * @author Victoria Lacroix
+ */
+public class Snapshot {
+    private static final int    MAGIC       = 0x56534156; // "VSAV"
+    private static final int    VERSION     = 2;
+
+    /**
+     * Background thread that encodes and writes saves, one at a time.
+     */
+    private static final ExecutorService saver = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Snapshot saver");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private String      source;
+    private int         mapWidth, mapHeight;
+    private int         camX, camY, cameraIndex, inputIndex, animFrame;
+
+    private String[]    entityClasses;
+    private double[]    entityState;
+    /**
+     * Per entity, the script it runs ("" for none) and where the script was.
+     */
+    private String[]    scriptNames;
+    private int[]       scriptPositions;
+    private double[]    scriptSleeps;
+    private int[][]     scriptRegisters;
+
+    /**
+     * Edited tiles. Captures also carry what each tile was before it was
+     * edited, so tiles that were put back can be left out of the file.
+     */
+    private int[]       editIndex;
+    private short[]     editTile, editBaseTile;
+    private boolean[]   editPermission, editBasePermission;
+
+    private String[]    layers;
+
+    private Snapshot() {}
+
+    /**
+     * Copies the state of a MapEngine. Call this from the game thread.
+     * @param engine
+     * @return the copy
+     */
+    public static Snapshot capture(MapEngine engine) {
+        Snapshot s = new Snapshot();
+        Map map = engine.getMap();
+        s.source = map.getSource();
+        s.mapWidth = map.getWidth();
+        s.mapHeight = map.getHeight();
+        s.camX = engine.getCameraX();
+        s.camY = engine.getCameraY();
+        s.cameraIndex = engine.getCameraIndex();
+        s.inputIndex = engine.getInputIndex();
+        s.animFrame = map.getAnimationFrame();
+
+        int n = engine.getEntityCount();
+        s.entityClasses = new String[n];
+        s.entityState = new double[n * Entity.STATE_SIZE];
+        s.scriptNames = new String[n];
+        s.scriptPositions = new int[n];
+        s.scriptSleeps = new double[n];
+        s.scriptRegisters = new int[n][];
+        for(int i = 0; i < n; ++i) {
+            Entity e = engine.getEntity(i);
+            s.entityClasses[i] = e.getClass().getName();
+            e.saveState(s.entityState, i * Entity.STATE_SIZE);
+            ScriptInstance script = (e instanceof NPCEntity) ? ((NPCEntity)e).getScript() : null;
+            s.scriptNames[i] = (script == null) ? "" : script.getScript().getName();
+            s.scriptPositions[i] = (script == null) ? 0 : script.getPosition();
+            s.scriptSleeps[i] = (script == null) ? 0 : script.getSleep();
+            s.scriptRegisters[i] = (script == null) ? new int[0] : script.getRegisters();
+        }
+
+        int edits = map.getEditCount();
+        s.editIndex = new int[edits];
+        s.editTile = new short[edits];
+        s.editPermission = new boolean[edits];
+        s.editBaseTile = new short[edits];
+        s.editBasePermission = new boolean[edits];
+        map.copyEdits(s.editIndex, s.editTile, s.editPermission, s.editBaseTile, s.editBasePermission);
+
+        s.layers = new String[GUIEngine.size()];
+        for(int i = 0; i < s.layers.length; ++i) {
+            s.layers[i] = GUIEngine.get(i).getClass().getName();
+        }
+        return s;
+    }
+
+    /**
+     * Captures a MapEngine on this thread, then encodes and writes it to a
+     * file on the save thread. The file is written next to its destination
+     * and moved into place, so a crash never leaves half a save.
+     * @param engine
+     * @param file where to save
+     * @return the pending save
+     */
+    public static Future<?> saveAsync(MapEngine engine, final File file) {
+        final Snapshot s = capture(engine);
+        return saver.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    s.write(file);
+                } catch(IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Encodes and writes this snapshot to a file.
+     * @param file
+     * @throws IOException
+     */
+    public void write(File file) throws IOException {
+        ByteBuffer b = encode();
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            FileChannel ch = out.getChannel();
+            while(b.hasRemaining()) {
+                ch.write(b);
+            }
+            ch.force(false);
+        } finally {
+            out.close();
+        }
+        // Replaced in one step, so the old save is there until the new one is.
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads a snapshot from a file.
+     * @param file
+     * @return the snapshot
+     * @throws IOException if the file is not a snapshot.
+     */
+    public static Snapshot load(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel ch = in.getChannel();
+            ByteBuffer b = ByteBuffer.allocate((int)ch.size());
+            while(b.hasRemaining() && ch.read(b) >= 0);
+            b.flip();
+            return decode(b);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return this snapshot in the binary save format.
+     */
+    public ByteBuffer encode() {
+        byte[] src = (source == null) ? new byte[0] : source.getBytes(StandardCharsets.UTF_8);
+        byte[][] classes = new byte[entityClasses.length][];
+        byte[][] scripts = new byte[entityClasses.length][];
+        byte[][] names = new byte[layers.length][];
+        int kept = 0;
+        for(int i = 0; i < editIndex.length; ++i) {
+            if(edited(i)) kept++;
+        }
+        int size = 4 * 2 + 4 + src.length + 4 * 7;
+        size += 4;
+        for(int i = 0; i < classes.length; ++i) {
+            classes[i] = entityClasses[i].getBytes(StandardCharsets.UTF_8);
+            scripts[i] = scriptNames[i].getBytes(StandardCharsets.UTF_8);
+            size += 4 + classes[i].length + 8 * Entity.STATE_SIZE;
+            size += 4 + scripts[i].length + 4 + 8 + 4 + 4 * scriptRegisters[i].length;
+        }
+        size += 4 + kept * (4 + 2 + 1);
+        size += 4;
+        for(int i = 0; i < names.length; ++i) {
+            names[i] = layers[i].getBytes(StandardCharsets.UTF_8);
+            size += 4 + names[i].length;
+        }
+
+        ByteBuffer b = ByteBuffer.allocate(size);
+        b.putInt(MAGIC).putInt(VERSION);
+        b.putInt(src.length).put(src);
+        b.putInt(mapWidth).putInt(mapHeight);
+        b.putInt(camX).putInt(camY).putInt(cameraIndex).putInt(inputIndex).putInt(animFrame);
+
+        b.putInt(classes.length);
+        for(int i = 0; i < classes.length; ++i) {
+            b.putInt(classes[i].length).put(classes[i]);
+            for(int j = 0; j < Entity.STATE_SIZE; ++j) {
+                b.putDouble(entityState[i * Entity.STATE_SIZE + j]);
+            }
+            b.putInt(scripts[i].length).put(scripts[i]);
+            b.putInt(scriptPositions[i]).putDouble(scriptSleeps[i]).putInt(scriptRegisters[i].length);
+            for(int j = 0; j < scriptRegisters[i].length; ++j) {
+                b.putInt(scriptRegisters[i][j]);
+            }
+        }
+
+        b.putInt(kept);
+        for(int i = 0; i < editIndex.length; ++i) {
+            if(!edited(i)) continue;
+            b.putInt(editIndex[i]).putShort(editTile[i]).put((byte)(editPermission[i] ? 1 : 0));
+        }
+
+        b.putInt(names.length);
+        for(int i = 0; i < names.length; ++i) {
+            b.putInt(names[i].length).put(names[i]);
+        }
+        b.flip();
+        return b;
+    }
+
+    /**
+     * @return whether edit i still differs from the map as it was built.
+     */
+    private boolean edited(int i) {
+        return editBaseTile == null || editTile[i] != editBaseTile[i]
+                || editPermission[i] != editBasePermission[i];
+    }
+
+    /**
+     * Reads a snapshot from the binary save format.
+     * @param b
+     * @return the snapshot
+     * @throws IOException if b is not a snapshot.
+     */
+    public static Snapshot decode(ByteBuffer b) throws IOException {
+        try {
+            if(b.getInt() != MAGIC) throw new IOException("Not a save file.");
+            int version = b.getInt();
+            // Version 1 saves have no scripts; their NPCs come back without.
+            if(version != 1 && version != VERSION) throw new IOException("Unsupported save version.");
+            Snapshot s = new Snapshot();
+            String src = string(b);
+            s.source = src.isEmpty() ? null : src;
+            s.mapWidth = b.getInt();
+            s.mapHeight = b.getInt();
+            s.camX = b.getInt();
+            s.camY = b.getInt();
+            s.cameraIndex = b.getInt();
+            s.inputIndex = b.getInt();
+            s.animFrame = b.getInt();
+
+            int n = b.getInt();
+            s.entityClasses = new String[n];
+            s.entityState = new double[n * Entity.STATE_SIZE];
+            s.scriptNames = new String[n];
+            s.scriptPositions = new int[n];
+            s.scriptSleeps = new double[n];
+            s.scriptRegisters = new int[n][];
+            for(int i = 0; i < n; ++i) {
+                s.entityClasses[i] = string(b);
+                for(int j = 0; j < Entity.STATE_SIZE; ++j) {
+                    s.entityState[i * Entity.STATE_SIZE + j] = b.getDouble();
+                }
+                s.scriptNames[i] = "";
+                s.scriptRegisters[i] = new int[0];
+                if(version == 1) continue;
+                s.scriptNames[i] = string(b);
+                s.scriptPositions[i] = b.getInt();
+                s.scriptSleeps[i] = b.getDouble();
+                int regs = b.getInt();
+                if(regs < 0 || regs > b.remaining() / 4) throw new IOException("Save file is corrupt.");
+                s.scriptRegisters[i] = new int[regs];
+                for(int j = 0; j < regs; ++j) {
+                    s.scriptRegisters[i][j] = b.getInt();
+                }
+            }
+
+            int edits = b.getInt();
+            s.editIndex = new int[edits];
+            s.editTile = new short[edits];
+            s.editPermission = new boolean[edits];
+            for(int i = 0; i < edits; ++i) {
+                s.editIndex[i] = b.getInt();
+                s.editTile[i] = b.getShort();
+                s.editPermission[i] = b.get() != 0;
+            }
+
+            s.layers = new String[b.getInt()];
+            for(int i = 0; i < s.layers.length; ++i) {
+                s.layers[i] = string(b);
+            }
+            return s;
+        } catch(java.nio.BufferUnderflowException e) {
+            throw new IOException("Save file is truncated.");
+        }
+    }
+
+    private static String string(ByteBuffer b) {
+        byte[] bytes = new byte[b.getInt()];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Puts a MapEngine back into the saved state. Entities are rebuilt
+     * through their (double x, double y) constructor, and NPCs get their
+     * scripts back from the engine's ScriptLibrary, where they left off. Any
+     * GUI layers opened on top of the engine are closed. Call this from the
+     * game thread.
+     * @param engine
+     * @throws IOException if the save is for another map than the engine's,
+     *         or an entity cannot be rebuilt.
+     */
+    public void restore(MapEngine engine) throws IOException {
+        Map map = engine.getMap();
+        if(source == null ? map.getSource() != null : !source.equals(map.getSource())) {
+            throw new IOException("Save is for map " + source + ", not " + map.getSource() + ".");
+        }
+        if(map.getWidth() != mapWidth || map.getHeight() != mapHeight) {
+            throw new IOException("Save is for a " + mapWidth + "x" + mapHeight + " map.");
+        }
+
+        Entity[] rebuilt = new Entity[entityClasses.length];
+        for(int i = 0; i < rebuilt.length; ++i) {
+            try {
+                rebuilt[i] = (Entity)Class.forName(entityClasses[i])
+                        .getConstructor(double.class, double.class)
+                        .newInstance(entityState[i * Entity.STATE_SIZE], entityState[i * Entity.STATE_SIZE + 1]);
+            } catch(ReflectiveOperationException | ClassCastException e) {
+                throw new IOException("Cannot rebuild " + entityClasses[i], e);
+            }
+            rebuilt[i].loadState(entityState, i * Entity.STATE_SIZE);
+            if(!scriptNames[i].isEmpty() && rebuilt[i] instanceof NPCEntity) {
+                ScriptLibrary library = engine.getScriptLibrary();
+                ScriptInstance script = (library == null) ? null : library.start(scriptNames[i], rebuilt[i]);
+                if(script == null) {
+                    throw new IOException("Cannot rebuild script " + scriptNames[i] + " of " + entityClasses[i]);
+                }
+                script.restore(scriptPositions[i], scriptSleeps[i], scriptRegisters[i]);
+                ((NPCEntity)rebuilt[i]).setScript(script);
+            }
+        }
+
+        map.revertEdits();
+        for(int i = 0; i < editIndex.length; ++i) {
+            map.setTile(editIndex[i] % mapWidth, editIndex[i] / mapWidth, editTile[i], editPermission[i]);
+        }
+        map.setAnimationFrame(animFrame);
+
+        engine.clearEntities();
+        for(int i = 0; i < rebuilt.length; ++i) {
+            engine.addEntity(rebuilt[i]);
+        }
+        engine.attachCamera(cameraIndex);
+        engine.attachInput(inputIndex);
+        engine.setCamera(camX, camY);
+        GUIEngine.popTo(engine);
+    }
+
+    /**
+     * @return the file the saved map was loaded from, or null if it was
+     *         generated. Warp to that map before calling restore().
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return class names of the GUI layers that were open, bottom first.
+     */
+    public String[] getLayers() {
+        return layers;
+    }
+}
@@ -0,0 +1,134 @@
+package victory.engine.world;
+
+/**
+ * A uniform grid that buckets entity slots by the cells their bounds cover. It
+ * lets the engine ask "what overlaps this rectangle?" without walking every
+ * entity on the map.
+ *
+ * @author Victoria Lacroix
+ */
+public class SpatialGrid {
+    /**
+     * Size of a single cell, in pixels.
+     */
+    public final int    CELL_SIZE;
+    private final int   cellsX, cellsY;
+
+    /**
+     * Slots stored in each cell, and how many of them are in use.
+     */
+    private int[][]     cells;
+    private int[]       cellCounts;
+
+    /**
+     * Query stamp per slot. A slot that spans several cells is only reported
+     * once per query.
+     */
+    private int[]       marks;
+    private int         stamp           = 0;
+
+    /**
+     * Creates a grid covering an area of the given size.
+     * @param w width of the area, in pixels
+     * @param h height of the area, in pixels
+     * @param cell size of a cell, in pixels
+     */
+    public SpatialGrid(int w, int h, int cell) {
+        CELL_SIZE = cell;
+        cellsX = Math.max(1, (w + cell - 1) / cell);
+        cellsY = Math.max(1, (h + cell - 1) / cell);
+        cells = new int[cellsX * cellsY][];
+        cellCounts = new int[cellsX * cellsY];
+        for(int i = 0; i < cells.length; ++i) {
+            cells[i] = new int[4];
+        }
+        marks = new int[32];
+    }
+
+    /**
+     * Empties every cell. Cell storage is kept for the next rebuild.
+     */
+    public void clear() {
+        for(int i = 0; i < cellCounts.length; ++i) {
+            cellCounts[i] = 0;
+        }
+    }
+
+    /**
+     * Adds a slot to every cell that its bounds overlap. Bounds outside the
+     * grid are clamped to the edge cells.
+     * @param slot index to store
+     * @param x left edge, in pixels
+     * @param y top edge, in pixels
+     * @param w width, in pixels
+     * @param h height, in pixels
+     */
+    public void insert(int slot, double x, double y, int w, int h) {
+        if(slot >= marks.length) {
+            int[] grown = new int[Math.max(slot + 1, marks.length * 2)];
+            System.arraycopy(marks, 0, grown, 0, marks.length);
+            marks = grown;
+        }
+        int x0 = cellX((int)Math.floor(x));
+        int y0 = cellY((int)Math.floor(y));
+        int x1 = cellX((int)Math.floor(x) + w - 1);
+        int y1 = cellY((int)Math.floor(y) + h - 1);
+        for(int cy = y0; cy <= y1; ++cy) {
+            for(int cx = x0; cx <= x1; ++cx) {
+                int c = cx + (cy * cellsX);
+                if(cellCounts[c] == cells[c].length) {
+                    int[] grown = new int[cells[c].length * 2];
+                    System.arraycopy(cells[c], 0, grown, 0, cells[c].length);
+                    cells[c] = grown;
+                }
+                cells[c][cellCounts[c]++] = slot;
+            }
+        }
+    }
+
+    /**
+     * Finds every slot whose cells overlap a rectangle. Results are only as
+     * precise as the cell size; callers test the real bounds themselves.
+     * @param x left edge, in pixels
+     * @param y top edge, in pixels
+     * @param w width, in pixels
+     * @param h height, in pixels
+     * @param out array to write slots into
+     * @return how many slots were written to out
+     */
+    public int query(int x, int y, int w, int h, int[] out) {
+        if(++stamp == 0) {
+            // wrapped around; old stamps could collide with new ones.
+            for(int i = 0; i < marks.length; ++i) {
+                marks[i] = 0;
+            }
+            stamp = 1;
+        }
+        int x0 = cellX(x), y0 = cellY(y);
+        int x1 = cellX(x + w - 1), y1 = cellY(y + h - 1);
+        int found = 0;
+        for(int cy = y0; cy <= y1; ++cy) {
+            for(int cx = x0; cx <= x1; ++cx) {
+                int c = cx + (cy * cellsX);
+                for(int i = 0; i < cellCounts[c] && found < out.length; ++i) {
+                    int slot = cells[c][i];
+                    if(marks[slot] != stamp) {
+                        marks[slot] = stamp;
+                        out[found++] = slot;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private int cellX(int px) {
+        int c = (px < 0) ? 0 : px / CELL_SIZE;
+        return (c >= cellsX) ? cellsX - 1 : c;
+    }
+
+    private int cellY(int py) {
+        int c = (py < 0) ? 0 : py / CELL_SIZE;
+        return (c >= cellsY) ? cellsY - 1 : c;
+    }
+}
@@ -0,0 +1,84 @@
+package victory.engine.world;
+
+/**
+ * Seeded terrain generator. Any chunk of the world can be generated on its
+ * own, in any order and on any thread, and a chunk always comes out the same
+ * for the same seed. Everything is integer math so there is nothing that
+ * could differ between machines.
+ *
+ * The terrain is a side view: a ground line made from a few octaves of value
+ * noise, with ground below it and air above it.
+ *
+ * @author Victoria Lacroix
+ */
+public class TerrainGenerator {
+    /**
+     * Width and height of a chunk, in tiles.
+     */
+    public static final int     CHUNK_SIZE  = 16;
+
+    public static final short   AIR         = 0x00;
+    public static final short   GROUND      = 0x11;
+
+    /**
+     * Highest row the ground line can reach.
+     */
+    private static final int    TOP         = 12;
+    /**
+     * Wavelength (in tiles) and height (in rows) of each noise octave. Each
+     * octave adds less than its height, so the ground line ends up between
+     * TOP and TOP + 19.
+     */
+    private static final int[]  WAVELENGTHS = { 64, 32, 16, 8 };
+    private static final int[]  AMPLITUDES  = { 12, 6, 3, 2 };
+
+    public final long           SEED;
+
+    public TerrainGenerator(long seed) {
+        SEED = seed;
+    }
+
+    /**
+     * @param x tile column, which may be negative
+     * @return the first row of ground in that column
+     */
+    public int surfaceAt(int x) {
+        int h = TOP;
+        for(int o = 0; o < WAVELENGTHS.length; ++o) {
+            int wl = WAVELENGTHS[o];
+            int cell = Math.floorDiv(x, wl);
+            int frac = Math.floorMod(x, wl);
+            int a = lattice(cell, o);
+            int b = lattice(cell + 1, o);
+            int v = a + ((b - a) * frac) / wl; // 0 - 0xFFFF
+            h += (AMPLITUDES[o] * v) >> 16;
+        }
+        return h;
+    }
+
+    /**
+     * Fills in one chunk.
+     * @param cx chunk coord
+     * @param cy chunk coord
+     * @param out CHUNK_SIZE * CHUNK_SIZE tiles, row by row
+     */
+    public void generateChunk(int cx, int cy, short[] out) {
+        for(int lx = 0; lx < CHUNK_SIZE; ++lx) {
+            int surface = surfaceAt(cx * CHUNK_SIZE + lx);
+            for(int ly = 0; ly < CHUNK_SIZE; ++ly) {
+                out[lx + (ly * CHUNK_SIZE)] = (cy * CHUNK_SIZE + ly >= surface) ? GROUND : AIR;
+            }
+        }
+    }
+
+    /**
+     * @return a value from 0 to 0xFFFF for a lattice point of an octave.
+     */
+    private int lattice(int cell, int octave) {
+        long z = SEED + (cell * 0x9E3779B97F4A7C15L) + (octave * 0xC2B2AE3D27D4EB4FL);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (int)(z & 0xFFFF);
+    }
+}
@@ -0,0 +1,305 @@
+package victory.engine.world;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * One layer of tiles on a Map. Tile 0 is empty on every layer but the base.
+ *
+ * A layer keeps its tiles in the narrowest array that holds them: nothing
+ * at all while it is empty, a byte per tile while every tile is below 256,
+ * and a char per tile after that. It also counts the tiles set in each
+ * chunk, so drawing can skip chunks with nothing in them.
+ *
+ * @author Victoria Lacroix
+ */
+public class TileLayer {
+    /**
+     * Width and height of a chunk, in tiles.
+     */
+    public static final int     CHUNK_SIZE      = 16;
+    /**
+     * Largest tile a layer can hold.
+     */
+    public static final int     MAX_TILE        = 0xFFFF;
+
+    public final int            WIDTH, HEIGHT;
+    private final String        name;
+    private final int           chunksX;
+    /**
+     * Drawn over the entities instead of under them.
+     */
+    private boolean             overhead        = false;
+
+    private byte[]              bytes;
+    private char[]              chars;
+    /**
+     * Tiles that are not 0, in the whole layer and per chunk. Null while the
+     * layer is empty.
+     */
+    private int                 count           = 0;
+    private int[]               chunkCount;
+
+    /**
+     * Creates an empty layer. It takes no memory for its tiles until one is
+     * set.
+     * @param n name
+     * @param w width, in tiles
+     * @param h height, in tiles
+     */
+    public TileLayer(String n, int w, int h) {
+        name = n;
+        WIDTH = w;
+        HEIGHT = h;
+        chunksX = (w + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+
+    /**
+     * Creates a layer holding some tiles, in the narrowest storage that fits.
+     * @param n name
+     * @param w width, in tiles
+     * @param h height, in tiles
+     * @param tiles w * h tiles, row by row. Tiles out of range become 0.
+     */
+    public TileLayer(String n, int w, int h, int[] tiles) {
+        this(n, w, h);
+        int max = 0;
+        for(int i = 0; i < w * h; ++i) {
+            if(tiles[i] > 0 && tiles[i] <= MAX_TILE) max = Math.max(max, tiles[i]);
+        }
+        if(max == 0) return;
+        widen(max);
+        for(int i = 0; i < w * h; ++i) {
+            int t = (tiles[i] > 0 && tiles[i] <= MAX_TILE) ? tiles[i] : 0;
+            if(t != 0) {
+                store(i, t);
+                count++;
+                chunkCount[chunk(i)]++;
+            }
+        }
+    }
+
+    /**
+     * Makes the storage wide enough for a tile.
+     */
+    private void widen(int t) {
+        if(chunkCount == null) {
+            chunkCount = new int[chunksX * ((HEIGHT + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+        }
+        if(t > 0xFF && chars == null) {
+            chars = new char[WIDTH * HEIGHT];
+            if(bytes != null) {
+                for(int i = 0; i < bytes.length; ++i) {
+                    chars[i] = (char)(bytes[i] & 0xFF);
+                }
+                bytes = null;
+            }
+        } else if(chars == null && bytes == null) {
+            bytes = new byte[WIDTH * HEIGHT];
+        }
+    }
+
+    private void store(int i, int t) {
+        if(chars != null) {
+            chars[i] = (char)t;
+        } else {
+            bytes[i] = (byte)t;
+        }
+    }
+
+    private int chunk(int i) {
+        return (i % WIDTH) / CHUNK_SIZE + ((i / WIDTH) / CHUNK_SIZE) * chunksX;
+    }
+
+    /**
+     * @param i tile index (x + y * WIDTH)
+     * @return the tile there.
+     */
+    public int get(int i) {
+        if(chars != null) return chars[i];
+        if(bytes != null) return bytes[i] & 0xFF;
+        return 0;
+    }
+
+    /**
+     * @param x tile coord
+     * @param y tile coord
+     * @return the tile there, or 0 off the layer.
+     */
+    public int get(int x, int y) {
+        if(x < 0 || y < 0 || x >= WIDTH || y >= HEIGHT) return 0;
+        return get(x + (y * WIDTH));
+    }
+
+    /**
+     * Sets a tile, widening the storage if it does not fit.
+     * @param i tile index (x + y * WIDTH)
+     * @param t 0 to MAX_TILE
+     */
+    public void set(int i, int t) {
+        t = (t < 0 || t > MAX_TILE) ? 0 : t;
+        int old = get(i);
+        if(old == t) return;
+        if(t != 0) {
+            widen(t);
+        }
+        store(i, t);
+        if(old == 0) {
+            count++;
+            chunkCount[chunk(i)]++;
+        } else if(t == 0) {
+            count--;
+            chunkCount[chunk(i)]--;
+        }
+    }
+
+    public void set(int x, int y, int t) {
+        if(x < 0 || y < 0 || x >= WIDTH || y >= HEIGHT) return;
+        set(x + (y * WIDTH), t);
+    }
+
+    /**
+     * @return whether every tile is 0.
+     */
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @param cx chunk coord
+     * @param cy chunk coord
+     * @return whether every tile in a chunk is 0.
+     */
+    public boolean isChunkEmpty(int cx, int cy) {
+        return chunkCount == null || chunkCount[cx + (cy * chunksX)] == 0;
+    }
+
+    /**
+     * @return bytes used per tile: 0, 1 or 2.
+     */
+    public int getTileSize() {
+        return (chars != null) ? 2 : (bytes != null) ? 1 : 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isOverhead() {
+        return overhead;
+    }
+
+    public void setOverhead(boolean o) {
+        overhead = o;
+    }
+
+    /**
+     * Reads the visible tile layers of a TMX file. Tiles are numbered from
+     * the first tileset, so the tile at the top left of the map's tileset is
+     * 1 in the file and 0 here; empty tiles in the file are 0 as well. Layers
+     * named "overhead...", or with an "overhead" property of true, are drawn
+     * over the entities.
+     * @param url TMX file
+     * @return the layers, bottom first.
+     * @throws IOException if the file cannot be read.
+     */
+    public static TileLayer[] load(String url) throws IOException {
+        Document doc;
+        try {
+            doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new File(url));
+        } catch(Exception e) {
+            throw new IOException("Could not read layers from " + url, e);
+        }
+        int firstGid = 1;
+        NodeList sets = doc.getElementsByTagName("tileset");
+        if(sets.getLength() > 0) {
+            firstGid = Integer.parseInt(((Element)sets.item(0)).getAttribute("firstgid"));
+        }
+        ArrayList<TileLayer> layers = new ArrayList<TileLayer>();
+        NodeList list = doc.getElementsByTagName("layer");
+        for(int i = 0; i < list.getLength(); ++i) {
+            Element l = (Element)list.item(i);
+            if(l.getAttribute("visible").equals("0")) continue;
+            int w = Integer.parseInt(l.getAttribute("width"));
+            int h = Integer.parseInt(l.getAttribute("height"));
+            Element data = (Element)l.getElementsByTagName("data").item(0);
+            int[] gids = readData(data, w * h);
+            for(int j = 0; j < gids.length; ++j) {
+                // The top bits of a gid are flip flags, which are not drawn.
+                int g = gids[j] & 0x1FFFFFFF;
+                gids[j] = (g == 0) ? 0 : g - firstGid;
+            }
+            TileLayer layer = new TileLayer(l.getAttribute("name"), w, h, gids);
+            boolean over = l.getAttribute("name").toLowerCase().startsWith("overhead");
+            NodeList ps = l.getElementsByTagName("property");
+            for(int j = 0; j < ps.getLength(); ++j) {
+                Element p = (Element)ps.item(j);
+                if(p.getAttribute("name").equals("overhead")) {
+                    over = p.getAttribute("value").equals("true");
+                }
+            }
+            layer.setOverhead(over);
+            layers.add(layer);
+        }
+        return layers.toArray(new TileLayer[layers.size()]);
+    }
+
+    /**
+     * Reads the gids of a layer's data, in CSV or base64 (plain, zlib or
+     * gzip).
+     */
+    private static int[] readData(Element data, int n) throws IOException {
+        int[] gids = new int[n];
+        String encoding = data.getAttribute("encoding");
+        String text = data.getTextContent().trim();
+        if(encoding.equals("csv")) {
+            String[] f = text.split("[,\\s]+");
+            for(int i = 0; i < n && i < f.length; ++i) {
+                gids[i] = (int)Long.parseLong(f[i]);
+            }
+        } else if(encoding.equals("base64")) {
+            InputStream in = new ByteArrayInputStream(Base64.getMimeDecoder().decode(text));
+            String compression = data.getAttribute("compression");
+            if(compression.equals("zlib")) {
+                in = new InflaterInputStream(in);
+            } else if(compression.equals("gzip")) {
+                in = new GZIPInputStream(in);
+            } else if(!compression.isEmpty()) {
+                throw new IOException("Unsupported layer compression " + compression);
+            }
+            try {
+                byte[] b = new byte[4];
+                for(int i = 0; i < n; ++i) {
+                    int read = 0;
+                    while(read < 4) {
+                        int r = in.read(b, read, 4 - read);
+                        if(r < 0) throw new IOException("Layer data is truncated.");
+                        read += r;
+                    }
+                    gids[i] = (b[0] & 0xFF) | ((b[1] & 0xFF) << 8) | ((b[2] & 0xFF) << 16) | ((b[3] & 0xFF) << 24);
+                }
+            } finally {
+                in.close();
+            }
+        } else {
+            NodeList tiles = data.getElementsByTagName("tile");
+            for(int i = 0; i < n && i < tiles.getLength(); ++i) {
+                String g = ((Element)tiles.item(i)).getAttribute("gid");
+                gids[i] = g.isEmpty() ? 0 : (int)Long.parseLong(g);
+            }
+        }
+        return gids;
+    }
+}
@@ -0,0 +1,55 @@
+package victory.engine.world;
+
+import java.util.HashMap;
+
+/**
+ * A zone on a map, such as a door, a warp, a sign or an encounter area.
+ * Loaded from the objects of a TMX object group.
+ * @author Victoria Lacroix
+ */
+public class Trigger {
+    /**
+     * Index of this trigger in its TriggerLayer.
+     */
+    public final int        index;
+    public final String     name, type;
+    /**
+     * Area of the zone, in pixels.
+     */
+    public final int        x, y, width, height;
+    private final HashMap<String, String> properties;
+
+    public Trigger(int i, String n, String t, int x, int y, int w, int h, HashMap<String, String> p) {
+        index = i;
+        name = n;
+        type = t;
+        this.x = x;
+        this.y = y;
+        width = w;
+        height = h;
+        properties = p;
+    }
+
+    /**
+     * @param key
+     * @return the value of a custom property, or null.
+     */
+    public String getProperty(String key) {
+        return properties.get(key);
+    }
+
+    /**
+     * @param key
+     * @param def value if the property is missing or not a number
+     * @return a custom property as a number.
+     */
+    public int getProperty(String key, int def) {
+        String v = properties.get(key);
+        if(v == null) return def;
+        try {
+            return Integer.parseInt(v.trim());
+        } catch(NumberFormatException e) {
+            return def;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package victory.engine.world;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * The triggers of a map, indexed by tile. Every tile has the list of
+ * triggers that cover it, stored one after another in a single array
+ * (tileStart[t] to tileStart[t + 1]), so finding the triggers on a tile is
+ * one lookup however many the map has.
+ *
+ * @author Victoria Lacroix
+ */
+public class TriggerLayer {
+    public final int            WIDTH, HEIGHT;
+    public final int            TILE_WIDTH, TILE_HEIGHT;
+
+    private final Trigger[]     triggers;
+    private final int[]         tileStart;
+    private final int[]         tileTriggers;
+
+    /**
+     * Indexes a list of triggers.
+     * @param w map width, in tiles
+     * @param h map height, in tiles
+     * @param tw tile width
+     * @param th tile height
+     * @param list triggers; each one's index must be its place in the list.
+     */
+    public TriggerLayer(int w, int h, int tw, int th, Trigger[] list) {
+        WIDTH = w;
+        HEIGHT = h;
+        TILE_WIDTH = tw;
+        TILE_HEIGHT = th;
+        triggers = list;
+        tileStart = new int[w * h + 1];
+
+        // Count the triggers on each tile, turn the counts into starts, then
+        // fill each tile's list in trigger order.
+        for(int i = 0; i < list.length; ++i) {
+            Trigger t = list[i];
+            for(int ty = top(t); ty <= bottom(t); ++ty) {
+                for(int tx = left(t); tx <= right(t); ++tx) {
+                    tileStart[tx + (ty * w) + 1]++;
+                }
+            }
+        }
+        for(int i = 0; i < w * h; ++i) {
+            tileStart[i + 1] += tileStart[i];
+        }
+        tileTriggers = new int[tileStart[w * h]];
+        int[] fill = new int[w * h];
+        for(int i = 0; i < list.length; ++i) {
+            Trigger t = list[i];
+            for(int ty = top(t); ty <= bottom(t); ++ty) {
+                for(int tx = left(t); tx <= right(t); ++tx) {
+                    int tile = tx + (ty * w);
+                    tileTriggers[tileStart[tile] + fill[tile]++] = i;
+                }
+            }
+        }
+    }
+
+    private int left(Trigger t) {
+        return Math.max(0, t.x / TILE_WIDTH);
+    }
+
+    private int top(Trigger t) {
+        return Math.max(0, t.y / TILE_HEIGHT);
+    }
+
+    /**
+     * A zone with no size (a point) still covers the tile it is on.
+     */
+    private int right(Trigger t) {
+        return Math.min(WIDTH - 1, (t.x + Math.max(t.width, 1) - 1) / TILE_WIDTH);
+    }
+
+    private int bottom(Trigger t) {
+        return Math.min(HEIGHT - 1, (t.y + Math.max(t.height, 1) - 1) / TILE_HEIGHT);
+    }
+
+    /**
+     * @return an empty layer for a map.
+     */
+    public static TriggerLayer empty(Map m) {
+        return new TriggerLayer(m.getWidth(), m.getHeight(), m.TILE_WIDTH, m.TILE_HEIGHT, new Trigger[0]);
+    }
+
+    /**
+     * Reads every object of every object group in a TMX file as a trigger.
+     * Each object's type (or class) and custom properties are kept.
+     * @param m map the file describes
+     * @param url path to the .tmx file
+     * @return the layer, which is empty if the file could not be read.
+     */
+    public static TriggerLayer load(Map m, String url) {
+        ArrayList<Trigger> list = new ArrayList<Trigger>();
+        try {
+            Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new File(url));
+            NodeList objects = doc.getElementsByTagName("object");
+            for(int i = 0; i < objects.getLength(); ++i) {
+                Element o = (Element)objects.item(i);
+                if(!((Element)o.getParentNode()).getTagName().equals("objectgroup")) continue;
+                HashMap<String, String> props = new HashMap<String, String>();
+                NodeList ps = o.getElementsByTagName("property");
+                for(int j = 0; j < ps.getLength(); ++j) {
+                    Element p = (Element)ps.item(j);
+                    String v = p.hasAttribute("value") ? p.getAttribute("value") : p.getTextContent();
+                    props.put(p.getAttribute("name"), v);
+                }
+                String type = o.hasAttribute("type") ? o.getAttribute("type") : o.getAttribute("class");
+                list.add(new Trigger(list.size(), o.getAttribute("name"), type,
+                        number(o, "x"), number(o, "y"), number(o, "width"), number(o, "height"), props));
+            }
+        } catch(Exception e) {
+            e.printStackTrace();
+            System.err.println("Could not read triggers from " + url);
+        }
+        return new TriggerLayer(m.getWidth(), m.getHeight(), m.TILE_WIDTH, m.TILE_HEIGHT,
+                list.toArray(new Trigger[list.size()]));
+    }
+
+    private static int number(Element e, String attribute) {
+        String v = e.getAttribute(attribute);
+        return v.isEmpty() ? 0 : (int)Math.round(Double.parseDouble(v));
+    }
+
+    /**
+     * @return how many triggers there are.
+     */
+    public int size() {
+        return triggers.length;
+    }
+
+    public Trigger get(int i) {
+        return triggers[i];
+    }
+
+    /**
+     * @param tile tile index (x + y * WIDTH)
+     * @return where the tile's triggers start in getTileTriggers().
+     */
+    public int start(int tile) {
+        return tileStart[tile];
+    }
+
+    /**
+     * @param tile tile index (x + y * WIDTH)
+     * @return where the tile's triggers end in getTileTriggers().
+     */
+    public int end(int tile) {
+        return tileStart[tile + 1];
+    }
+
+    /**
+     * @param i from start(tile) to end(tile) - 1
+     * @return a trigger on that tile. Each tile's triggers are in ascending
+     *         order.
+     */
+    public int tileTrigger(int i) {
+        return tileTriggers[i];
+    }
+
+    /**
+     * @return the tile index under a point, or -1 if it is off the map.
+     */
+    public int tileAt(double x, double y) {
+        if(x < 0 || y < 0) return -1;
+        int tx = (int)(x / TILE_WIDTH), ty = (int)(y / TILE_HEIGHT);
+        if(tx >= WIDTH || ty >= HEIGHT) return -1;
+        return tx + (ty * WIDTH);
+    }
+
+    /**
+     * @return the first trigger of a type, or null.
+     */
+    public Trigger find(String type) {
+        for(int i = 0; i < triggers.length; ++i) {
+            if(type.equals(triggers[i].type)) return triggers[i];
+        }
+        return null;
+    }
+}
@@ -0,0 +1,22 @@
+package victory.engine.world;
+
+/**
+ * Something that reacts to entities moving through triggers.
+ * @author Victoria Lacroix
+ */
+public interface TriggerListener {
+    /**
+     * Called on the tick an entity moves into a trigger.
+     */
+    public void triggerEntered(Entity e, Trigger t);
+
+    /**
+     * Called on every later tick the entity is still in it.
+     */
+    public void triggerStayed(Entity e, Trigger t);
+
+    /**
+     * Called on the tick the entity leaves it.
+     */
+    public void triggerExited(Entity e, Trigger t);
+}
@@ -0,0 +1,238 @@
+package victory.engine.world;
+
+import java.io.IOException;
+import java.util.Random;
+
+import victory.engine.battle.BattleData;
+import victory.engine.battle.BattleScene;
+import victory.engine.battle.BattleState;
+import victory.engine.battle.Policy;
+import victory.engine.gui.DialogWindow;
+import victory.engine.gui.GUIEngine;
+import victory.engine.gui.KeyStateManager;
+import victory.engine.gui.Menu;
+import victory.engine.script.ScriptHost;
+import victory.engine.script.ScriptInstance;
+
+/**
+ * The functions scripts on a MapEngine can call. Functions about "me" act on
+ * the entity the script belongs to, and do nothing for scripts that belong
+ * to no entity, such as cutscenes.
+ *
+ * <pre>
+ * say(text)               shows a line of dialog, and waits for it to close
+ * choice(a, b, ...)       shows a menu, and returns the choice from 0
+ * rand(n)                 a random number from 0 to n - 1
+ * move(dx, dy)            sets my velocity, in pixels per second
+ * halt()                  stops me moving
+ * walk_to(x, y)           walks me around walls to tile x, y, and waits to
+ *                         get there; 0 if there is no way
+ * step_to_player()        walks me one tile nearer the player, and waits;
+ *                         0 if I am there or cannot get there
+ * battle(enemy, ...)      fights the named combatants, and waits for the
+ *                         battle to end; 1 if the player's team won
+ * x(), y()                my tile
+ * player_x(), player_y()  the tile of the entity in control
+ * sees_player()           1 if nothing blocks my line to the player
+ * tile(x, y)              the tile at x, y
+ * set_tile(x, y, t)       changes the tile at x, y
+ * print(v)                writes a value to the engine's log, for debugging
+ * </pre>
+ *
+ * @author Victoria Lacroix
+ */
+public class WorldScripts implements ScriptHost {
+    private static final String[] FUNCTIONS = {
+        "say", "choice", "rand", "move", "halt", "x", "y",
+        "player_x", "player_y", "sees_player", "tile", "set_tile", "print",
+        "walk_to", "step_to_player", "battle"
+    };
+
+    private final MapEngine     engine;
+    private final Random        random          = new Random();
+
+    /**
+     * What battles are fought with: the data, the enemy team's policy, and
+     * the player's team. Scripts cannot start battles until it is set.
+     */
+    private BattleData          battles;
+    private Policy              enemy;
+    private int[]               party;
+
+    /**
+     * @param e engine the scripts run on
+     */
+    public WorldScripts(MapEngine e) {
+        engine = e;
+    }
+
+    /**
+     * Lets scripts start battles.
+     * @param d actions and combatants
+     * @param e policy of the enemy team
+     * @param p names of the combatants on the player's team
+     * @throws IOException if there is no combatant with one of the names.
+     */
+    public void setBattles(BattleData d, Policy e, String... p) throws IOException {
+        int[] kinds = new int[p.length];
+        for(int i = 0; i < p.length; ++i) {
+            kinds[i] = d.find(p[i]);
+            if(kinds[i] < 0) throw new IOException("No combatant named " + p[i]);
+        }
+        battles = d;
+        enemy = e;
+        party = kinds;
+    }
+
+    @Override
+    public int lookup(String name) {
+        for(int i = 0; i < FUNCTIONS.length; ++i) {
+            if(FUNCTIONS[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public int call(final ScriptInstance script, int function, int[] r, int args, int count) {
+        Entity me = (script.getOwner() instanceof Entity) ? (Entity)script.getOwner() : null;
+        int a0 = (count > 0) ? r[args] : 0, a1 = (count > 1) ? r[args + 1] : 0;
+        switch(function) {
+        case 0:
+            GUIEngine.addGUI(new DialogWindow(0, GUIEngine.screenHeight / 8 - 6, GUIEngine.screenWidth / 8, 6,
+                    script.getString(a0)) {
+                @Override
+                public int control(KeyStateManager k) {
+                    int res = super.control(k);
+                    if(res != 0) {
+                        script.resume(0);
+                    }
+                    return res;
+                }
+            });
+            script.block();
+            return 0;
+        case 1:
+            String[] choices = new String[Math.max(1, count)];
+            for(int i = 0; i < choices.length; ++i) {
+                choices[i] = (i < count) ? script.getString(r[args + i]) : "";
+            }
+            GUIEngine.addGUI(new Menu(0, 0, choices) {
+                @Override
+                public int control(KeyStateManager k) {
+                    int res = super.control(k);
+                    if(res != 0) {
+                        script.resume(res - 1);
+                    }
+                    return res;
+                }
+            });
+            script.block();
+            return 0;
+        case 2:
+            return (a0 > 0) ? random.nextInt(a0) : 0;
+        case 3:
+            if(me != null) {
+                me.xvel = a0;
+                me.yvel = a1;
+                if(a1 > 0) me.direction = 0;
+                else if(a1 < 0) me.direction = 1;
+                else if(a0 < 0) me.direction = 2;
+                else if(a0 > 0) me.direction = 3;
+            }
+            return 0;
+        case 4:
+            if(me != null) {
+                me.xvel = me.yvel = 0;
+            }
+            return 0;
+        case 5:
+            return (me == null) ? 0 : tileX(me);
+        case 6:
+            return (me == null) ? 0 : tileY(me);
+        case 7:
+        case 8:
+            int p = engine.getInputIndex();
+            if(p < 0) return 0;
+            return (function == 7) ? tileX(engine.getEntity(p)) : tileY(engine.getEntity(p));
+        case 9:
+            int q = engine.getInputIndex();
+            if(me == null || q < 0) return 0;
+            return engine.getRayCaster().lineOfSight(me, engine.getEntity(q)) ? 1 : 0;
+        case 10:
+            return engine.getMap().getTile(a0, a1);
+        case 11:
+            engine.getMap().setTile(a0, a1, (short)((count > 2) ? r[args + 2] : 0));
+            return 0;
+        case 12:
+            // Into the log with the engine's own messages, not the game's output.
+            System.err.println("Script " + script.getScript().getName() + ": " + a0);
+            return 0;
+        case 13:
+            if(!(me instanceof NPCEntity)) return 0;
+            int[] path = engine.getPathfinder().findPath(tileX(me), tileY(me), a0, a1);
+            if(path == null) return 0;
+            return walk((NPCEntity)me, script, path, 1, path.length);
+        case 14:
+            int pl = engine.getInputIndex();
+            if(!(me instanceof NPCEntity) || pl < 0) return 0;
+            Entity player = engine.getEntity(pl);
+            // Every NPC after the player shares the one field towards them.
+            FlowField field = engine.getPathfinder().getFlowField(tileX(player), tileY(player));
+            int step = (field == null) ? -1 : field.next(tileX(me), tileY(me));
+            if(step < 0) return 0;
+            return walk((NPCEntity)me, script, new int[] { step }, 0, 1);
+        case 15:
+            if(battles == null || count == 0) return 0;
+            int[] kinds = new int[party.length + count], teams = new int[party.length + count];
+            System.arraycopy(party, 0, kinds, 0, party.length);
+            for(int i = 0; i < count; ++i) {
+                kinds[party.length + i] = battles.find(script.getString(r[args + i]));
+                teams[party.length + i] = 1;
+                if(kinds[party.length + i] < 0) {
+                    System.err.println("No combatant named " + script.getString(r[args + i]));
+                    return 0;
+                }
+            }
+            final BattleState fight = new BattleState(battles, kinds, teams);
+            GUIEngine.addGUI(new BattleScene(fight, enemy, random.nextLong()) {
+                @Override
+                public int control(KeyStateManager k) {
+                    int res = super.control(k);
+                    if(res != 0) {
+                        script.resume(fight.winner() == 0 ? 1 : 0);
+                    }
+                    return res;
+                }
+            });
+            script.block();
+            return 0;
+        default:
+            return 0;
+        }
+    }
+
+    /**
+     * Sends an NPC through tiles from to - 1 of a path, and blocks the
+     * script until it gets there.
+     */
+    private int walk(NPCEntity me, ScriptInstance script, int[] path, int from, int to) {
+        if(from >= to) return 1;
+        int w = engine.getMap().cmap.WIDTH;
+        double[] points = new double[(to - from) * 2];
+        for(int i = from; i < to; ++i) {
+            points[(i - from) * 2] = (path[i] % w) * engine.TILE_WIDTH + (engine.TILE_WIDTH - me.getWidth()) / 2;
+            points[(i - from) * 2 + 1] = (path[i] / w) * engine.TILE_HEIGHT + (engine.TILE_HEIGHT - me.getHeight()) / 2;
+        }
+        me.walk(points, script);
+        script.block();
+        return 0;
+    }
+
+    private int tileX(Entity e) {
+        return (int)(e.getX() + e.getWidth() / 2) / engine.TILE_WIDTH;
+    }
+
+    private int tileY(Entity e) {
+        return (int)(e.getY() + e.getHeight() / 2) / engine.TILE_HEIGHT;
+    }
+}
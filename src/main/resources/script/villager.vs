@@ -0,0 +1,25 @@
+# Paces left and right, and greets the player once they come into view.
+# Then offers a sparring match against their wolf.
+greeted = 0
+while 1
+    move(60, 0)
+    wait 1000
+    move(-60, 0)
+    wait 1000
+    halt()
+    if sees_player() and not greeted
+        say("Hello, traveller!")
+        answer = choice("Who are you?", "Spar with me", "Goodbye")
+        if answer == 0
+            say("Just someone who likes walking.")
+        end
+        if answer == 1
+            if battle("Wolf")
+                say("You beat my wolf!")
+            else
+                say("Come back when you are stronger.")
+            end
+        end
+        greeted = 1
+    end
+end
@@ -0,0 +1,93 @@
+package victory.engine.world;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import victory.engine.script.ScriptLibrary;
+
+/**
+ * Scripts that walk NPCs through WorldScripts, over a map with a wall
+ * between them and where they are going.
+ *
+ * @author Victoria Lacroix
+ */
+public class WorldScriptsTest {
+    private static final double DELTA   = 1.0 / 60;
+    private static final int    WALL_X  = 8;
+    private static final int    GAP_Y   = 30;
+
+    private Map         map;
+    private MapEngine   engine;
+    private ScriptLibrary scripts;
+
+    @Before
+    public void setUp() {
+        map = new Map(32, 32, null, "map/csv/world.csv");
+        // Open ground, with a wall down column 8 that is only open at the bottom.
+        for(int y = 0; y < 32; ++y) {
+            for(int x = 0; x < 32; ++x) {
+                map.cmap.setAt(x, y, x != WALL_X || y == GAP_Y);
+            }
+        }
+        engine = new MapEngine(320, 240, map);
+        scripts = new ScriptLibrary(new WorldScripts(engine));
+    }
+
+    private NPCEntity npc(int tx, int ty, String name, String source) throws Exception {
+        scripts.add(name, source);
+        NPCEntity n = new NPCEntity(tx * 16, ty * 16);
+        n.setScript(scripts.start(name, n));
+        engine.addEntity(n);
+        return n;
+    }
+
+    /**
+     * Runs the engine until the NPC stops walking, checking it never stands
+     * on a blocked tile.
+     */
+    private void walk(NPCEntity n, int ticks) {
+        for(int i = 0; i < ticks; ++i) {
+            engine.update(DELTA);
+            int tx = (int)(n.getX() + 8) / 16, ty = (int)(n.getY() + 8) / 16;
+            assertTrue("walked into " + tx + ", " + ty, map.cmap.getAt(tx, ty));
+            if(!n.isWalking() && i > 0) return;
+        }
+        fail("still walking after " + ticks + " ticks");
+    }
+
+    @Test
+    public void walkToGoesAroundWalls() throws Exception {
+        NPCEntity n = npc(2, 2, "walker", "arrived = walk_to(20, 4)\n");
+        walk(n, 60 * 120);
+        assertEquals(20 * 16, n.getX(), 0.001);
+        assertEquals(4 * 16, n.getY(), 0.001);
+        assertEquals(0, n.getVelocityX(), 0);
+    }
+
+    @Test
+    public void walkToReturnsZeroWithNoWay() throws Exception {
+        map.cmap.setAt(WALL_X, GAP_Y, false);
+        NPCEntity n = npc(2, 2, "stuck", "if walk_to(20, 4) == 0\n    halt()\nend\nx = 1\n");
+        engine.update(DELTA);
+        assertFalse(n.isWalking());
+        assertEquals(2 * 16, n.getX(), 0.001);
+    }
+
+    @Test
+    public void stepToPlayerFollowsTheFlowField() throws Exception {
+        engine.addEntity(new Player(20 * 16, 4 * 16));
+        engine.attachInput(0);
+        NPCEntity n = npc(6, 4, "follower", "while step_to_player()\nend\n");
+        FlowField field = engine.getPathfinder().getFlowField(20, 4);
+        int before = field.distanceAt(6, 4);
+        for(int i = 0; i < 60 * 3; ++i) {
+            engine.update(DELTA);
+        }
+        int tx = (int)(n.getX() + 8) / 16, ty = (int)(n.getY() + 8) / 16;
+        assertTrue(field.distanceAt(tx, ty) < before);
+        // It heads for the gap rather than into the wall.
+        assertTrue(ty > 4);
+    }
+}